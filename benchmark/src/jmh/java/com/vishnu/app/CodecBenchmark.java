@@ -0,0 +1,66 @@
+package com.vishnu.app;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the default {@link GsonPreferenceCodec} with the {@link BinaryPreferenceCodec} on lists. The binary codec
+ * is measured without its Base64 wrapping, which relies on android.util.Base64 and is not available on a plain JVM.
+ * The encoded sizes of each payload are listed in the README.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CodecBenchmark {
+
+    private static final Type ITEMS_TYPE = new TypeToken<ArrayList<Payloads.Item>>() {}.getType();
+
+    /** The approximate length of the JSON encoding of the list */
+    @Param({"100", "10000", "100000", "1000000"})
+    public int payloadBytes;
+
+    private final GsonPreferenceCodec mGsonCodec = new GsonPreferenceCodec();
+    private final BinaryPreferenceCodec mBinaryCodec = new BinaryPreferenceCodec();
+    private ArrayList<Payloads.Item> mItems;
+    private String mJson;
+    private byte[] mBinary;
+
+    @Setup
+    public void setUp() {
+        mItems = Payloads.items(payloadBytes);
+        mJson = mGsonCodec.encode(mItems, ITEMS_TYPE);
+        mBinary = mBinaryCodec.encodeBytes(mItems, ITEMS_TYPE);
+    }
+
+    @Benchmark
+    public String gsonEncode() {
+        return mGsonCodec.encode(mItems, ITEMS_TYPE);
+    }
+
+    @Benchmark
+    public Object gsonDecode() {
+        return mGsonCodec.decode(mJson, ITEMS_TYPE);
+    }
+
+    @Benchmark
+    public byte[] binaryEncode() {
+        return mBinaryCodec.encodeBytes(mItems, ITEMS_TYPE);
+    }
+
+    @Benchmark
+    public Object binaryDecode() {
+        return mBinaryCodec.decodeBytes(mBinary, ITEMS_TYPE);
+    }
+}
@@ -0,0 +1,164 @@
+package com.vishnu.app;
+
+import android.content.SharedPreferences;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * A {@link SharedPreferences} kept in memory only, standing in for the Android implementation on a plain JVM. It
+ * behaves like the Android implementation without its disk write, so the benchmarks measure the cost of the helpers
+ * themselves.
+ */
+class InMemorySharedPreferences implements SharedPreferences {
+
+    private final Map<String, Object> mValues = new ConcurrentHashMap<>();
+    private final CopyOnWriteArrayList<OnSharedPreferenceChangeListener> mListeners = new CopyOnWriteArrayList<>();
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(mValues);
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = (String) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Set<String> values = (Set<String>) mValues.get(key);
+        return values != null ? values : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Integer value = (Integer) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Long value = (Long) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Float value = (Float) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    private class EditorImpl implements Editor {
+        private final Map<String, Object> mChanges = new HashMap<>();
+        private boolean mCleared = false;
+
+        @Override
+        public Editor putString(String key, String value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            mChanges.put(key, values == null ? null : new HashSet<>(values));
+            return this;
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            mChanges.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor remove(String key) {
+            mChanges.put(key, null);
+            return this;
+        }
+
+        @Override
+        public Editor clear() {
+            mCleared = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            apply();
+            return true;
+        }
+
+        @Override
+        public void apply() {
+            if (mCleared) {
+                mValues.clear();
+            }
+            for (Map.Entry<String, Object> change : mChanges.entrySet()) {
+                if (change.getValue() == null) {
+                    mValues.remove(change.getKey());
+                } else {
+                    mValues.put(change.getKey(), change.getValue());
+                }
+            }
+            for (OnSharedPreferenceChangeListener listener : mListeners) {
+                if (mCleared) {
+                    listener.onSharedPreferenceChanged(InMemorySharedPreferences.this, null);
+                }
+                for (String key : mChanges.keySet()) {
+                    listener.onSharedPreferenceChanged(InMemorySharedPreferences.this, key);
+                }
+            }
+        }
+    }
+}
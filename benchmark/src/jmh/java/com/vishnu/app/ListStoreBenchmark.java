@@ -0,0 +1,98 @@
+package com.vishnu.app;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares appending to and reading single elements of a large list kept in a {@link PreferenceListStore} with doing
+ * the same through {@link PreferenceManager#setArrayList} and {@link PreferenceManager#getArrayList}, without the
+ * decoded value cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ListStoreBenchmark {
+
+    private static final Type ITEMS_TYPE = new TypeToken<ArrayList<Payloads.Item>>() {}.getType();
+
+    /** The number of elements in the list when each iteration starts */
+    @Param({"1000", "10000"})
+    public int size;
+
+    private File mDirectory;
+    private PreferenceListStore<Payloads.Item> mStore;
+    private Payloads.Item mItem;
+    private final Random mRandom = new Random(7);
+
+    @Setup(Level.Trial)
+    public void setUpTrial() throws IOException {
+        mDirectory = Files.createTempDirectory("list-store").toFile();
+        PreferenceManager.setStorage(new InMemorySharedPreferences());
+        PreferenceManager.setCacheSize(1);
+        mItem = Payloads.item(-1);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        ArrayList<Payloads.Item> items = Payloads.items(size * Payloads.ITEM_JSON_SIZE);
+        mStore = new PreferenceListStore<>(mDirectory, Payloads.Item.class);
+        mStore.setAll(items);
+        PreferenceManager.setArrayList("list", items);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mStore.clear();
+        mDirectory.delete();
+    }
+
+    @Benchmark
+    public void storeAppend() {
+        mStore.append(mItem);
+    }
+
+    @Benchmark
+    public void arrayListAppend() {
+        ArrayList<Payloads.Item> items = PreferenceManager.getArrayList("list", ITEMS_TYPE);
+        items.add(mItem);
+        PreferenceManager.setArrayList("list", items);
+    }
+
+    @Benchmark
+    public Payloads.Item storeGet() {
+        return mStore.get(mRandom.nextInt(size));
+    }
+
+    @Benchmark
+    public Payloads.Item arrayListGet() {
+        ArrayList<Payloads.Item> items = PreferenceManager.getArrayList("list", ITEMS_TYPE);
+        return items.get(mRandom.nextInt(size));
+    }
+
+    @Benchmark
+    public int storeIterate() {
+        int count = 0;
+        for (Payloads.Item item : mStore) {
+            count += item.count;
+        }
+        return count;
+    }
+}
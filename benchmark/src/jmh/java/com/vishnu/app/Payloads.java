@@ -0,0 +1,64 @@
+package com.vishnu.app;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The objects stored by the benchmarks, sized by the length of their JSON encoding.
+ */
+final class Payloads {
+
+    /** The approximate length of the JSON encoding of one {@link Item} */
+    static final int ITEM_JSON_SIZE = 100;
+
+    private Payloads() {
+    }
+
+    /** A typical cached model object. */
+    static class Item {
+        String id;
+        long timestamp;
+        double latitude;
+        double longitude;
+        int count;
+        boolean active;
+        List<String> tags;
+    }
+
+    /** A stored object holding a list of items. */
+    static class Payload {
+        String name;
+        ArrayList<Item> items;
+    }
+
+    static Item item(int index) {
+        Item item = new Item();
+        item.id = "item-" + index;
+        item.timestamp = 1445000000000L + index;
+        item.latitude = 12.9716 + index * 1e-4;
+        item.longitude = 77.5946 - index * 1e-4;
+        item.count = index;
+        item.active = index % 2 == 0;
+        item.tags = Arrays.asList("a", "b");
+        return item;
+    }
+
+    /** Returns a list of items whose JSON encoding is about the given number of bytes long. */
+    static ArrayList<Item> items(int jsonBytes) {
+        int count = Math.max(1, jsonBytes / ITEM_JSON_SIZE);
+        ArrayList<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(item(i));
+        }
+        return items;
+    }
+
+    /** Returns an object whose JSON encoding is about the given number of bytes long. */
+    static Payload payload(int jsonBytes) {
+        Payload payload = new Payload();
+        payload.name = "payload-" + jsonBytes;
+        payload.items = items(jsonBytes);
+        return payload;
+    }
+}
@@ -0,0 +1,70 @@
+package com.vishnu.app;
+
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the object and list helpers of {@link PreferenceManager} at payload sizes from 100 B to 1 MB, with the
+ * decoded value cache enabled and disabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PreferenceManagerBenchmark {
+
+    private static final Type ITEMS_TYPE = new TypeToken<ArrayList<Payloads.Item>>() {}.getType();
+
+    /** The approximate length of the JSON encoding of the stored values */
+    @Param({"100", "10000", "100000", "1000000"})
+    public int payloadBytes;
+
+    /** Whether the getters may be served from the decoded value cache */
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private Payloads.Payload mPayload;
+    private ArrayList<Payloads.Item> mItems;
+
+    @Setup
+    public void setUp() {
+        PreferenceManager.setStorage(new InMemorySharedPreferences());
+        // a one byte budget caches nothing
+        PreferenceManager.setCacheSize(cached ? 16 * 1024 * 1024 : 1);
+        mPayload = Payloads.payload(payloadBytes);
+        mItems = Payloads.items(payloadBytes);
+        PreferenceManager.setObject("read-object", mPayload);
+        PreferenceManager.setArrayList("read-list", mItems);
+    }
+
+    @Benchmark
+    public void setObject() {
+        PreferenceManager.setObject("write-object", mPayload);
+    }
+
+    @Benchmark
+    public Payloads.Payload getObject() {
+        return PreferenceManager.getObject("read-object", Payloads.Payload.class);
+    }
+
+    @Benchmark
+    public void setArrayList() {
+        PreferenceManager.setArrayList("write-list", mItems);
+    }
+
+    @Benchmark
+    public ArrayList<Payloads.Item> getArrayList() {
+        return PreferenceManager.getArrayList("read-list", ITEMS_TYPE);
+    }
+}
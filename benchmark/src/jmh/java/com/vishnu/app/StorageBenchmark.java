@@ -0,0 +1,80 @@
+package com.vishnu.app;
+
+import android.content.SharedPreferences;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the single setters and getters of {@link PreferenceManager} on the in-memory stand-in, which is the lower
+ * bound of any storage engine, and on {@link MappedPreferences}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StorageBenchmark {
+
+    @Param({"memory", "mapped"})
+    public String storage;
+
+    private File mFile;
+    private MappedPreferences mMapped;
+    /** Two values of the same length, alternated so that every write changes the stored value */
+    private String mValue;
+    private String mOtherValue;
+    private int mCounter;
+
+    @Setup
+    public void setUp() throws IOException {
+        SharedPreferences preferences;
+        if ("mapped".equals(storage)) {
+            mFile = File.createTempFile("preferences", ".log");
+            mMapped = new MappedPreferences(mFile);
+            preferences = mMapped;
+        } else {
+            preferences = new InMemorySharedPreferences();
+        }
+        PreferenceManager.setStorage(preferences);
+        char[] chars = new char[1024];
+        Arrays.fill(chars, 'x');
+        mValue = new String(chars);
+        Arrays.fill(chars, 'y');
+        mOtherValue = new String(chars);
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mMapped != null) {
+            mMapped.close();
+            mFile.delete();
+        }
+    }
+
+    @Benchmark
+    public void setInt() {
+        PreferenceManager.setInt("int", mCounter++);
+    }
+
+    @Benchmark
+    public void setString() {
+        int counter = mCounter++;
+        PreferenceManager.setString("string" + (counter & 63), (counter & 64) == 0 ? mValue : mOtherValue);
+    }
+
+    @Benchmark
+    public int getInt() {
+        return PreferenceManager.getInt("int");
+    }
+}
@@ -0,0 +1,143 @@
+package com.vishnu.app;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Gson's reflective adapter with a precompiled adapter, as registered through
+ * {@link PreferenceTypeAdapters}. The firstUse benchmarks create a new Gson instance for every call, so they measure
+ * the cost paid the first time a class is stored after the app starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TypeAdapterBenchmark {
+
+    private Gson mReflective;
+    private Gson mRegistered;
+    private Payloads.Item mItem;
+    private String mJson;
+
+    @Setup
+    public void setUp() {
+        mReflective = new Gson();
+        mRegistered = registeredGson();
+        mItem = Payloads.item(42);
+        mJson = mReflective.toJson(mItem);
+    }
+
+    @Benchmark
+    public String reflectiveWrite() {
+        return mReflective.toJson(mItem);
+    }
+
+    @Benchmark
+    public String registeredWrite() {
+        return mRegistered.toJson(mItem);
+    }
+
+    @Benchmark
+    public Payloads.Item reflectiveRead() {
+        return mReflective.fromJson(mJson, Payloads.Item.class);
+    }
+
+    @Benchmark
+    public Payloads.Item registeredRead() {
+        return mRegistered.fromJson(mJson, Payloads.Item.class);
+    }
+
+    @Benchmark
+    public Payloads.Item reflectiveFirstUse() {
+        return new Gson().fromJson(mJson, Payloads.Item.class);
+    }
+
+    @Benchmark
+    public Payloads.Item registeredFirstUse() {
+        return registeredGson().fromJson(mJson, Payloads.Item.class);
+    }
+
+    private static Gson registeredGson() {
+        return new GsonBuilder().registerTypeAdapter(Payloads.Item.class, new ItemTypeAdapter().nullSafe()).create();
+    }
+
+    /** The adapter an annotation processor would generate for {@link Payloads.Item}. */
+    static class ItemTypeAdapter extends TypeAdapter<Payloads.Item> {
+
+        @Override
+        public void write(JsonWriter out, Payloads.Item item) throws IOException {
+            out.beginObject();
+            out.name("id").value(item.id);
+            out.name("timestamp").value(item.timestamp);
+            out.name("latitude").value(item.latitude);
+            out.name("longitude").value(item.longitude);
+            out.name("count").value(item.count);
+            out.name("active").value(item.active);
+            if (item.tags != null) {
+                out.name("tags").beginArray();
+                for (String tag : item.tags) {
+                    out.value(tag);
+                }
+                out.endArray();
+            }
+            out.endObject();
+        }
+
+        @Override
+        public Payloads.Item read(JsonReader in) throws IOException {
+            Payloads.Item item = new Payloads.Item();
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "id":
+                        item.id = in.nextString();
+                        break;
+                    case "timestamp":
+                        item.timestamp = in.nextLong();
+                        break;
+                    case "latitude":
+                        item.latitude = in.nextDouble();
+                        break;
+                    case "longitude":
+                        item.longitude = in.nextDouble();
+                        break;
+                    case "count":
+                        item.count = in.nextInt();
+                        break;
+                    case "active":
+                        item.active = in.nextBoolean();
+                        break;
+                    case "tags":
+                        List<String> tags = new ArrayList<>();
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            tags.add(in.nextString());
+                        }
+                        in.endArray();
+                        item.tags = tags;
+                        break;
+                    default:
+                        in.skipValue();
+                        break;
+                }
+            }
+            in.endObject();
+            return item;
+        }
+    }
+}
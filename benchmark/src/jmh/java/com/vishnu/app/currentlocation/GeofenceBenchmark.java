@@ -0,0 +1,114 @@
+package com.vishnu.app.currentlocation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost per fix of evaluating the fences with the {@link GeofenceEngine}, against testing every fence.
+ * The fences are spread over an area of about 55 x 37 km: mostly circles of 50 to 300 m, and a tenth hexagons. The
+ * fixes follow a random walk through the area, one fix per invocation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class GeofenceBenchmark {
+
+    private static final double MIN_LATITUDE = 48.0;
+    private static final double MIN_LONGITUDE = 11.3;
+    private static final double SPAN = 0.5;                 // IN DEGREES
+    private static final int FIXES = 4096;
+
+    @Param({"1000", "10000", "50000"})
+    public int fenceCount;
+
+    private GeofenceEngine mEngine;
+    private Geofence[] mFences;
+    private double[] mLatitudes;
+    private double[] mLongitudes;
+    private int mFix;
+    private long mTime;
+    private int mTransitions;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        List<Geofence> fences = new ArrayList<>(fenceCount);
+        for (int i = 0; i < fenceCount; i++) {
+            double latitude = MIN_LATITUDE + random.nextDouble() * SPAN;
+            double longitude = MIN_LONGITUDE + random.nextDouble() * SPAN;
+            if (i % 10 == 0) {
+                fences.add(hexagon("fence-" + i, latitude, longitude, 200).withDwellTime(60000));
+            } else {
+                fences.add(Geofence.circle("fence-" + i, latitude, longitude, 50 + random.nextInt(250)));
+            }
+        }
+        mFences = fences.toArray(new Geofence[fences.size()]);
+        mEngine = new GeofenceEngine();
+        mEngine.addGeofences(fences);
+        mEngine.addGeofenceListener(new GeofenceListener() {
+            @Override
+            public void onGeofenceTransition(Geofence geofence, int transition, long timeMillis) {
+                mTransitions++;
+            }
+        });
+
+        // a walk of 20 m steps, turning a little at every fix
+        mLatitudes = new double[FIXES];
+        mLongitudes = new double[FIXES];
+        double latitude = MIN_LATITUDE + SPAN / 2;
+        double longitude = MIN_LONGITUDE + SPAN / 2;
+        double heading = 0;
+        for (int i = 0; i < FIXES; i++) {
+            heading += random.nextGaussian() * 0.3;
+            latitude += Math.cos(heading) * 20 / Geofence.METERS_PER_DEGREE;
+            longitude += Math.sin(heading) * 20 / (Geofence.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+            mLatitudes[i] = latitude;
+            mLongitudes[i] = longitude;
+        }
+    }
+
+    private static Geofence hexagon(String id, double latitude, double longitude, double radius) {
+        double[] latitudes = new double[6];
+        double[] longitudes = new double[6];
+        for (int i = 0; i < 6; i++) {
+            double angle = Math.PI / 3 * i;
+            latitudes[i] = latitude + Math.cos(angle) * radius / Geofence.METERS_PER_DEGREE;
+            longitudes[i] = longitude + Math.sin(angle) * radius
+                    / (Geofence.METERS_PER_DEGREE * Math.cos(Math.toRadians(latitude)));
+        }
+        return Geofence.polygon(id, latitudes, longitudes);
+    }
+
+    @Benchmark
+    public int indexed() {
+        int fix = mFix++ & (FIXES - 1);
+        mTime += 1000;
+        mEngine.update(mLatitudes[fix], mLongitudes[fix], mTime);
+        return mTransitions;
+    }
+
+    @Benchmark
+    public int linearScan() {
+        int fix = mFix++ & (FIXES - 1);
+        double latitude = mLatitudes[fix];
+        double longitude = mLongitudes[fix];
+        int inside = 0;
+        for (Geofence fence : mFences) {
+            if (fence.contains(latitude, longitude)) {
+                inside++;
+            }
+        }
+        return inside;
+    }
+}
@@ -0,0 +1,90 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares Gson's reflective adapter with the {@link LocationTypeAdapter} on the {@link Location} saved as the current
+ * location. The reflective JSON is the one of the API level of the android-all jar, which the adapter also reads, in
+ * legacyRead. The firstUse benchmarks create a new Gson instance for every call, so they measure the cost paid the
+ * first time a location is stored after the app starts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.AverageTime, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LocationTypeAdapterBenchmark {
+
+    private Gson mReflective;
+    private Gson mRegistered;
+    private Location mLocation;
+    private String mReflectiveJson;
+    private String mAdapterJson;
+
+    @Setup
+    public void setUp() {
+        mReflective = new Gson();
+        mRegistered = registeredGson();
+        mLocation = new Location("fused");
+        mLocation.setTime(1500000000000L);
+        mLocation.setElapsedRealtimeNanos(123456789000L);
+        mLocation.setLatitude(48.137154);
+        mLocation.setLongitude(11.576124);
+        mLocation.setAltitude(519.5);
+        mLocation.setSpeed(1.4f);
+        mLocation.setBearing(271.0f);
+        mLocation.setAccuracy(12.0f);
+        mReflectiveJson = mReflective.toJson(mLocation);
+        mAdapterJson = mRegistered.toJson(mLocation);
+    }
+
+    @Benchmark
+    public String reflectiveWrite() {
+        return mReflective.toJson(mLocation);
+    }
+
+    @Benchmark
+    public String adapterWrite() {
+        return mRegistered.toJson(mLocation);
+    }
+
+    @Benchmark
+    public Location reflectiveRead() {
+        return mReflective.fromJson(mReflectiveJson, Location.class);
+    }
+
+    @Benchmark
+    public Location adapterRead() {
+        return mRegistered.fromJson(mAdapterJson, Location.class);
+    }
+
+    @Benchmark
+    public Location legacyRead() {
+        return mRegistered.fromJson(mReflectiveJson, Location.class);
+    }
+
+    @Benchmark
+    public Location reflectiveFirstUse() {
+        return new Gson().fromJson(mReflectiveJson, Location.class);
+    }
+
+    @Benchmark
+    public Location adapterFirstUse() {
+        return registeredGson().fromJson(mAdapterJson, Location.class);
+    }
+
+    private static Gson registeredGson() {
+        return new GsonBuilder().registerTypeAdapter(Location.class, new LocationTypeAdapter().nullSafe()).create();
+    }
+}
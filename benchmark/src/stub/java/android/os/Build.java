@@ -0,0 +1,12 @@
+package android.os;
+
+/**
+ * Stand-in for the Build of the android-all jar, whose static initializer reads the system properties through native
+ * code and fails on a plain JVM. Only the API level is read here, and it is the one of the android-all jar.
+ */
+public class Build {
+
+    public static class VERSION {
+        public static final int SDK_INT = 23;
+    }
+}
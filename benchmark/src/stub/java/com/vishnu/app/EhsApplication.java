@@ -0,0 +1,14 @@
+package com.vishnu.app;
+
+import android.content.Context;
+
+/**
+ * Stand-in for the application class, which is not part of this repository. The benchmarks replace the storage of
+ * {@link PreferenceManager} before using it, so no context is ever needed.
+ */
+public class EhsApplication {
+
+    public static Context getContext() {
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package com.vishnu.app;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link MappedPreferences} replays its log to the committed values only: after a reopen, a torn record,
+ * a failed editor and a compaction.
+ */
+public class MappedPreferencesTest {
+
+    /** The offset of the CRC of the first record: the file header, then the length of the record */
+    private static final int FIRST_RECORD_CRC_OFFSET = 12 + 4;
+
+    private File mFile;
+    private MappedPreferences mPreferences;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("preferences", ".log");
+        mFile.delete();
+        mPreferences = new MappedPreferences(mFile);
+    }
+
+    @After
+    public void tearDown() {
+        mPreferences.close();
+        mFile.delete();
+        new File(mFile.getPath() + ".compact").delete();
+    }
+
+    @Test
+    public void replaysCommittedValues() throws IOException {
+        mPreferences.edit().putString("string", "value").putInt("int", 42).putBoolean("boolean", true).commit();
+        mPreferences.edit().putLong("long", 7L).remove("int").commit();
+        reopen();
+
+        assertEquals("value", mPreferences.getString("string", null));
+        assertFalse(mPreferences.contains("int"));
+        assertTrue(mPreferences.getBoolean("boolean", false));
+        assertEquals(7L, mPreferences.getLong("long", 0));
+    }
+
+    @Test
+    public void replaysClear() throws IOException {
+        mPreferences.edit().putString("before", "value").commit();
+        mPreferences.edit().clear().putString("after", "value").commit();
+        reopen();
+
+        assertFalse(mPreferences.contains("before"));
+        assertEquals("value", mPreferences.getString("after", null));
+    }
+
+    @Test
+    public void tornRecordDropsTheRecordsAfterIt() throws IOException {
+        mPreferences.edit().putString("key", "one").commit();
+        mPreferences.edit().putString("key", "two").commit();
+        mPreferences.edit().putString("key", "six").commit();
+        mPreferences.close();
+        RandomAccessFile file = new RandomAccessFile(mFile, "rw");
+        try {
+            file.seek(FIRST_RECORD_CRC_OFFSET);
+            int crc = file.readInt();
+            file.seek(FIRST_RECORD_CRC_OFFSET);
+            file.writeInt(~crc);
+        } finally {
+            file.close();
+        }
+        mPreferences = new MappedPreferences(mFile);
+        assertFalse(mPreferences.contains("key"));
+
+        // a record of the same length lines up with the stale records, which must not be read after it
+        mPreferences.edit().putString("key", "ten").commit();
+        reopen();
+
+        assertEquals("ten", mPreferences.getString("key", null));
+    }
+
+    @Test
+    public void failedEditorLeavesNoRecord() throws IOException {
+        mPreferences.edit().putString("filler", repeat('f', 60 * 1024)).commit();
+        // the mapping stays usable for the records which fit, while growing it fails
+        mPreferences.close();
+
+        boolean written = mPreferences.edit()
+                .putString("a", "fits")
+                .putString("b", repeat('b', 16 * 1024))
+                .commit();
+
+        assertFalse(written);
+        assertNull(mPreferences.getString("a", null));
+        mPreferences = new MappedPreferences(mFile);
+        assertFalse(mPreferences.contains("a"));
+        assertFalse(mPreferences.contains("b"));
+        assertEquals(60 * 1024, mPreferences.getString("filler", "").length());
+
+        mPreferences.edit().putString("c", "after").commit();
+        reopen();
+        assertFalse(mPreferences.contains("a"));
+        assertEquals("after", mPreferences.getString("c", null));
+    }
+
+    @Test
+    public void compactionKeepsTheLatestValues() throws IOException {
+        String value = repeat('v', 1024);
+        for (int i = 0; i < 1000; i++) {
+            mPreferences.edit().putString("key" + (i % 10), value + i).commit();
+        }
+        // 1000 records of about 1 KB would take a megabyte without compaction
+        assertTrue(mFile.length() < 256 * 1024);
+        mPreferences.edit().putString("after", "compaction").commit();
+        reopen();
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(value + (990 + i), mPreferences.getString("key" + i, null));
+        }
+        assertEquals("compaction", mPreferences.getString("after", null));
+    }
+
+    private void reopen() throws IOException {
+        mPreferences.close();
+        mPreferences = new MappedPreferences(mFile);
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+}
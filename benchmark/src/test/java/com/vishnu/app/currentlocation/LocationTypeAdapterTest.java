@@ -0,0 +1,88 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link LocationTypeAdapter} reads its own format and the reflective layouts of every API level.
+ */
+public class LocationTypeAdapterTest {
+
+    private final Gson mGson = new GsonBuilder()
+            .registerTypeAdapter(Location.class, new LocationTypeAdapter().nullSafe())
+            .create();
+
+    @Test
+    public void readsItsOwnFormat() {
+        Location location = new Location("gps");
+        location.setTime(1000);
+        location.setLatitude(48.1);
+        location.setLongitude(11.5);
+        location.setAccuracy(12);
+        location.setBearing(90);
+
+        Location read = mGson.fromJson(mGson.toJson(location), Location.class);
+
+        assertEquals("gps", read.getProvider());
+        assertEquals(1000, read.getTime());
+        assertEquals(48.1, read.getLatitude(), 0);
+        assertEquals(11.5, read.getLongitude(), 0);
+        assertTrue(read.hasAccuracy());
+        assertEquals(12, read.getAccuracy(), 0);
+        assertTrue(read.hasBearing());
+        assertFalse(read.hasAltitude());
+        assertFalse(read.hasSpeed());
+    }
+
+    @Test
+    public void readsTheLayoutUpToApi25() {
+        assertFix(mGson.fromJson("{\"mProvider\":\"gps\",\"mTime\":1000,\"mElapsedRealtimeNanos\":7,"
+                + "\"mLatitude\":48.1,\"mLongitude\":11.5,\"mHasAltitude\":true,\"mAltitude\":519.5,"
+                + "\"mHasSpeed\":true,\"mSpeed\":1.5,\"mHasBearing\":false,\"mBearing\":0.0,"
+                + "\"mHasAccuracy\":true,\"mAccuracy\":12.0,\"mIsFromMockProvider\":false}", Location.class));
+    }
+
+    @Test
+    public void readsTheLayoutOfApi26To30() {
+        // mFieldsMask is a byte: altitude, speed, horizontal accuracy and bearing accuracy (128)
+        assertFix(mGson.fromJson("{\"mProvider\":\"gps\",\"mTime\":1000,\"mElapsedRealtimeNanos\":7,"
+                + "\"mLatitude\":48.1,\"mLongitude\":11.5,\"mAltitude\":519.5,\"mSpeed\":1.5,\"mBearing\":0.0,"
+                + "\"mHorizontalAccuracyMeters\":12.0,\"mVerticalAccuracyMeters\":0.0,"
+                + "\"mSpeedAccuracyMetersPerSecond\":0.0,\"mBearingAccuracyDegrees\":3.0,\"mFieldsMask\":-117}",
+                Location.class));
+    }
+
+    @Test
+    public void readsTheLayoutFromApi31() {
+        assertFix(mGson.fromJson("{\"mFieldsMask\":11,\"mProvider\":\"gps\",\"mTimeMs\":1000,"
+                + "\"mElapsedRealtimeNs\":7,\"mElapsedRealtimeUncertaintyNs\":0.0,\"mLatitudeDegrees\":48.1,"
+                + "\"mLongitudeDegrees\":11.5,\"mHorizontalAccuracyMeters\":12.0,\"mAltitudeMeters\":519.5,"
+                + "\"mAltitudeAccuracyMeters\":0.0,\"mSpeedMetersPerSecond\":1.5,"
+                + "\"mSpeedAccuracyMetersPerSecond\":0.0,\"mBearingDegrees\":0.0,\"mBearingAccuracyDegrees\":0.0}",
+                Location.class));
+    }
+
+    /** Checks the fix of the layout tests: altitude, speed and accuracy, but no bearing. */
+    private static void assertFix(Location location) {
+        assertEquals("gps", location.getProvider());
+        assertEquals(1000, location.getTime());
+        assertEquals(7, location.getElapsedRealtimeNanos());
+        assertEquals(48.1, location.getLatitude(), 0);
+        assertEquals(11.5, location.getLongitude(), 0);
+        assertTrue(location.hasAltitude());
+        assertEquals(519.5, location.getAltitude(), 0);
+        assertTrue(location.hasSpeed());
+        assertEquals(1.5, location.getSpeed(), 0);
+        assertFalse(location.hasBearing());
+        assertTrue(location.hasAccuracy());
+        assertEquals(12, location.getAccuracy(), 0);
+    }
+}
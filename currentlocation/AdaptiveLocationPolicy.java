@@ -0,0 +1,106 @@
+package com.vishnu.app.currentlocation;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.location.Location;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+
+/**
+ * Chooses the {@link LocationRequestProfile} of a location stream from the movement of the user and the battery
+ * state. A moving user is tracked with {@link LocationRequestProfile#TRACKING}, a user who stands still for a few fixes
+ * with {@link LocationRequestProfile#STATIONARY}, and {@link LocationRequestProfile#LOW_POWER} is used whenever the
+ * battery is low and not charging.
+ */
+public class AdaptiveLocationPolicy {
+
+    /** The speed below which the user is considered not moving */
+    public static final float STATIONARY_SPEED = 0.5f;          // IN METERS PER SECOND
+    /** The number of slow fixes in a row after which the user is considered not moving */
+    public static final int STATIONARY_FIXES = 3;
+    /** The battery level below which the low power profile is used */
+    public static final float LOW_BATTERY_LEVEL = 0.15f;
+    /** The interval at which the battery state is read again */
+    private static final long BATTERY_CHECK_INTERVAL = 60000;   // IN MILLI SECONDS
+
+    /** The context used to read the sticky battery broadcast */
+    private final Context mContext;
+    /** The previous fix, to derive the speed when the fix has none */
+    private Location mPreviousFix;
+    /** The number of slow fixes in a row */
+    private int mSlowFixes;
+    /** Whether the battery was low and not charging when last read */
+    private boolean mLowBattery;
+    /** The elapsed realtime at which the battery state was last read, or -1 */
+    private long mBatteryCheckTime = -1;
+
+    public AdaptiveLocationPolicy(Context context) {
+        this.mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Forgets the movement seen so far, before a new stream starts.
+     */
+    public void reset() {
+        mPreviousFix = null;
+        mSlowFixes = 0;
+        mBatteryCheckTime = -1;
+    }
+
+    /**
+     * Records the fix and returns the profile to continue the stream with.
+     *
+     * @param location The latest fix
+     * @return The profile for the next fixes
+     */
+    public LocationRequestProfile onLocation(Location location) {
+        if (getSpeed(location) < STATIONARY_SPEED) {
+            mSlowFixes++;
+        } else {
+            mSlowFixes = 0;
+        }
+        mPreviousFix = location;
+
+        if (isLowBattery()) {
+            return LocationRequestProfile.LOW_POWER;
+        }
+        return mSlowFixes >= STATIONARY_FIXES ? LocationRequestProfile.STATIONARY : LocationRequestProfile.TRACKING;
+    }
+
+    /** Returns the speed of the fix, or the speed since the previous fix if the fix has none. */
+    private float getSpeed(Location location) {
+        if (location.hasSpeed()) {
+            return location.getSpeed();
+        }
+        if (mPreviousFix == null) {
+            return Float.MAX_VALUE;
+        }
+        long elapsed = location.getTime() - mPreviousFix.getTime();
+        if (elapsed <= 0) {
+            return Float.MAX_VALUE;
+        }
+        return location.distanceTo(mPreviousFix) * 1000f / elapsed;
+    }
+
+    /**
+     * Returns whether the battery is low and not charging. The sticky battery broadcast is read without registering a
+     * receiver, at most once per {@link #BATTERY_CHECK_INTERVAL}.
+     */
+    private boolean isLowBattery() {
+        long now = SystemClock.elapsedRealtime();
+        if (mBatteryCheckTime < 0 || now - mBatteryCheckTime >= BATTERY_CHECK_INTERVAL) {
+            mBatteryCheckTime = now;
+            Intent battery = mContext.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+            if (battery != null) {
+                int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+                int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+                int status = battery.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+                boolean charging = status == BatteryManager.BATTERY_STATUS_CHARGING
+                        || status == BatteryManager.BATTERY_STATUS_FULL;
+                mLowBattery = !charging && level >= 0 && scale > 0 && (float) level / scale < LOW_BATTERY_LEVEL;
+            }
+        }
+        return mLowBattery;
+    }
+}
@@ -3,18 +3,15 @@ package com.vishnu.app.currentlocation;
 import android.content.Context;
 import android.location.Location;
 import android.os.Bundle;
-import android.os.CountDownTimer;
-import android.text.format.DateUtils;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
 
 import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.GooglePlayServicesUtil;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.common.api.Status;
 import com.google.android.gms.location.LocationListener;
-import com.google.android.gms.location.LocationRequest;
-import com.google.android.gms.location.LocationServices;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * BaseLocationManager is used as a Base Class for Implementing and Handling the CurrentLocation feature.
@@ -22,12 +19,20 @@ import com.google.android.gms.location.LocationServices;
 public abstract class BaseLocationManager implements GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener, LocationListener {
 
-    /** The GoogleApiClient to connect to GooglePlayServices to access the Current Location */
-    private final GoogleApiClient mLocationClient;
-    /** The context of the application */
-    private final Context mContext;
-    /** Location Connection TimeOut Handler */
-    private CountDownTimer mTimeOut;
+    /** The provider of the fixes */
+    private final LocationSource mLocationSource;
+    /** The pending connection timeout, or null */
+    private ScheduledFuture<?> mTimeOut;
+    /** Incremented whenever the timeout is set or cancelled, so that an outdated timeout is ignored */
+    private long mTimeOutGeneration = 0;
+    /** Runs the timeouts on the thread of the other callbacks, or null to run them on the scheduler thread */
+    private volatile Executor mCallbackExecutor;
+    /** The measurements of the requests */
+    private final LocationMetrics mMetrics = new LocationMetrics();
+    /** The System.nanoTime() of the pending connection request, or 0 */
+    private volatile long mConnectStart = 0;
+    /** The conditions of the location requests */
+    private LocationRequestProfile mRequestProfile = LocationRequestProfile.SINGLE_FIX;
 
 
     /**
@@ -36,64 +41,147 @@ public abstract class BaseLocationManager implements GoogleApiClient.ConnectionC
      * @param context Application Context to initialize the LocationServices Api Client
      */
     public BaseLocationManager(Context context) {
+        this(checkContext(context), new FusedLocationSource(context));
+        /* Google Play services call back on the main thread, so the timeouts do too */
+        final Handler handler = new Handler(Looper.getMainLooper());
+        setCallbackExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+
+    /**
+     * Parameterized constructor getting the fixes from the given source, for example a {@link ReplayLocationSource}
+     * to run the location pipeline off-device.
+     *
+     * @param context        Application Context
+     * @param locationSource The provider of the fixes
+     */
+    public BaseLocationManager(Context context, LocationSource locationSource) {
+        checkContext(context);
+        if (locationSource == null) {
+            throw new NullPointerException("The location source must not be null");
+        }
+        this.mLocationSource = locationSource;
+        this.mLocationSource.setCallbacks(new LocationSource.Callbacks() {
+            @Override
+            public void onConnected() {
+                long start = mConnectStart;
+                if (start != 0) {
+                    mConnectStart = 0;
+                    mMetrics.recordConnectTime(System.nanoTime() - start);
+                }
+                BaseLocationManager.this.onConnected(null);
+            }
+
+            @Override
+            public void onConnectionSuspended(int cause) {
+                BaseLocationManager.this.onConnectionSuspended(cause);
+            }
+
+            @Override
+            public void onConnectionFailed(ConnectionResult connectionResult) {
+                mConnectStart = 0;
+                BaseLocationManager.this.onConnectionFailed(connectionResult);
+            }
+
+            @Override
+            public void onLocationChanged(Location location) {
+                BaseLocationManager.this.onLocationChanged(location);
+            }
+        });
+    }
+
+    private static Context checkContext(Context context) {
         if (context == null) {
             throw new NullPointerException("Initialize CurrentLocationListener with the application/activity context");
         }
+        return context;
+    }
+
+    /**
+     * Sets the executor running the timeouts, which should be the thread the location source calls back on. Set to
+     * the main thread when using Google Play services. Without one, the timeouts run on the scheduler thread.
+     *
+     * @param executor The executor, or null
+     */
+    public void setCallbackExecutor(Executor executor) {
+        this.mCallbackExecutor = executor;
+    }
+
+    /**
+     * Returns the executor running the timeouts, or null if they run on the scheduler thread.
+     */
+    public Executor getCallbackExecutor() {
+        return mCallbackExecutor;
+    }
+
+    /**
+     * Runs the task with the {@link #mCallbackExecutor}, or directly if there is none.
+     */
+    protected void runOnCallbackThread(Runnable task) {
+        Executor executor = mCallbackExecutor;
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            task.run();
+        }
+    }
+
+    /**
+     * Returns the measurements of the requests: connection times, times to first fix, accuracies and failures.
+     */
+    public LocationMetrics getMetrics() {
+        return mMetrics;
+    }
 
-        this.mContext = context;
-        this.mLocationClient = new GoogleApiClient.Builder(context)
-                .addApi(LocationServices.API)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .build();
+    /**
+     * Returns the provider of the fixes.
+     */
+    public LocationSource getLocationSource() {
+        return mLocationSource;
     }
 
     /**
-     * Connects the {@link #mLocationClient} to Google Play services. This method returns immediately,
-     * and connects to the service in the background. If the connection is successful,
-     * onConnected(Bundle) is called and enqueued items are executed. On a failure,
+     * Connects the {@link #mLocationSource}. This method returns immediately, and connects in the background. If the
+     * connection is successful, onConnected(Bundle) is called and enqueued items are executed. On a failure,
      * onConnectionFailed(ConnectionResult) is called.
      */
     public void connect() {
         if (isConnected()) {
             startPeriodicUpdates();
         } else if (!isConnecting()) {
-            int resultCode = GooglePlayServicesUtil.isGooglePlayServicesAvailable(mContext);
-
-            if (resultCode == ConnectionResult.SUCCESS) {
-                mLocationClient.connect();
-            } else {
-                onConnectionFailed(new ConnectionResult(resultCode, null));
-            }
+            mConnectStart = System.nanoTime();
+            mLocationSource.connect();
         }
     }
 
     /**
-     * Checks if the {@link #mLocationClient} is currently connected to the service, so that requests to other methods
-     * will succeed. Applications should guard client actions caused by the user with a call to this method.
-     * @return true if the client is connected to the service, false otherwise
+     * Checks if the {@link #mLocationSource} is currently connected, so that requests to other methods will succeed.
+     * Applications should guard client actions caused by the user with a call to this method.
+     * @return true if the source is connected, false otherwise
      */
     public boolean isConnected() {
-        return mLocationClient.isConnected();
+        return mLocationSource.isConnected();
     }
 
     /**
-     * Checks if the client is attempting to connect to the service.
-     * @return true if the client is attempting to connect to the service, false otherwise
+     * Checks if the source is attempting to connect.
+     * @return true if the source is attempting to connect, false otherwise
      */
     public boolean isConnecting() {
-        return mLocationClient.isConnecting();
+        return mLocationSource.isConnecting();
     }
 
     /**
-     * Closes the connection to Google Play services. No calls can be made using this {@link #mLocationClient} after
-     * calling this method. Any method calls that haven't executed yet will be canceled. That is onResult(SearchItem)
-     * won't be called, if connection to the service hasn't been established yet all calls already made will be
+     * Closes the connection of the {@link #mLocationSource}. Any updates which haven't been delivered yet are
      * canceled.
      */
     public void disConnect() {
         stopPeriodicUpdates();
-        mLocationClient.disconnect();
+        mLocationSource.disconnect();
     }
 
     @Override
@@ -108,54 +196,46 @@ public abstract class BaseLocationManager implements GoogleApiClient.ConnectionC
     }
 
     /**
-     * Invokes the location services and calls {@link #onLocationChanged(Location)} once location is
+     * Invokes the location source and calls {@link #onLocationChanged(Location)} once location is
      * retrieved
      */
     private void startPeriodicUpdates() {
-        /** The LocationRequest required to retrieve location*/
-        LocationRequest requestParams = createLocationRequest();
-        LocationServices.FusedLocationApi.requestLocationUpdates(mLocationClient, requestParams, this)
-                .setResultCallback(new ResultCallback<Status>() {
-                    @Override
-                    public void onResult(Status status) {
-                        if (!status.isSuccess()) {
-                            Log.e("BaseLocationManager", "Unable to start updates of Current location");
-                        }
-                    }
-                });
+        mLocationSource.requestLocationUpdates(mRequestProfile);
     }
 
     /**
-     * Creates a LocationRequest with default Location Retrieving Conditions
-     * @return The Location Request to fetch the current location.
+     * Sets the conditions of the location requests. If the updates are already running, they are requested again
+     * with the new conditions on the same connection, replacing the previous request.
+     *
+     * @param profile The conditions of the location requests
      */
-    private LocationRequest createLocationRequest() {
-        LocationRequest locationRequest = LocationRequest.create();
-        locationRequest.setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY);
-        locationRequest.setInterval(1000);                                                  // in milliseconds
-        locationRequest.setFastestInterval(500);                                            // in milliseconds
-        // below code is commented because we are using CountDownTimer for handling conenction timeout.
-        // locationRequest.setExpirationDuration(CurrentLocationManager.CONNECTION_TIMEOUT);   // in milliseconds
-        locationRequest.setNumUpdates(1);                                           // No of Location Updates wanted
+    public void setRequestProfile(LocationRequestProfile profile) {
+        if (profile == null) {
+            throw new NullPointerException("The location request profile must not be null");
+        }
+        if (profile.equals(mRequestProfile)) {
+            return;
+        }
+        mRequestProfile = profile;
+        if (isConnected()) {
+            startPeriodicUpdates();
+        }
+    }
 
-        return locationRequest;
+    /**
+     * Returns the conditions of the location requests.
+     */
+    public LocationRequestProfile getRequestProfile() {
+        return mRequestProfile;
     }
 
     /**
      * When {@link #startPeriodicUpdates()} is called and {@link #onLocationChanged(Location)}
-     * Location is not fetched. and the connection goes to Error within the {@code
-     * LocationRequest#setExpirationDuration} or Client is disconnected. remove the location updates.
+     * Location is not fetched. and the connection goes to Error within the timeout or the source is disconnected.
+     * remove the location updates.
      */
     private void stopPeriodicUpdates() {
-        LocationServices.FusedLocationApi.removeLocationUpdates(mLocationClient, this)
-                .setResultCallback(new ResultCallback<Status>() {
-                    @Override
-                    public void onResult(Status status) {
-                        if (!status.isSuccess()) {
-                            Log.e("BaseLocationManager", "Unable to remove updates of Current location");
-                        }
-                    }
-                });
+        mLocationSource.removeLocationUpdates();
     }
 
     /**
@@ -163,7 +243,7 @@ public abstract class BaseLocationManager implements GoogleApiClient.ConnectionC
      * @return Location instance
      */
     public Location getLastKnownLocation() {
-        Location lastKnownLocation = LocationServices.FusedLocationApi.getLastLocation(mLocationClient);
+        Location lastKnownLocation = mLocationSource.getLastLocation();
         if (lastKnownLocation == null) {
             lastKnownLocation = new Location("Earth zero lat long");
         }
@@ -172,24 +252,51 @@ public abstract class BaseLocationManager implements GoogleApiClient.ConnectionC
 
     /** Sets the timeout until a connection is etablished. */
     protected void setLocationTimeout() {
-        if (mTimeOut == null) {
-            mTimeOut = new CountDownTimer(CurrentLocationManager.CONNECTION_TIMEOUT, DateUtils.SECOND_IN_MILLIS) {
-                @Override
-                public void onTick(long millisUntilFinished) {}
+        setLocationTimeout(CurrentLocationManager.CONNECTION_TIMEOUT);
+    }
 
+    /**
+     * Sets the deadline of the current request, replacing the previous one. Once it passes, onConnectionFailed is
+     * called with {@link ConnectionResult#TIMEOUT}, on the callback thread. Can be called from any thread.
+     *
+     * @param timeoutMillis The time until the deadline, in milliseconds
+     */
+    protected void setLocationTimeout(long timeoutMillis) {
+        synchronized (this) {
+            cancelLocationTimeOut();
+            final long generation = mTimeOutGeneration;
+            mTimeOut = LocationScheduler.schedule(new Runnable() {
                 @Override
-                public void onFinish() {
-                    onConnectionFailed(new ConnectionResult(ConnectionResult.TIMEOUT, null));
+                public void run() {
+                    runOnCallbackThread(new Runnable() {
+                        @Override
+                        public void run() {
+                            onLocationTimeout(generation);
+                        }
+                    });
                 }
-            };
+            }, timeoutMillis);
+        }
+    }
+
+    /** Fails the request, unless the timeout was cancelled or replaced meanwhile. */
+    private void onLocationTimeout(long generation) {
+        synchronized (this) {
+            if (generation != mTimeOutGeneration || mTimeOut == null) {
+                return;
+            }
+            mTimeOut = null;
         }
-        mTimeOut.start();
+        mMetrics.recordTimeout();
+        onConnectionFailed(new ConnectionResult(ConnectionResult.TIMEOUT, null));
     }
 
-    /** Cancels the timeout used for establishing a connection.*/
-    protected void cancelLocationTimeOut() {
+    /** Cancels the timeout used for establishing a connection. Can be called from any thread.*/
+    protected synchronized void cancelLocationTimeOut() {
+        mTimeOutGeneration++;
         if (mTimeOut != null) {
-            mTimeOut.cancel();
+            mTimeOut.cancel(false);
+            mTimeOut = null;
         }
     }
 
@@ -0,0 +1,24 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+
+import java.util.List;
+
+/**
+ * Used for receiving the fixes of a batched stream from the CurrentLocationManager, several fixes per callback. These
+ * methods are called if the listener has been registered with
+ * {@link CurrentLocationManager#addBatchedLocationListener(BatchedLocationListener)}.
+ */
+public interface BatchedLocationListener {
+    /**
+     * Called with the fixes received since the previous batch.
+     * @param locations The fixes, oldest first. The list is never empty and must not be modified.
+     */
+    void onLocationBatch(List<Location> locations);
+
+    /**
+     * Called when the Location is failed or Timed out
+     * @param errorCode The error for Location Failure.
+     */
+    void onLocationFailed(int errorCode);
+}
@@ -6,10 +6,20 @@ import android.location.Location;
 import com.google.android.gms.common.ConnectionResult;
 import com.vishnu.app.MyApplication;
 import com.vishnu.app.PreferenceManager;
+import com.vishnu.app.PreferenceObserver;
+import com.vishnu.app.PreferenceSubscription;
+import com.vishnu.app.PreferenceTypeAdapters;
 import com.vishnu.app.constants.Result;
 import com.vishnu.app.constants.SharedPreferenceKeys;
 
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * The CurrentLocationManager is used to fetch the CurrentLocation By connecting to GooglePlay services. Call {@code #fetchLocation} method to request for current location.
@@ -18,11 +28,42 @@ public class CurrentLocationManager extends BaseLocationManager {
 
     /** The interval for connection timeout*/
     public static final int CONNECTION_TIMEOUT = 30000;     // IN MILLI SECONDS
-    /** The Listener to listen for Current Location changes */
-    private CurrentLocationListener mListener;
+    /** The Listeners to listen for Current Location changes, held weakly so that they can be garbage collected */
+    private final CopyOnWriteArrayList<WeakReference<CurrentLocationListener>> mListeners =
+            new CopyOnWriteArrayList<>();
+    /** The listener set by {@link #setLocationCallbacks(CurrentLocationListener)} */
+    private WeakReference<CurrentLocationListener> mCallbacks;
+    /** The one-shot listeners waiting for the fix in flight, held strongly until it is delivered */
+    private final ArrayList<CurrentLocationListener> mPendingListeners = new ArrayList<>();
+    /** The deadlines of the pending one-shot listeners which have one, guarded by {@link #mPendingListeners} */
+    private final Map<CurrentLocationListener, ScheduledFuture<?>> mPendingDeadlines = new HashMap<>();
+    /** Whether a request for a single fix is in flight */
+    private boolean mRequestInFlight = false;
+    /** The System.nanoTime() of the request waiting for its first fix, or 0 */
+    private long mRequestStart = 0;
+    /** Whether the connection is kept for a continuous stream of fixes */
+    private boolean mStreaming = false;
+    /** Whether the request profile of the stream follows the {@link #mAdaptivePolicy} */
+    private boolean mAdaptive = false;
+    /** Chooses the request profile of an adaptive stream */
+    private final AdaptiveLocationPolicy mAdaptivePolicy;
+    /** The Listeners to listen for the batches of a batched stream, held weakly */
+    private final CopyOnWriteArrayList<WeakReference<BatchedLocationListener>> mBatchedListeners =
+            new CopyOnWriteArrayList<>();
+    /** Buffers the fixes of a batched stream, or null if the stream is not batched */
+    private volatile LocationBatcher mBatcher;
+    /** Records every fix, or null */
+    private volatile LocationHistory mHistory;
+    /** Smooths the fixes of the streams and drops the noisy ones, or null */
+    private volatile LocationFilter mFilter;
 
     private static CurrentLocationManager sInstance = null;
 
+    static {
+        /* stores the current location without Gson's reflective adapter */
+        PreferenceTypeAdapters.register(Location.class, new LocationTypeAdapter());
+    }
+
     public static CurrentLocationManager getInstance() {
         if (sInstance == null) {
             sInstance = new CurrentLocationManager(EhsApplication.getContext());
@@ -37,58 +78,507 @@ public class CurrentLocationManager extends BaseLocationManager {
      */
     private CurrentLocationManager(Context context) {
         super(context);
+        this.mAdaptivePolicy = new AdaptiveLocationPolicy(context);
+    }
+
+    private CurrentLocationManager(Context context, LocationSource locationSource) {
+        super(context, locationSource);
+        this.mAdaptivePolicy = new AdaptiveLocationPolicy(context);
     }
 
+    /**
+     * Creates a manager getting the fixes from the given source instead of Google Play services, for example a
+     * {@link ReplayLocationSource} to load-test the listeners off-device. The app itself uses {@link #getInstance()}.
+     * The status and the current location are shared with the instance.
+     *
+     * @param context        Application Context
+     * @param locationSource The provider of the fixes
+     */
+    public static CurrentLocationManager create(Context context, LocationSource locationSource) {
+        return new CurrentLocationManager(context, locationSource);
+    }
+
+    /**
+     * Sets the listener notified of every fix and failure, replacing the listener set earlier by this method. Other
+     * listeners can be added with {@link #addLocationListener(CurrentLocationListener)}.
+     *
+     * @param currentLocationListener The listener, held weakly
+     */
     public void setLocationCallbacks(CurrentLocationListener currentLocationListener) {
-        this.mListener = new WeakReference<CurrentLocationListener>(currentLocationListener).get();
+        if (mCallbacks != null) {
+            removeLocationListener(mCallbacks.get());
+        }
+        mCallbacks = new WeakReference<>(currentLocationListener);
+        addLocationListener(currentLocationListener);
+    }
+
+    /**
+     * Adds a listener notified of every fix and failure. The listener is held weakly, so an Activity or Fragment can
+     * register itself without leaking, but it should still remove itself when it is destroyed.
+     *
+     * @param listener The listener to add
+     */
+    public void addLocationListener(CurrentLocationListener listener) {
+        if (listener == null) {
+            return;
+        }
+        for (WeakReference<CurrentLocationListener> reference : mListeners) {
+            if (reference.get() == listener) {
+                return;
+            }
+        }
+        mListeners.add(new WeakReference<>(listener));
+    }
+
+    /**
+     * Removes a listener added by {@link #addLocationListener(CurrentLocationListener)}, along with the listeners
+     * which have been garbage collected.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeLocationListener(CurrentLocationListener listener) {
+        for (WeakReference<CurrentLocationListener> reference : mListeners) {
+            CurrentLocationListener registered = reference.get();
+            if (registered == null || registered == listener) {
+                mListeners.remove(reference);
+            }
+        }
     }
 
+    /**
+     * Requests a single fix. If a request is already in flight, or a stream is running, the call joins it instead of
+     * connecting again, and all the listeners are notified of the same fix.
+     */
     public void fetchLocation() {
+        if (mRequestInFlight || mStreaming) {
+            return;
+        }
+        mRequestInFlight = true;
+        mRequestStart = System.nanoTime();
+        setRequestProfile(LocationRequestProfile.SINGLE_FIX);
         /* sets a timeout for fetching the location.*/
         setLocationTimeout();
         setStatus(Result.STARTED);
         connect();
     }
 
+    /**
+     * Requests a fix for a single caller. The caller is served immediately from the last fix if it is not older than
+     * maxAgeMillis, else it waits for the fix in flight, starting a request if there is none.
+     *
+     * @param listener     The listener notified once of the fix or the failure. It is held strongly until then.
+     * @param maxAgeMillis The maximum age of the last fix which is good enough for the caller, in milliseconds
+     */
+    public void fetchLocation(CurrentLocationListener listener, long maxAgeMillis) {
+        fetchLocation(listener, maxAgeMillis, 0);
+    }
+
+    /**
+     * Requests a fix for a single caller, with its own deadline. Like {@link #fetchLocation(CurrentLocationListener,
+     * long)}, but the caller is notified of a failure with {@link ConnectionResult#TIMEOUT} if no fix arrives within
+     * timeoutMillis, while the shared request keeps running for the other callers.
+     *
+     * @param listener      The listener notified once of the fix or the failure. It is held strongly until then.
+     * @param maxAgeMillis  The maximum age of the last fix which is good enough for the caller, in milliseconds
+     * @param timeoutMillis The time the caller waits for a fix, in milliseconds, or 0 to wait for the shared request
+     */
+    public void fetchLocation(final CurrentLocationListener listener, long maxAgeMillis, long timeoutMillis) {
+        LastLocation lastFix = getLastFix();
+        if (lastFix != null && lastFix.getAgeMillis() <= maxAgeMillis) {
+            listener.onLocationSuccess(lastFix.toLocation());
+            return;
+        }
+        synchronized (mPendingListeners) {
+            if (!mPendingListeners.contains(listener)) {
+                mPendingListeners.add(listener);
+            }
+            if (timeoutMillis > 0 && !mPendingDeadlines.containsKey(listener)) {
+                mPendingDeadlines.put(listener, LocationScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        runOnCallbackThread(new Runnable() {
+                            @Override
+                            public void run() {
+                                onPendingDeadline(listener);
+                            }
+                        });
+                    }
+                }, timeoutMillis));
+            }
+        }
+        fetchLocation();
+    }
+
+    /** Fails a one-shot listener whose deadline passed, if it is still waiting. */
+    private void onPendingDeadline(CurrentLocationListener listener) {
+        boolean waiting;
+        synchronized (mPendingListeners) {
+            mPendingDeadlines.remove(listener);
+            waiting = mPendingListeners.remove(listener);
+        }
+        if (waiting) {
+            getMetrics().recordTimeout();
+            getMetrics().recordFailure(ConnectionResult.TIMEOUT);
+            listener.onLocationFailed(ConnectionResult.TIMEOUT);
+        }
+    }
+
+    /**
+     * Starts a continuous stream of fixes on a single connection. Every fix is delivered to the listener, and the
+     * interval and priority of the updates adapt to the movement of the user and the battery state, see
+     * {@link AdaptiveLocationPolicy}. The stream runs until {@link #stopStreaming()} is called or the connection fails.
+     */
+    public void startStreaming() {
+        flushBatcher();
+        mAdaptivePolicy.reset();
+        startStreaming(LocationRequestProfile.TRACKING, true);
+    }
+
+    /**
+     * Starts a continuous stream of fixes on a single connection, with fixed request conditions.
+     *
+     * @param profile The conditions of the stream, which should be {@link LocationRequestProfile#isContinuous()}
+     */
+    public void startStreaming(LocationRequestProfile profile) {
+        flushBatcher();
+        startStreaming(profile, false);
+    }
+
+    private void startStreaming(LocationRequestProfile profile, boolean adaptive) {
+        LocationFilter filter = mFilter;
+        if (filter != null && !mStreaming) {
+            filter.reset();
+        }
+        mStreaming = true;
+        mAdaptive = adaptive;
+        mRequestInFlight = false;
+        mRequestStart = System.nanoTime();
+        setRequestProfile(profile);
+        /* the timeout only covers the first fix of the stream */
+        setLocationTimeout();
+        setStatus(Result.STARTED);
+        connect();
+    }
+
+    /**
+     * Stops the stream of fixes and closes the connection.
+     */
+    public void stopStreaming() {
+        if (!mStreaming) {
+            return;
+        }
+        mStreaming = false;
+        mAdaptive = false;
+        cancelLocationTimeOut();
+        disConnect();
+        flushBatcher();
+        setRequestProfile(LocationRequestProfile.SINGLE_FIX);
+        boolean pending;
+        synchronized (mPendingListeners) {
+            pending = !mPendingListeners.isEmpty();
+        }
+        if (pending) {
+            /* the one-shot listeners which joined the stream still expect a fix */
+            fetchLocation();
+        }
+    }
+
+    /**
+     * Starts a continuous stream of fixes delivered in batches, for background tracking. The fixes are buffered and
+     * handed to the {@link BatchedLocationListener}s once maxBatchSize of them are received or the oldest one has
+     * waited maxWaitMillis, so the app wakes up and saves the current location once per batch instead of once per fix.
+     * The location provider is also allowed to hold the fixes back for maxWaitMillis, batching them in hardware.
+     * The {@link CurrentLocationListener}s receive the latest fix of every batch. Like the fixes, the batches are
+     * delivered on the thread given to {@link #setCallbackExecutor(Executor)}, the main thread
+     * with Google Play services.
+     *
+     * @param profile       The conditions of the stream, which should be {@link LocationRequestProfile#isContinuous()}
+     * @param maxBatchSize  The number of fixes after which a batch is delivered
+     * @param maxWaitMillis The time after which the oldest fix of a batch is delivered, in milliseconds
+     */
+    public void startBatchedStreaming(LocationRequestProfile profile, int maxBatchSize, long maxWaitMillis) {
+        LocationBatcher previous = mBatcher;
+        if (previous != null) {
+            previous.flush();
+        }
+        // the expired batches are delivered on the thread of the other callbacks, not on the shared scheduler thread
+        Executor expiryExecutor = new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                runOnCallbackThread(task);
+            }
+        };
+        mBatcher = new LocationBatcher(maxBatchSize, maxWaitMillis, expiryExecutor, new LocationBatcher.Callback() {
+            @Override
+            public void onBatch(List<Location> batch) {
+                onLocationBatch(batch);
+            }
+        });
+        startStreaming(profile.withMaxWaitTime(maxWaitMillis), false);
+    }
+
+    /**
+     * Adds a listener notified of every batch of a batched stream, and of the failures. The listener is held weakly.
+     *
+     * @param listener The listener to add
+     */
+    public void addBatchedLocationListener(BatchedLocationListener listener) {
+        if (listener == null) {
+            return;
+        }
+        for (WeakReference<BatchedLocationListener> reference : mBatchedListeners) {
+            if (reference.get() == listener) {
+                return;
+            }
+        }
+        mBatchedListeners.add(new WeakReference<>(listener));
+    }
+
+    /**
+     * Removes a listener added by {@link #addBatchedLocationListener(BatchedLocationListener)}.
+     *
+     * @param listener The listener to remove
+     */
+    public void removeBatchedLocationListener(BatchedLocationListener listener) {
+        for (WeakReference<BatchedLocationListener> reference : mBatchedListeners) {
+            BatchedLocationListener registered = reference.get();
+            if (registered == null || registered == listener) {
+                mBatchedListeners.remove(reference);
+            }
+        }
+    }
+
+    /**
+     * Sets the filter which smooths the fixes of the streams and drops the noisy ones before they are saved and
+     * delivered, or null to deliver the fixes as received. Single fixes requested by {@link #fetchLocation()} are
+     * never filtered, as no other fix would follow a dropped one.
+     *
+     * @param filter The filter, used from the thread delivering the fixes
+     */
+    public void setLocationFilter(LocationFilter filter) {
+        if (filter != null) {
+            filter.reset();
+        }
+        this.mFilter = filter;
+    }
+
+    /**
+     * Returns the filter of the streams, or null.
+     */
+    public LocationFilter getLocationFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Sets the history recording every fix received from now on, or null to stop recording.
+     *
+     * @param history The history, which stays open and owned by the caller
+     */
+    public void setLocationHistory(LocationHistory history) {
+        this.mHistory = history;
+    }
+
+    /**
+     * Returns the history recording the fixes, or null.
+     */
+    public LocationHistory getLocationHistory() {
+        return mHistory;
+    }
+
+    /**
+     * Returns whether a stream of fixes is running.
+     */
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
     @Override
     public void onLocationChanged(Location location) {
+        LocationFilter filter = mFilter;
+        if (filter != null && mStreaming && !filter.filter(location)) {
+            /* dropped before anything is saved or delivered */
+            return;
+        }
         cancelLocationTimeOut();
-        setStatus(Result.SUCCESS);
-        setCurrentLocation(location);
-        if (mListener != null) {
-            mListener.onLocationSuccess(location);
+        long start = mRequestStart;
+        if (start != 0) {
+            mRequestStart = 0;
+            getMetrics().recordTimeToFirstFix(System.nanoTime() - start);
+        }
+        getMetrics().recordFix(location.hasAccuracy() ? location.getAccuracy() : -1);
+        LocationBatcher batcher = mBatcher;
+        if (batcher != null && mStreaming) {
+            /* saved, with the status, and delivered with the batch */
+            batcher.add(location);
+            return;
+        }
+        LocationHistory history = mHistory;
+        if (history != null) {
+            history.append(location);
+        }
+        setResult(Result.SUCCESS, location);
+        mRequestInFlight = false;
+        notifyLocationSuccess(location);
+        if (!mStreaming) {
+            disConnect();
+        } else if (mAdaptive) {
+            /* requests the updates again only if the profile changes */
+            setRequestProfile(mAdaptivePolicy.onLocation(location));
         }
-        disConnect();
     }
 
 
     @Override
     public void onConnectionFailed(ConnectionResult connectionResult) {
         cancelLocationTimeOut();
-        setStatus(Result.FAILED);
-        setCurrentLocation(null);
-        if (mListener != null) {
-            mListener.onLocationFailed(connectionResult.getErrorCode());
-        }
+        mStreaming = false;
+        mAdaptive = false;
+        mRequestInFlight = false;
+        mRequestStart = 0;
+        getMetrics().recordFailure(connectionResult.getErrorCode());
+        /* the fixes received before the failure are still delivered */
+        flushBatcher();
+        setResult(Result.FAILED, null);
+        notifyLocationFailed(connectionResult.getErrorCode());
         disConnect();
     }
 
+    /** Delivers the pending fixes of a batched stream and leaves the batched mode. */
+    private void flushBatcher() {
+        LocationBatcher batcher = mBatcher;
+        if (batcher != null) {
+            mBatcher = null;
+            batcher.flush();
+        }
+    }
+
+    /**
+     * Saves the latest fix of the batch once, then notifies the batched listeners of the batch, and the other
+     * listeners of its latest fix.
+     */
+    private void onLocationBatch(List<Location> batch) {
+        Location latest = batch.get(batch.size() - 1);
+        LocationHistory history = mHistory;
+        if (history != null) {
+            for (Location location : batch) {
+                history.append(location);
+            }
+        }
+        setResult(Result.SUCCESS, latest);
+        mRequestInFlight = false;
+        for (WeakReference<BatchedLocationListener> reference : mBatchedListeners) {
+            BatchedLocationListener listener = reference.get();
+            if (listener == null) {
+                mBatchedListeners.remove(reference);
+            } else {
+                listener.onLocationBatch(batch);
+            }
+        }
+        notifyLocationSuccess(latest);
+    }
+
+    /** Notifies the registered listeners and the pending one-shot listeners of the fix. */
+    private void notifyLocationSuccess(Location location) {
+        for (CurrentLocationListener listener : takeListeners()) {
+            listener.onLocationSuccess(location);
+        }
+    }
+
+    /** Notifies the registered listeners, the batched listeners and the pending one-shot listeners of the failure. */
+    private void notifyLocationFailed(int errorCode) {
+        for (CurrentLocationListener listener : takeListeners()) {
+            listener.onLocationFailed(errorCode);
+        }
+        for (WeakReference<BatchedLocationListener> reference : mBatchedListeners) {
+            BatchedLocationListener listener = reference.get();
+            if (listener == null) {
+                mBatchedListeners.remove(reference);
+            } else {
+                listener.onLocationFailed(errorCode);
+            }
+        }
+    }
+
+    /**
+     * Returns the listeners to notify, each once: the registered listeners which are still reachable, and the pending
+     * one-shot listeners, which are released.
+     */
+    private List<CurrentLocationListener> takeListeners() {
+        ArrayList<CurrentLocationListener> listeners;
+        synchronized (mPendingListeners) {
+            listeners = new ArrayList<>(mPendingListeners);
+            mPendingListeners.clear();
+            for (ScheduledFuture<?> deadline : mPendingDeadlines.values()) {
+                deadline.cancel(false);
+            }
+            mPendingDeadlines.clear();
+        }
+        for (WeakReference<CurrentLocationListener> reference : mListeners) {
+            CurrentLocationListener listener = reference.get();
+            if (listener == null) {
+                mListeners.remove(reference);
+            } else if (!listeners.contains(listener)) {
+                listeners.add(listener);
+            }
+        }
+        return listeners;
+    }
+
     @Override
     public Location getLastKnownLocation() {
         return super.getLastKnownLocation();
     }
 
     public static void reset() {
-        setStatus(Result.ERROR);
-        setCurrentLocation(null);
+        setResult(Result.ERROR, null);
     }
 
+    /**
+     * Sets the status of the location request, and saves it at once together with the current location.
+     */
     public static void setStatus(int status) {
-        PreferenceManager.setInt(SharedPreferenceKeys.KEY_CURRENT_LOCATION_STATUS, status);
+        LastLocationStore.setStatus(status);
     }
 
     public static int getStatus() {
-        return PreferenceManager.getInt(SharedPreferenceKeys.KEY_CURRENT_LOCATION_STATUS);
+        return LastLocationStore.getStatus();
+    }
+
+    /**
+     * Sets the status and the current location. A new status is saved at once together with the location, so they are
+     * never saved apart; the next fixes of a successful request are saved behind, like
+     * {@link #setCurrentLocation(Location)}.
+     *
+     * @param status   The {@link Result} status
+     * @param location The current location, or null to clear it
+     */
+    private static void setResult(int status, Location location) {
+        if (status == Result.SUCCESS && getStatus() == status) {
+            LastLocationStore.set(location);
+        } else {
+            LastLocationStore.set(status, location);
+        }
+    }
+
+    /**
+     * Saves the current location now instead of after the write-behind delay. Call this before the process may be
+     * killed, for example from onPause().
+     */
+    public static void flush() {
+        LastLocationStore.save();
+    }
+
+    /**
+     * Observes the status of the location request instead of polling {@link #isLocationInProgress()}. The observer is
+     * called with the current status and then with every change of it.
+     *
+     * @param executor The executor to call the observer on, or null to call it on a background thread
+     * @param observer The observer receiving the {@link Result} status
+     * @return The subscription, to cancel once the status is no longer needed
+     */
+    public static PreferenceSubscription observeStatus(Executor executor, PreferenceObserver<Integer> observer) {
+        return PreferenceManager.observe(SharedPreferenceKeys.KEY_CURRENT_LOCATION_STATUS, Integer.class, 0, executor,
+                observer);
     }
 
     public static boolean isLocationSuccess() {
@@ -99,19 +589,39 @@ public class CurrentLocationManager extends BaseLocationManager {
         return (getStatus() == Result.STARTED);
     }
 
+    /**
+     * Sets the current location. It is served from memory immediately, and saved to the preferences shortly after.
+     *
+     * @param location The current location, or null to clear it
+     */
     public static void setCurrentLocation(Location location) {
-        PreferenceManager.setObject(SharedPreferenceKeys.KEY_CURRENT_LOCATION, location);
+        LastLocationStore.set(location);
     }
 
+    /**
+     * Returns a copy of the current location, or null if the last request did not succeed. Use {@link #getLastFix()}
+     * instead on hot paths, as it does not allocate.
+     */
     public static Location getCurrentLocation() {
+        LastLocation fix = getLastFix();
+        return fix != null ? fix.toLocation() : null;
+    }
+
+    /**
+     * Returns the current location without any allocation or decoding, or null if the last request did not succeed.
+     * Cheap enough to be called on every frame.
+     */
+    public static LastLocation getLastFix() {
         if (isLocationSuccess()) {
-            return PreferenceManager.getObject(SharedPreferenceKeys.KEY_CURRENT_LOCATION, Location.class);
+            return LastLocationStore.get();
         }
         return null;
     }
 
+    /**
+     * Clears the status and the current location, dropping the pending save of an older fix.
+     */
     public static void clear() {
-        setStatus(Result.ERROR);
-        PreferenceManager.setObject(SharedPreferenceKeys.KEY_CURRENT_LOCATION, null);
+        setResult(Result.ERROR, null);
     }
 }
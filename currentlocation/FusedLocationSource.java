@@ -0,0 +1,137 @@
+package com.vishnu.app.currentlocation;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.GooglePlayServicesUtil;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
+import com.google.android.gms.location.LocationListener;
+import com.google.android.gms.location.LocationServices;
+
+/**
+ * The {@link LocationSource} getting the fixes from the FusedLocationApi of Google Play services.
+ */
+public class FusedLocationSource implements LocationSource, GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener, LocationListener {
+
+    /** The GoogleApiClient to connect to GooglePlayServices to access the Current Location */
+    private final GoogleApiClient mLocationClient;
+    /** The context of the application */
+    private final Context mContext;
+    /** The callbacks notified of the connection state and the fixes */
+    private Callbacks mCallbacks;
+
+    /**
+     * @param context Application Context to initialize the LocationServices Api Client
+     */
+    public FusedLocationSource(Context context) {
+        this.mContext = context;
+        this.mLocationClient = new GoogleApiClient.Builder(context)
+                .addApi(LocationServices.API)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .build();
+    }
+
+    @Override
+    public void setCallbacks(Callbacks callbacks) {
+        this.mCallbacks = callbacks;
+    }
+
+    /**
+     * Connects the {@link #mLocationClient} to Google Play services, or fails immediately if Google Play services are
+     * not available.
+     */
+    @Override
+    public void connect() {
+        int resultCode = GooglePlayServicesUtil.isGooglePlayServicesAvailable(mContext);
+
+        if (resultCode == ConnectionResult.SUCCESS) {
+            mLocationClient.connect();
+        } else {
+            onConnectionFailed(new ConnectionResult(resultCode, null));
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        mLocationClient.disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mLocationClient.isConnected();
+    }
+
+    @Override
+    public boolean isConnecting() {
+        return mLocationClient.isConnecting();
+    }
+
+    @Override
+    public void requestLocationUpdates(LocationRequestProfile profile) {
+        LocationServices.FusedLocationApi.requestLocationUpdates(mLocationClient, profile.toLocationRequest(), this)
+                .setResultCallback(new ResultCallback<Status>() {
+                    @Override
+                    public void onResult(Status status) {
+                        if (!status.isSuccess()) {
+                            Log.e("FusedLocationSource", "Unable to start updates of Current location");
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void removeLocationUpdates() {
+        if (!mLocationClient.isConnected()) {
+            return;
+        }
+        LocationServices.FusedLocationApi.removeLocationUpdates(mLocationClient, this)
+                .setResultCallback(new ResultCallback<Status>() {
+                    @Override
+                    public void onResult(Status status) {
+                        if (!status.isSuccess()) {
+                            Log.e("FusedLocationSource", "Unable to remove updates of Current location");
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public Location getLastLocation() {
+        return LocationServices.FusedLocationApi.getLastLocation(mLocationClient);
+    }
+
+    @Override
+    public void onConnected(Bundle connectionHint) {
+        if (mCallbacks != null) {
+            mCallbacks.onConnected();
+        }
+    }
+
+    @Override
+    public void onConnectionSuspended(int cause) {
+        if (mCallbacks != null) {
+            mCallbacks.onConnectionSuspended(cause);
+        }
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+        if (mCallbacks != null) {
+            mCallbacks.onConnectionFailed(connectionResult);
+        }
+    }
+
+    @Override
+    public void onLocationChanged(Location location) {
+        if (mCallbacks != null) {
+            mCallbacks.onLocationChanged(location);
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.vishnu.app.currentlocation;
+
+import java.util.Arrays;
+
+/**
+ * A circular or polygonal area watched by the {@link GeofenceEngine}. Create one with
+ * {@link #circle(String, double, double, float)} or {@link #polygon(String, double[], double[])}.
+ * <p>
+ * The distances are computed on a local flat approximation of the earth, which is accurate to well under a meter for
+ * fences up to a few kilometers wide.
+ */
+public final class Geofence {
+
+    /** The user entered the fence */
+    public static final int TRANSITION_ENTER = 1;
+    /** The user left the fence */
+    public static final int TRANSITION_EXIT = 2;
+    /** The user stayed in the fence for its dwell time */
+    public static final int TRANSITION_DWELL = 4;
+
+    /** The meters per degree of latitude */
+    static final double METERS_PER_DEGREE = 111320;
+
+    private final String mId;
+    /** The center of a circle, or the first vertex of a polygon */
+    private final double mLatitude;
+    private final double mLongitude;
+    /** The radius of a circle, or 0 for a polygon */
+    private final float mRadius;                // IN METERS
+    /** The vertices of a polygon, or null for a circle */
+    private final double[] mLatitudes;
+    private final double[] mLongitudes;
+    /** The time after entering the fence at which a dwell transition is reported, or 0 for none */
+    private final long mDwellTime;              // IN MILLI SECONDS
+    /** The bounding box of the fence, in degrees. The longitudes of a circle may go beyond the antimeridian. */
+    private final double mMinLatitude;
+    private final double mMaxLatitude;
+    private final double mMinLongitude;
+    private final double mMaxLongitude;
+    /** The meters per degree of longitude at the fence */
+    private final double mMetersPerLongitude;
+
+    private Geofence(String id, double latitude, double longitude, float radius, double[] latitudes,
+                     double[] longitudes, long dwellTime) {
+        if (id == null) {
+            throw new NullPointerException("The geofence id must not be null");
+        }
+        this.mId = id;
+        this.mLatitude = latitude;
+        this.mLongitude = longitude;
+        this.mRadius = radius;
+        this.mLatitudes = latitudes;
+        this.mLongitudes = longitudes;
+        this.mDwellTime = dwellTime;
+        this.mMetersPerLongitude = METERS_PER_DEGREE * Math.max(1e-6, Math.cos(Math.toRadians(latitude)));
+        if (latitudes == null) {
+            double latitudeSpan = radius / METERS_PER_DEGREE;
+            double longitudeSpan = radius / mMetersPerLongitude;
+            mMinLatitude = latitude - latitudeSpan;
+            mMaxLatitude = latitude + latitudeSpan;
+            mMinLongitude = longitude - longitudeSpan;
+            mMaxLongitude = longitude + longitudeSpan;
+        } else {
+            double minLatitude = Double.MAX_VALUE;
+            double maxLatitude = -Double.MAX_VALUE;
+            double minLongitude = Double.MAX_VALUE;
+            double maxLongitude = -Double.MAX_VALUE;
+            for (int i = 0; i < latitudes.length; i++) {
+                minLatitude = Math.min(minLatitude, latitudes[i]);
+                maxLatitude = Math.max(maxLatitude, latitudes[i]);
+                minLongitude = Math.min(minLongitude, longitudes[i]);
+                maxLongitude = Math.max(maxLongitude, longitudes[i]);
+            }
+            mMinLatitude = minLatitude;
+            mMaxLatitude = maxLatitude;
+            mMinLongitude = minLongitude;
+            mMaxLongitude = maxLongitude;
+        }
+    }
+
+    /**
+     * Creates a circular fence. The circle may cross the antimeridian.
+     *
+     * @param id        The id of the fence, unique within an engine
+     * @param latitude  The latitude of the center, in degrees
+     * @param longitude The longitude of the center, in degrees
+     * @param radius    The radius, in meters
+     */
+    public static Geofence circle(String id, double latitude, double longitude, float radius) {
+        if (!(radius > 0)) {
+            throw new IllegalArgumentException("The radius must be positive");
+        }
+        return new Geofence(id, latitude, longitude, radius, null, null, 0);
+    }
+
+    /**
+     * Creates a polygonal fence. The polygon is closed implicitly and must not cross the antimeridian.
+     *
+     * @param id         The id of the fence, unique within an engine
+     * @param latitudes  The latitudes of the vertices, in degrees
+     * @param longitudes The longitudes of the vertices, in degrees
+     */
+    public static Geofence polygon(String id, double[] latitudes, double[] longitudes) {
+        if (latitudes.length != longitudes.length || latitudes.length < 3) {
+            throw new IllegalArgumentException("A polygon needs 3 or more vertices");
+        }
+        return new Geofence(id, latitudes[0], longitudes[0], 0, latitudes.clone(), longitudes.clone(), 0);
+    }
+
+    /**
+     * Returns a copy of this fence reporting a {@link #TRANSITION_DWELL} once the user stayed in it for the time.
+     *
+     * @param dwellTime The time after entering, in milliseconds, or 0 for no dwell transition
+     */
+    public Geofence withDwellTime(long dwellTime) {
+        if (dwellTime < 0) {
+            throw new IllegalArgumentException("The dwell time must not be negative");
+        }
+        return new Geofence(mId, mLatitude, mLongitude, mRadius, mLatitudes, mLongitudes, dwellTime);
+    }
+
+    public String getId() {
+        return mId;
+    }
+
+    public boolean isCircle() {
+        return mLatitudes == null;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public float getRadius() {
+        return mRadius;
+    }
+
+    public long getDwellTime() {
+        return mDwellTime;
+    }
+
+    double getMinLatitude() {
+        return mMinLatitude;
+    }
+
+    double getMaxLatitude() {
+        return mMaxLatitude;
+    }
+
+    double getMinLongitude() {
+        return mMinLongitude;
+    }
+
+    double getMaxLongitude() {
+        return mMaxLongitude;
+    }
+
+    /**
+     * Returns whether the point is inside the fence.
+     *
+     * @param latitude  The latitude of the point, in degrees
+     * @param longitude The longitude of the point, in degrees
+     */
+    public boolean contains(double latitude, double longitude) {
+        if (latitude < mMinLatitude || latitude > mMaxLatitude) {
+            return false;
+        }
+        if (mLatitudes == null) {
+            // the shorter way around, for a circle crossing the antimeridian
+            double longitudeDelta = longitude - mLongitude;
+            if (longitudeDelta > 180) {
+                longitudeDelta -= 360;
+            } else if (longitudeDelta < -180) {
+                longitudeDelta += 360;
+            }
+            double dy = (latitude - mLatitude) * METERS_PER_DEGREE;
+            double dx = longitudeDelta * mMetersPerLongitude;
+            return dx * dx + dy * dy <= (double) mRadius * mRadius;
+        }
+        if (longitude < mMinLongitude || longitude > mMaxLongitude) {
+            return false;
+        }
+        // even-odd rule
+        boolean inside = false;
+        for (int i = 0, j = mLatitudes.length - 1; i < mLatitudes.length; j = i++) {
+            if ((mLatitudes[i] > latitude) != (mLatitudes[j] > latitude)
+                    && longitude < (mLongitudes[j] - mLongitudes[i]) * (latitude - mLatitudes[i])
+                    / (mLatitudes[j] - mLatitudes[i]) + mLongitudes[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Geofence)) {
+            return false;
+        }
+        Geofence that = (Geofence) o;
+        return mId.equals(that.mId)
+                && Double.compare(mLatitude, that.mLatitude) == 0
+                && Double.compare(mLongitude, that.mLongitude) == 0
+                && Float.compare(mRadius, that.mRadius) == 0
+                && Arrays.equals(mLatitudes, that.mLatitudes)
+                && Arrays.equals(mLongitudes, that.mLongitudes)
+                && mDwellTime == that.mDwellTime;
+    }
+
+    @Override
+    public int hashCode() {
+        return mId.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "Geofence{id=" + mId + (isCircle() ? ", circle of " + mRadius + " m" : ", polygon of "
+                + mLatitudes.length + " vertices") + " at " + mLatitude + "," + mLongitude + "}";
+    }
+}
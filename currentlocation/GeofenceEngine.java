@@ -0,0 +1,294 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Watches many fences locally, fed with the fixes of the {@link CurrentLocationManager}: register the engine with
+ * {@link CurrentLocationManager#addLocationListener(CurrentLocationListener)}, or call
+ * {@link #update(double, double, long)} directly.
+ * <p>
+ * The fences are indexed in a grid of cells of a fixed size in degrees, each cell listing the fences overlapping it. A
+ * fix only tests the fences of its own cell, plus the fences the user is currently in, so the cost per fix depends on
+ * the density of the fences rather than their number. Fences covering more than {@link #MAX_CELLS_PER_FENCE} cells
+ * are tested on every fix instead. A circle crossing the antimeridian is indexed in the cells of both sides.
+ * <p>
+ * The listeners are notified after the fix is evaluated, outside of the lock of the engine, so they may change the
+ * fences. The transitions of the fixes are still delivered one fix at a time, in order.
+ */
+public class GeofenceEngine implements CurrentLocationListener {
+
+    /** The default size of the cells, about 1.1 km of latitude */
+    public static final double DEFAULT_CELL_SIZE = 0.01;        // IN DEGREES
+    /** The number of cells above which a fence is tested on every fix instead of being indexed */
+    public static final int MAX_CELLS_PER_FENCE = 1024;
+
+    /** The size of the cells */
+    private final double mCellSize;                             // IN DEGREES
+    /** The fences overlapping each cell, by {@link #cellKey(long, long)} */
+    private final Map<Long, ArrayList<Entry>> mCells = new HashMap<>();
+    /** The fences too large to be indexed */
+    private final ArrayList<Entry> mLargeFences = new ArrayList<>();
+    /** The fences, by id */
+    private final Map<String, Entry> mFences = new HashMap<>();
+    /** The fences the user is in */
+    private final ArrayList<Entry> mInside = new ArrayList<>();
+    private final CopyOnWriteArrayList<GeofenceListener> mListeners = new CopyOnWriteArrayList<>();
+    /** Held while a fix is evaluated and its transitions delivered, so the fixes are delivered in order */
+    private final Object mDeliveryLock = new Object();
+    /** Incremented for every fix, marking the fences containing it */
+    private long mStamp = 0;
+
+    public GeofenceEngine() {
+        this(DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * @param cellSize The size of the cells of the index, in degrees. Works best around the size of the fences.
+     */
+    public GeofenceEngine(double cellSize) {
+        if (!(cellSize > 0)) {
+            throw new IllegalArgumentException("The cell size must be positive");
+        }
+        this.mCellSize = cellSize;
+    }
+
+    public void addGeofenceListener(GeofenceListener listener) {
+        mListeners.addIfAbsent(listener);
+    }
+
+    public void removeGeofenceListener(GeofenceListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Adds the fence, replacing the fence with the same id. The user is considered outside of the new fence until the
+     * next fix.
+     *
+     * @param geofence The fence to add
+     */
+    public synchronized void addGeofence(Geofence geofence) {
+        removeGeofence(geofence.getId());
+        Entry entry = new Entry(geofence);
+        mFences.put(geofence.getId(), entry);
+        long minRow = row(geofence.getMinLatitude());
+        long maxRow = row(geofence.getMaxLatitude());
+        long[] columns = columnRanges(geofence);
+        long cells = 0;
+        for (int i = 0; i < columns.length; i += 2) {
+            cells += (maxRow - minRow + 1) * (columns[i + 1] - columns[i] + 1);
+        }
+        if (cells > MAX_CELLS_PER_FENCE) {
+            mLargeFences.add(entry);
+            return;
+        }
+        for (int i = 0; i < columns.length; i += 2) {
+            for (long row = minRow; row <= maxRow; row++) {
+                for (long column = columns[i]; column <= columns[i + 1]; column++) {
+                    Long key = cellKey(row, column);
+                    ArrayList<Entry> cell = mCells.get(key);
+                    if (cell == null) {
+                        cell = new ArrayList<>(4);
+                        mCells.put(key, cell);
+                    }
+                    cell.add(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds all the fences.
+     */
+    public synchronized void addGeofences(Iterable<Geofence> geofences) {
+        for (Geofence geofence : geofences) {
+            addGeofence(geofence);
+        }
+    }
+
+    /**
+     * Removes the fence with the id, without reporting an exit.
+     *
+     * @param id The id of the fence
+     * @return true if there was a fence with the id
+     */
+    public synchronized boolean removeGeofence(String id) {
+        Entry entry = mFences.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        mInside.remove(entry);
+        if (!mLargeFences.remove(entry)) {
+            Geofence geofence = entry.mGeofence;
+            long[] columns = columnRanges(geofence);
+            for (int i = 0; i < columns.length; i += 2) {
+                for (long row = row(geofence.getMinLatitude()); row <= row(geofence.getMaxLatitude()); row++) {
+                    for (long column = columns[i]; column <= columns[i + 1]; column++) {
+                        Long key = cellKey(row, column);
+                        ArrayList<Entry> cell = mCells.get(key);
+                        if (cell != null && cell.remove(entry) && cell.isEmpty()) {
+                            mCells.remove(key);
+                        }
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Removes all the fences, without reporting exits.
+     */
+    public synchronized void clear() {
+        mCells.clear();
+        mLargeFences.clear();
+        mFences.clear();
+        mInside.clear();
+    }
+
+    /**
+     * Returns the number of fences.
+     */
+    public synchronized int size() {
+        return mFences.size();
+    }
+
+    /**
+     * Returns the fences the user is in.
+     */
+    public synchronized List<Geofence> getInsideGeofences() {
+        List<Geofence> geofences = new ArrayList<>(mInside.size());
+        for (Entry entry : mInside) {
+            geofences.add(entry.mGeofence);
+        }
+        return geofences;
+    }
+
+    /**
+     * Evaluates the fences against the fix, reporting the transitions to the listeners.
+     *
+     * @param latitude   The latitude of the fix, in degrees
+     * @param longitude  The longitude of the fix, in degrees
+     * @param timeMillis The time of the fix
+     */
+    public void update(double latitude, double longitude, long timeMillis) {
+        synchronized (mDeliveryLock) {
+            ArrayList<Geofence> fences = new ArrayList<>();
+            ArrayList<Integer> transitions = new ArrayList<>();
+            evaluate(latitude, longitude, timeMillis, fences, transitions);
+            for (int i = 0; i < fences.size(); i++) {
+                for (GeofenceListener listener : mListeners) {
+                    listener.onGeofenceTransition(fences.get(i), transitions.get(i), timeMillis);
+                }
+            }
+        }
+    }
+
+    /** Updates the state of the fences with the fix, collecting the transitions to report. */
+    private synchronized void evaluate(double latitude, double longitude, long timeMillis,
+                                       ArrayList<Geofence> fences, ArrayList<Integer> transitions) {
+        long stamp = ++mStamp;
+        ArrayList<Entry> cell = mCells.get(cellKey(row(latitude), column(longitude)));
+        if (cell != null) {
+            test(cell, latitude, longitude, timeMillis, stamp, fences, transitions);
+        }
+        test(mLargeFences, latitude, longitude, timeMillis, stamp, fences, transitions);
+
+        for (int i = mInside.size() - 1; i >= 0; i--) {
+            Entry entry = mInside.get(i);
+            if (entry.mStamp != stamp) {
+                // removed by swapping in the last entry, which was already looked at
+                mInside.set(i, mInside.get(mInside.size() - 1));
+                mInside.remove(mInside.size() - 1);
+                entry.mInside = false;
+                fences.add(entry.mGeofence);
+                transitions.add(Geofence.TRANSITION_EXIT);
+            } else if (!entry.mDwelled && entry.mGeofence.getDwellTime() > 0
+                    && timeMillis - entry.mEnteredAt >= entry.mGeofence.getDwellTime()) {
+                entry.mDwelled = true;
+                fences.add(entry.mGeofence);
+                transitions.add(Geofence.TRANSITION_DWELL);
+            }
+        }
+    }
+
+    /** Marks the fences of the list containing the fix, and collects the fences entered. */
+    private void test(ArrayList<Entry> entries, double latitude, double longitude, long timeMillis, long stamp,
+                      ArrayList<Geofence> fences, ArrayList<Integer> transitions) {
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            Entry entry = entries.get(i);
+            if (entry.mGeofence.contains(latitude, longitude)) {
+                entry.mStamp = stamp;
+                if (!entry.mInside) {
+                    entry.mInside = true;
+                    entry.mEnteredAt = timeMillis;
+                    entry.mDwelled = false;
+                    mInside.add(entry);
+                    fences.add(entry.mGeofence);
+                    transitions.add(Geofence.TRANSITION_ENTER);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void onLocationSuccess(Location currentLocation) {
+        update(currentLocation.getLatitude(), currentLocation.getLongitude(), currentLocation.getTime());
+    }
+
+    @Override
+    public void onLocationFailed(int errorCode) {
+        // the user stays in the fences until a fix says otherwise
+    }
+
+    private long row(double latitude) {
+        return (long) Math.floor(latitude / mCellSize);
+    }
+
+    private long column(double longitude) {
+        return (long) Math.floor(longitude / mCellSize);
+    }
+
+    /**
+     * Returns the columns covered by the fence as pairs of first and last column. The part of a bounding box beyond
+     * the antimeridian is wrapped around to the other side, giving a second pair.
+     */
+    private long[] columnRanges(Geofence geofence) {
+        double min = geofence.getMinLongitude();
+        double max = geofence.getMaxLongitude();
+        if (max - min >= 360) {
+            return new long[]{column(-180), column(180)};
+        } else if (max > 180) {
+            return new long[]{column(min), column(180), column(-180), column(max - 360)};
+        } else if (min < -180) {
+            return new long[]{column(-180), column(max), column(min + 360), column(180)};
+        }
+        return new long[]{column(min), column(max)};
+    }
+
+    private static Long cellKey(long row, long column) {
+        return (row << 32) ^ (column & 0xFFFFFFFFL);
+    }
+
+    /** A fence and the state of the user towards it. */
+    private static final class Entry {
+        final Geofence mGeofence;
+        /** Whether the user is in the fence */
+        boolean mInside;
+        /** The time the user entered the fence */
+        long mEnteredAt;
+        /** Whether the dwell transition was reported since the user entered */
+        boolean mDwelled;
+        /** The stamp of the last fix inside the fence */
+        long mStamp = -1;
+
+        Entry(Geofence geofence) {
+            this.mGeofence = geofence;
+        }
+    }
+}
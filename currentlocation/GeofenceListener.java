@@ -0,0 +1,17 @@
+package com.vishnu.app.currentlocation;
+
+/**
+ * Used for receiving the transitions of the fences watched by a {@link GeofenceEngine}.
+ */
+public interface GeofenceListener {
+    /**
+     * Called when the user enters, leaves or dwells in a fence. Called from
+     * {@link GeofenceEngine#update(double, double, long)} once the fix is evaluated, so the fences of the engine may be
+     * changed from here; the changes apply from the next fix.
+     *
+     * @param geofence   The fence
+     * @param transition One of the Geofence.TRANSITION_* constants
+     * @param timeMillis The time of the fix causing the transition
+     */
+    void onGeofenceTransition(Geofence geofence, int transition, long timeMillis);
+}
@@ -0,0 +1,161 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+
+/**
+ * An immutable, primitive copy of a location fix. It is published by {@link CurrentLocationManager} on every fix, so
+ * reading the current location through {@link CurrentLocationManager#getLastFix()} needs no allocation and no
+ * decoding.
+ */
+public final class LastLocation {
+
+    private final String mProvider;
+    private final long mTime;
+    private final long mElapsedRealtimeNanos;
+    private final double mLatitude;
+    private final double mLongitude;
+    private final double mAltitude;
+    private final float mSpeed;
+    private final float mBearing;
+    private final float mAccuracy;
+    private final boolean mHasAltitude;
+    private final boolean mHasSpeed;
+    private final boolean mHasBearing;
+    private final boolean mHasAccuracy;
+    /** Whether {@link #mElapsedRealtimeNanos} is on the clock of this boot, which is not known for a saved fix */
+    private final boolean mThisBoot;
+
+    private LastLocation(Location location, boolean thisBoot) {
+        this.mThisBoot = thisBoot;
+        this.mProvider = location.getProvider();
+        this.mTime = location.getTime();
+        this.mElapsedRealtimeNanos = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1
+                ? location.getElapsedRealtimeNanos() : 0;
+        this.mLatitude = location.getLatitude();
+        this.mLongitude = location.getLongitude();
+        this.mAltitude = location.getAltitude();
+        this.mSpeed = location.getSpeed();
+        this.mBearing = location.getBearing();
+        this.mAccuracy = location.getAccuracy();
+        this.mHasAltitude = location.hasAltitude();
+        this.mHasSpeed = location.hasSpeed();
+        this.mHasBearing = location.hasBearing();
+        this.mHasAccuracy = location.hasAccuracy();
+    }
+
+    /**
+     * Copies the fix.
+     *
+     * @param location The fix to copy, may be null
+     * @return The copy, or null for a null location
+     */
+    public static LastLocation from(Location location) {
+        return location != null ? new LastLocation(location, true) : null;
+    }
+
+    /**
+     * Copies a fix read back from the preferences. Its elapsed realtime may be from an earlier boot, so its age is
+     * taken from the wall clock.
+     *
+     * @param location The saved fix, may be null
+     * @return The copy, or null for a null location
+     */
+    static LastLocation fromSaved(Location location) {
+        return location != null ? new LastLocation(location, false) : null;
+    }
+
+    /**
+     * Creates a new {@link Location} with the state of this fix.
+     */
+    public Location toLocation() {
+        Location location = new Location(mProvider);
+        location.setTime(mTime);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            location.setElapsedRealtimeNanos(mElapsedRealtimeNanos);
+        }
+        location.setLatitude(mLatitude);
+        location.setLongitude(mLongitude);
+        if (mHasAltitude) {
+            location.setAltitude(mAltitude);
+        }
+        if (mHasSpeed) {
+            location.setSpeed(mSpeed);
+        }
+        if (mHasBearing) {
+            location.setBearing(mBearing);
+        }
+        if (mHasAccuracy) {
+            location.setAccuracy(mAccuracy);
+        }
+        return location;
+    }
+
+    /**
+     * Returns the age of the fix in milliseconds, based on the elapsed realtime clock when available, as the wall clock
+     * time of a fix may be off. The elapsed realtime restarts at every boot, so the age of a saved fix, which may be
+     * from an earlier boot, is based on the wall clock.
+     */
+    public long getAgeMillis() {
+        if (mThisBoot && mElapsedRealtimeNanos > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            long elapsed = SystemClock.elapsedRealtimeNanos() - mElapsedRealtimeNanos;
+            if (elapsed >= 0) {
+                return elapsed / 1000000L;
+            }
+        }
+        return System.currentTimeMillis() - mTime;
+    }
+
+    public String getProvider() {
+        return mProvider;
+    }
+
+    public long getTime() {
+        return mTime;
+    }
+
+    public long getElapsedRealtimeNanos() {
+        return mElapsedRealtimeNanos;
+    }
+
+    public double getLatitude() {
+        return mLatitude;
+    }
+
+    public double getLongitude() {
+        return mLongitude;
+    }
+
+    public boolean hasAltitude() {
+        return mHasAltitude;
+    }
+
+    public double getAltitude() {
+        return mAltitude;
+    }
+
+    public boolean hasSpeed() {
+        return mHasSpeed;
+    }
+
+    public float getSpeed() {
+        return mSpeed;
+    }
+
+    public boolean hasBearing() {
+        return mHasBearing;
+    }
+
+    public float getBearing() {
+        return mBearing;
+    }
+
+    public boolean hasAccuracy() {
+        return mHasAccuracy;
+    }
+
+    public float getAccuracy() {
+        return mAccuracy;
+    }
+}
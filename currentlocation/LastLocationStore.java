@@ -0,0 +1,241 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+
+import com.vishnu.app.PreferenceBatch;
+import com.vishnu.app.PreferenceManager;
+import com.vishnu.app.constants.SharedPreferenceKeys;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Keeps the status of the location request and the current location in memory, and saves them to the preferences
+ * behind the fixes. Reads are served from memory; the preferences are only read after the process starts or after the
+ * saved values were changed by someone else, and the fix is written at most once per {@link #WRITE_BEHIND_DELAY}
+ * with the latest fix.
+ * <p>
+ * The status is saved as soon as it changes, always together with the latest fix, so the preferences never hold a
+ * status of one request with the fix of another.
+ * <p>
+ * The saves of this class are reported back by the preferences like any other write, on the main thread for the
+ * default SharedPreferences. They are recognised by the values they left in the preferences, so only the changes made
+ * by someone else drop the values in memory.
+ */
+final class LastLocationStore {
+
+    /** The time to wait after a fix before saving it, so that a burst of fixes is saved once */
+    static final long WRITE_BEHIND_DELAY = 1000;     // IN MILLI SECONDS
+
+    /** Guards the changes of the fields below */
+    private static final Object sLock = new Object();
+    /** The latest fix, or null if there is none */
+    private static volatile LastLocation sLastFix;
+    /** Whether {@link #sLastFix} holds the saved fix or a newer one */
+    private static volatile boolean sLoaded = false;
+    /** The status of the location request, or null if it must be read from the preferences */
+    private static volatile Integer sStatus = null;
+    /** Incremented by every change in memory */
+    private static int sVersion = 0;
+    /** The {@link #sVersion} last saved; the memory is newer than the preferences while they differ */
+    private static int sSavedVersion = 0;
+    /** The scheduled save of the latest fix, or null */
+    private static ScheduledFuture<?> sSave;
+    /** Whether the preferences may still hold the values of the last save, see {@link #sSavedFix} */
+    private static boolean sSavedValuesKnown = false;
+    /** The stored string of the fix after the last save */
+    private static String sSavedFix;
+    /** The stored status after the last save */
+    private static int sSavedStatus;
+
+    static {
+        PreferenceManager.addChangeListener(new PreferenceManager.ChangeListener() {
+            @Override
+            public void onPreferenceChanged(String key) {
+                if (key == null) {
+                    discard();
+                } else if (SharedPreferenceKeys.KEY_CURRENT_LOCATION.equals(key)
+                        || SharedPreferenceKeys.KEY_CURRENT_LOCATION_STATUS.equals(key)) {
+                    invalidate();
+                }
+            }
+        });
+    }
+
+    private LastLocationStore() {
+    }
+
+    /**
+     * Returns the latest fix, loading the saved fix on the first call after the process starts.
+     */
+    static LastLocation get() {
+        if (!sLoaded) {
+            synchronized (sLock) {
+                if (!sLoaded) {
+                    sLastFix = LastLocation.fromSaved(
+                            PreferenceManager.getObject(SharedPreferenceKeys.KEY_CURRENT_LOCATION, Location.class));
+                    sLoaded = true;
+                }
+            }
+        }
+        return sLastFix;
+    }
+
+    /**
+     * Returns the status of the location request, loading the saved status on the first call after the process
+     * starts.
+     */
+    static int getStatus() {
+        Integer status = sStatus;
+        if (status == null) {
+            synchronized (sLock) {
+                status = sStatus;
+                if (status == null) {
+                    status = PreferenceManager.getInt(SharedPreferenceKeys.KEY_CURRENT_LOCATION_STATUS);
+                    sStatus = status;
+                }
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Replaces the latest fix, and schedules saving it.
+     *
+     * @param location The new fix, or null to forget the fix
+     */
+    static void set(Location location) {
+        synchronized (sLock) {
+            sLastFix = LastLocation.from(location);
+            sLoaded = true;
+            sVersion++;
+            if (sSave == null) {
+                sSave = LocationScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        save();
+                    }
+                }, WRITE_BEHIND_DELAY);
+            }
+        }
+    }
+
+    /**
+     * Replaces the status, and saves it now together with the latest fix.
+     *
+     * @param status The {@link com.vishnu.app.constants.Result} status
+     */
+    static void setStatus(int status) {
+        synchronized (sLock) {
+            sStatus = status;
+            sVersion++;
+        }
+        save();
+    }
+
+    /**
+     * Replaces the status and the fix, and saves both now, dropping the scheduled save of an older fix.
+     *
+     * @param status   The {@link com.vishnu.app.constants.Result} status
+     * @param location The new fix, or null to forget the fix
+     */
+    static void set(int status, Location location) {
+        synchronized (sLock) {
+            sStatus = status;
+            sLastFix = LastLocation.from(location);
+            sLoaded = true;
+            sVersion++;
+        }
+        save();
+    }
+
+    /**
+     * Saves the status and the latest fix now if they changed since the last save, for example before the process may
+     * be killed.
+     */
+    static void save() {
+        final Integer status;
+        final LastLocation fix;
+        final boolean saveFix;
+        int version;
+        synchronized (sLock) {
+            cancelSave();
+            version = sVersion;
+            if (version == sSavedVersion) {
+                return;
+            }
+            status = sStatus;
+            fix = sLastFix;
+            saveFix = sLoaded;
+        }
+        PreferenceManager.edit(new PreferenceBatch.Transaction() {
+            @Override
+            public void run(PreferenceBatch batch) {
+                if (status != null) {
+                    batch.setInt(SharedPreferenceKeys.KEY_CURRENT_LOCATION_STATUS, status);
+                }
+                if (saveFix) {
+                    batch.setObject(SharedPreferenceKeys.KEY_CURRENT_LOCATION, fix != null ? fix.toLocation() : null);
+                }
+            }
+        });
+        // read back, as the stored string of the fix is up to its codec
+        String savedFix = PreferenceManager.getString(SharedPreferenceKeys.KEY_CURRENT_LOCATION);
+        int savedStatus = PreferenceManager.getInt(SharedPreferenceKeys.KEY_CURRENT_LOCATION_STATUS);
+        synchronized (sLock) {
+            // a change made during the write stays unsaved
+            if (sVersion == version) {
+                sSavedVersion = version;
+            }
+            sSavedValuesKnown = true;
+            sSavedFix = savedFix;
+            sSavedStatus = savedStatus;
+        }
+    }
+
+    /**
+     * Drops the values in memory once the saved values were changed by someone else, so they are read again. Ignored
+     * while the preferences still hold the values of the last save, and while the memory holds unsaved changes, which
+     * will overwrite the saved values anyway.
+     */
+    private static void invalidate() {
+        String storedFix = PreferenceManager.getString(SharedPreferenceKeys.KEY_CURRENT_LOCATION);
+        int storedStatus = PreferenceManager.getInt(SharedPreferenceKeys.KEY_CURRENT_LOCATION_STATUS);
+        synchronized (sLock) {
+            if (sVersion != sSavedVersion) {
+                return;
+            }
+            if (sSavedValuesKnown && storedStatus == sSavedStatus
+                    && (storedFix == null ? sSavedFix == null : storedFix.equals(sSavedFix))) {
+                // the report of our own save
+                return;
+            }
+            sSavedValuesKnown = false;
+            sSavedFix = null;
+            sLoaded = false;
+            sLastFix = null;
+            sStatus = null;
+        }
+    }
+
+    /**
+     * Drops the values in memory and their scheduled save once the preferences were cleared or replaced.
+     */
+    private static void discard() {
+        synchronized (sLock) {
+            cancelSave();
+            sSavedVersion = sVersion;
+            sSavedValuesKnown = false;
+            sSavedFix = null;
+            sLoaded = false;
+            sLastFix = null;
+            sStatus = null;
+        }
+    }
+
+    private static void cancelSave() {
+        if (sSave != null) {
+            sSave.cancel(false);
+            sSave = null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Buffers fixes and hands them over in batches. A batch is handed over once it holds maxBatchSize fixes, or once its
+ * oldest fix has waited maxWaitMillis, whichever comes first.
+ */
+public class LocationBatcher {
+
+    /**
+     * Used for receiving the batches of a {@link LocationBatcher}.
+     */
+    public interface Callback {
+        /**
+         * Called with a batch, on the thread adding the last fix of a full batch or calling {@link #flush()}. An
+         * expired batch is handed over with the expiry executor, or on the {@link LocationScheduler} thread if there
+         * is none.
+         * @param batch The fixes, oldest first. The list is never empty and must not be modified.
+         */
+        void onBatch(List<Location> batch);
+    }
+
+    /** The number of fixes after which a batch is handed over */
+    private final int mMaxBatchSize;
+    /** The time after which the oldest fix of a batch is handed over */
+    private final long mMaxWaitMillis;      // IN MILLI SECONDS
+    /** The receiver of the batches */
+    private final Callback mCallback;
+    /** Runs the hand over of the expired batches, or null to run it on the scheduler thread */
+    private final Executor mExpiryExecutor;
+    /** Held while a batch is handed over */
+    private final Object mDeliveryLock = new Object();
+    /** The fixes of the current batch */
+    private ArrayList<Location> mBatch;
+    /** The hand over of the current batch once it expires, or null */
+    private ScheduledFuture<?> mExpiry;
+
+    /**
+     * @param maxBatchSize  The number of fixes after which a batch is handed over
+     * @param maxWaitMillis The time after which the oldest fix of a batch is handed over, in milliseconds
+     * @param callback      The receiver of the batches
+     */
+    public LocationBatcher(int maxBatchSize, long maxWaitMillis, Callback callback) {
+        this(maxBatchSize, maxWaitMillis, null, callback);
+    }
+
+    /**
+     * @param maxBatchSize   The number of fixes after which a batch is handed over
+     * @param maxWaitMillis  The time after which the oldest fix of a batch is handed over, in milliseconds
+     * @param expiryExecutor Runs the hand over of the expired batches, for example on the thread of the other
+     *                       location callbacks, or null to run it on the scheduler thread
+     * @param callback       The receiver of the batches
+     */
+    public LocationBatcher(int maxBatchSize, long maxWaitMillis, Executor expiryExecutor, Callback callback) {
+        if (maxBatchSize <= 0 || maxWaitMillis <= 0) {
+            throw new IllegalArgumentException("The batch size and the wait time must be positive");
+        }
+        this.mMaxBatchSize = maxBatchSize;
+        this.mMaxWaitMillis = maxWaitMillis;
+        this.mCallback = callback;
+        this.mExpiryExecutor = expiryExecutor;
+        this.mBatch = new ArrayList<>(maxBatchSize);
+    }
+
+    public int getMaxBatchSize() {
+        return mMaxBatchSize;
+    }
+
+    public long getMaxWaitMillis() {
+        return mMaxWaitMillis;
+    }
+
+    /**
+     * Adds the fix to the current batch, handing the batch over if it is full.
+     *
+     * @param location The fix to add
+     */
+    public void add(Location location) {
+        boolean full;
+        synchronized (this) {
+            mBatch.add(location);
+            full = mBatch.size() >= mMaxBatchSize;
+            if (!full && mExpiry == null) {
+                final List<Location> batch = mBatch;
+                final Runnable expire = new Runnable() {
+                    @Override
+                    public void run() {
+                        flush(batch);
+                    }
+                };
+                mExpiry = LocationScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (mExpiryExecutor != null) {
+                            mExpiryExecutor.execute(expire);
+                        } else {
+                            expire.run();
+                        }
+                    }
+                }, mMaxWaitMillis);
+            }
+        }
+        if (full) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands the current batch over now, if it holds any fix.
+     */
+    public void flush() {
+        flush(null);
+    }
+
+    /**
+     * Hands the current batch over, if it holds any fix and is the expected batch.
+     *
+     * @param expected The batch an expiry was scheduled for, or null for the current batch whatever it is
+     */
+    private void flush(List<Location> expected) {
+        // the batches are handed over one at a time, so they arrive in order
+        synchronized (mDeliveryLock) {
+            List<Location> batch;
+            synchronized (this) {
+                // an expiry posted to the executor may run after its batch was handed over as full
+                if (mBatch.isEmpty() || (expected != null && expected != mBatch)) {
+                    return;
+                }
+                batch = takeBatch();
+            }
+            mCallback.onBatch(batch);
+        }
+    }
+
+    /**
+     * Drops the current batch without handing it over.
+     */
+    public synchronized void clear() {
+        takeBatch();
+    }
+
+    /**
+     * Returns the number of fixes waiting in the current batch.
+     */
+    public synchronized int size() {
+        return mBatch.size();
+    }
+
+    /** Replaces the current batch with an empty one, cancelling its expiry, and returns it. */
+    private List<Location> takeBatch() {
+        if (mExpiry != null) {
+            mExpiry.cancel(false);
+            mExpiry = null;
+        }
+        List<Location> batch = Collections.unmodifiableList(mBatch);
+        mBatch = new ArrayList<>(mMaxBatchSize);
+        return batch;
+    }
+}
@@ -0,0 +1,243 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+import android.os.Build;
+
+/**
+ * Smooths a stream of fixes and drops the noisy ones before they reach the listeners. Every fix goes through:
+ * <ol>
+ * <li>accuracy rejection, dropping fixes less accurate than the maximum accuracy,</li>
+ * <li>jump rejection, dropping fixes farther from the predicted position than the maximum speed allows,</li>
+ * <li>a Kalman filter over the position and the velocity, which replaces the latitude and longitude of the fix with
+ * the smoothed ones,</li>
+ * <li>distance gating, dropping fixes closer than the minimum distance to the last fix passed on.</li>
+ * </ol>
+ * The filter restarts the track at the new position after {@link #MAX_JUMPS} jumps in a row which agree with each
+ * other, as the user then really moved. The times of a track are all read from the same clock, the elapsed realtime
+ * when the first fix has it, or else the wall clock; a fix on the other clock starts a new track.
+ * <p>
+ * The filter keeps its state in primitive fields and updates the fix in place, so it does not allocate. It is not
+ * thread safe; use it from the thread delivering the fixes.
+ */
+public class LocationFilter {
+
+    /** The meters per degree of latitude */
+    private static final double METERS_PER_DEGREE = 111320;
+    /** The accuracy assumed for fixes which have none */
+    private static final float DEFAULT_ACCURACY = 30;           // IN METERS
+    /** The number of jumps in a row, agreeing with each other, after which the filter restarts at the new position */
+    private static final int MAX_JUMPS = 3;
+
+    /** The accuracy above which fixes are dropped */
+    private final float mMaxAccuracy;                           // IN METERS
+    /** The distance to the last fix passed on below which fixes are dropped */
+    private final float mMinDistance;                           // IN METERS
+    /** The variance of the acceleration of the user, the process noise of the filter */
+    private final float mProcessNoise;                          // IN METERS PER SECOND SQUARED
+    /** The speed above which a fix is a jump */
+    private final float mMaxSpeed;                              // IN METERS PER SECOND
+
+    /** Whether the filter has a state */
+    private boolean mInitialized = false;
+    /** Whether the times of the track are from the elapsed realtime clock rather than the wall clock */
+    private boolean mElapsedClock;
+    /** The origin of the local east/north plane, in degrees */
+    private double mOriginLatitude;
+    private double mOriginLongitude;
+    /** The meters per degree of longitude at the origin */
+    private double mMetersPerLongitude;
+    /** The time of the last fix, in nanoseconds */
+    private long mLastTime;
+    /** The estimated position and velocity, east and north of the origin */
+    private double mX;
+    private double mY;
+    private double mVelocityX;
+    private double mVelocityY;
+    /** The covariance of the position and velocity estimate, shared by both axes */
+    private double mP00;
+    private double mP01;
+    private double mP11;
+    /** The position of the last fix passed on, east and north of the origin */
+    private double mPassedX;
+    private double mPassedY;
+    /** The number of jumps in a row */
+    private int mJumps;
+    /** The position, east and north of the origin, the time and the accuracy of the last jump */
+    private double mJumpX;
+    private double mJumpY;
+    private long mJumpTime;
+    private float mJumpAccuracy;
+
+    private long mRejectedInaccurate;
+    private long mRejectedJumps;
+    private long mGated;
+
+    /**
+     * Creates a filter for walking and driving: fixes less accurate than 50 m and jumps faster than 70 m/s are dropped,
+     * as are fixes closer than 5 m to the last one.
+     */
+    public LocationFilter() {
+        this(50, 5, 3, 70);
+    }
+
+    /**
+     * @param maxAccuracy  The accuracy above which fixes are dropped, in meters
+     * @param minDistance  The distance to the last fix passed on below which fixes are dropped, in meters
+     * @param processNoise The expected acceleration of the user, in meters per second squared. Higher values follow
+     *                     the fixes more closely, lower values smooth them more.
+     * @param maxSpeed     The speed above which a fix is a jump, in meters per second
+     */
+    public LocationFilter(float maxAccuracy, float minDistance, float processNoise, float maxSpeed) {
+        if (maxAccuracy <= 0 || minDistance < 0 || processNoise <= 0 || maxSpeed <= 0) {
+            throw new IllegalArgumentException("Invalid location filter parameters");
+        }
+        this.mMaxAccuracy = maxAccuracy;
+        this.mMinDistance = minDistance;
+        this.mProcessNoise = processNoise;
+        this.mMaxSpeed = maxSpeed;
+    }
+
+    /**
+     * Filters the fix. If it is passed on, its latitude and longitude are replaced with the smoothed ones.
+     *
+     * @param location The fix, updated in place
+     * @return true if the fix should be passed on to the listeners, false if it is dropped
+     */
+    public boolean filter(Location location) {
+        float accuracy = location.hasAccuracy() ? location.getAccuracy() : DEFAULT_ACCURACY;
+        if (accuracy > mMaxAccuracy) {
+            mRejectedInaccurate++;
+            return false;
+        }
+        boolean elapsedClock = hasElapsedRealtime(location);
+        if (!mInitialized || elapsedClock != mElapsedClock) {
+            start(location, accuracy, elapsedClock);
+            return true;
+        }
+        long time = elapsedClock ? location.getElapsedRealtimeNanos() : location.getTime() * 1000000L;
+
+        double x = (location.getLongitude() - mOriginLongitude) * mMetersPerLongitude;
+        double y = (location.getLatitude() - mOriginLatitude) * METERS_PER_DEGREE;
+        double dt = Math.max(0, time - mLastTime) / 1e9;
+
+        // predict
+        double predictedX = mX + mVelocityX * dt;
+        double predictedY = mY + mVelocityY * dt;
+        double dx = x - predictedX;
+        double dy = y - predictedY;
+        if (Math.sqrt(dx * dx + dy * dy) > mMaxSpeed * dt + accuracy + Math.sqrt(mP00)) {
+            if (mJumps > 0) {
+                double jumpX = x - mJumpX;
+                double jumpY = y - mJumpY;
+                double jumpDt = Math.max(0, time - mJumpTime) / 1e9;
+                if (Math.sqrt(jumpX * jumpX + jumpY * jumpY) > mMaxSpeed * jumpDt + accuracy + mJumpAccuracy) {
+                    // a jump elsewhere: only the jumps to the same place count
+                    mJumps = 0;
+                }
+            }
+            mJumpX = x;
+            mJumpY = y;
+            mJumpTime = time;
+            mJumpAccuracy = accuracy;
+            if (++mJumps < MAX_JUMPS) {
+                mRejectedJumps++;
+                return false;
+            }
+            // the jumps agree with each other, so the user really moved
+            start(location, accuracy, elapsedClock);
+            return true;
+        }
+        mJumps = 0;
+        double q = mProcessNoise * mProcessNoise;
+        double dt2 = dt * dt;
+        mP00 += dt * (2 * mP01 + dt * mP11) + q * dt2 * dt2 / 4;
+        mP01 += dt * mP11 + q * dt2 * dt / 2;
+        mP11 += q * dt2;
+
+        // update
+        double s = mP00 + (double) accuracy * accuracy;
+        double k0 = mP00 / s;
+        double k1 = mP01 / s;
+        mX = predictedX + k0 * dx;
+        mY = predictedY + k0 * dy;
+        mVelocityX += k1 * dx;
+        mVelocityY += k1 * dy;
+        mP11 -= k1 * mP01;
+        mP00 *= 1 - k0;
+        mP01 *= 1 - k0;
+        mLastTime = time;
+
+        double gateX = mX - mPassedX;
+        double gateY = mY - mPassedY;
+        if (Math.sqrt(gateX * gateX + gateY * gateY) < mMinDistance) {
+            mGated++;
+            return false;
+        }
+        mPassedX = mX;
+        mPassedY = mY;
+        location.setLatitude(mOriginLatitude + mY / METERS_PER_DEGREE);
+        location.setLongitude(mOriginLongitude + mX / mMetersPerLongitude);
+        return true;
+    }
+
+    /**
+     * Forgets the state, so the next fix starts a new track.
+     */
+    public void reset() {
+        mInitialized = false;
+        mJumps = 0;
+    }
+
+    /**
+     * Returns the estimated speed, in meters per second, or 0 before the first fix.
+     */
+    public float getSpeed() {
+        return mInitialized ? (float) Math.sqrt(mVelocityX * mVelocityX + mVelocityY * mVelocityY) : 0;
+    }
+
+    /**
+     * Returns the number of fixes dropped for being less accurate than the maximum accuracy.
+     */
+    public long getRejectedInaccurateCount() {
+        return mRejectedInaccurate;
+    }
+
+    /**
+     * Returns the number of fixes dropped for being farther than the maximum speed allows.
+     */
+    public long getRejectedJumpCount() {
+        return mRejectedJumps;
+    }
+
+    /**
+     * Returns the number of fixes dropped for being closer than the minimum distance.
+     */
+    public long getGatedCount() {
+        return mGated;
+    }
+
+    /** Starts a new track at the fix, timed by the clock. */
+    private void start(Location location, float accuracy, boolean elapsedClock) {
+        mInitialized = true;
+        mElapsedClock = elapsedClock;
+        mOriginLatitude = location.getLatitude();
+        mOriginLongitude = location.getLongitude();
+        mMetersPerLongitude = METERS_PER_DEGREE * Math.max(1e-6, Math.cos(Math.toRadians(mOriginLatitude)));
+        mLastTime = elapsedClock ? location.getElapsedRealtimeNanos() : location.getTime() * 1000000L;
+        mX = 0;
+        mY = 0;
+        mVelocityX = 0;
+        mVelocityY = 0;
+        mP00 = (double) accuracy * accuracy;
+        mP01 = 0;
+        mP11 = (double) mMaxSpeed * mMaxSpeed;
+        mPassedX = 0;
+        mPassedY = 0;
+        mJumps = 0;
+    }
+
+    /** Returns whether the fix has a time on the elapsed realtime clock. */
+    private static boolean hasElapsedRealtime(Location location) {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && location.getElapsedRealtimeNanos() > 0;
+    }
+}
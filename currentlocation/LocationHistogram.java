@@ -0,0 +1,157 @@
+package com.vishnu.app.currentlocation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative long values, in logarithmic buckets like HdrHistogram: every power of two is
+ * split into {@link #SUB_BUCKETS} linear buckets, so a value is known within 1/{@link #SUB_BUCKETS} of itself whatever
+ * its magnitude. Recording a value is a few atomic increments, without allocation, and can be done from any thread.
+ */
+public final class LocationHistogram {
+
+    /** The linear buckets of every power of two */
+    public static final int SUB_BUCKETS = 8;
+    /** log2 of {@link #SUB_BUCKETS} */
+    private static final int SUB_BUCKET_BITS = 3;
+    /** Enough buckets for any positive long */
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong mMax = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Records the value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        mBuckets.incrementAndGet(bucket(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long min;
+        while (value < (min = mMin.get()) && !mMin.compareAndSet(min, value)) {
+            // retry
+        }
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Copies the recorded values. Values recorded during the copy may be partly included.
+     */
+    public Snapshot snapshot() {
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = mBuckets.get(i);
+        }
+        return new Snapshot(buckets, mCount.get(), mSum.get(), mMin.get(), mMax.get());
+    }
+
+    /**
+     * Forgets the recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMin.set(Long.MAX_VALUE);
+        mMax.set(Long.MIN_VALUE);
+    }
+
+    /** Returns the bucket of the value. The values below {@link #SUB_BUCKETS} have a bucket each. */
+    static int bucket(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /** Returns the highest value of the bucket. */
+    static long highestValue(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (exponent - SUB_BUCKET_BITS);
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return lowest + (width - 1);
+    }
+
+    /**
+     * The values of a {@link LocationHistogram} at one point in time.
+     */
+    public static final class Snapshot {
+        private final long[] mBuckets;
+        private final long mCount;
+        private final long mSum;
+        private final long mMin;
+        private final long mMax;
+
+        Snapshot(long[] buckets, long count, long sum, long min, long max) {
+            this.mBuckets = buckets;
+            this.mCount = count;
+            this.mSum = sum;
+            this.mMin = count > 0 ? min : 0;
+            this.mMax = count > 0 ? max : 0;
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getMin() {
+            return mMin;
+        }
+
+        public long getMax() {
+            return mMax;
+        }
+
+        public double getMean() {
+            return mCount > 0 ? (double) mSum / mCount : 0;
+        }
+
+        /**
+         * Returns the value below which the percentage of the recorded values falls, within the precision of the
+         * buckets.
+         *
+         * @param percentile The percentage, from 0 to 100
+         * @return The value, or 0 if nothing was recorded
+         */
+        public long getPercentile(double percentile) {
+            long total = 0;
+            for (long count : mBuckets) {
+                total += count;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(Math.min(100, Math.max(0, percentile)) / 100 * total));
+            long seen = 0;
+            for (int i = 0; i < mBuckets.length; i++) {
+                seen += mBuckets[i];
+                if (seen >= rank) {
+                    return Math.min(highestValue(i), mMax);
+                }
+            }
+            return mMax;
+        }
+
+        @Override
+        public String toString() {
+            return "{count=" + mCount + ", min=" + mMin + ", p50=" + getPercentile(50) + ", p90=" + getPercentile(90)
+                    + ", p99=" + getPercentile(99) + ", max=" + mMax + ", mean=" + getMean() + "}";
+        }
+    }
+}
@@ -0,0 +1,377 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * The recent fixes, kept in a memory-mapped file of fixed size. Once the file is full, every new fix overwrites the
+ * oldest one. A fix is stored as a record of {@link #RECORD_SIZE} bytes of primitives, so the history can be searched
+ * by time in O(log n) and read one fix at a time, without holding it on the heap.
+ * <p>
+ * A record holds the time, the latitude and the longitude, the accuracy, the speed in centimeters per second and the
+ * bearing in hundredths of a degree. The altitude and the provider are not kept. The fixes must be appended in the
+ * order of their time; older fixes are ignored.
+ */
+public class LocationHistory implements Iterable<Location> {
+
+    /** The provider of the fixes read from the history */
+    public static final String PROVIDER = "history";
+
+    /** The size of every record */
+    public static final int RECORD_SIZE = 32;
+
+    /** The first int of the file */
+    private static final int MAGIC = 0x4C4F4348;
+    private static final int VERSION = 2;
+    /**
+     * Magic, version, record size, capacity, the number of fixes ever appended and the logical index of the oldest fix
+     * kept
+     */
+    private static final int HEADER_SIZE = 32;
+    /** The offset of the capacity in the header */
+    private static final int CAPACITY_OFFSET = 12;
+    /** The offset of the number of fixes ever appended in the header */
+    private static final int COUNT_OFFSET = 16;
+    /** The offset of the logical index of the oldest fix kept in the header */
+    private static final int FIRST_OFFSET = 24;
+
+    /** The offsets of the fields in a record */
+    private static final int TIME_OFFSET = 0;
+    private static final int LATITUDE_OFFSET = 8;
+    private static final int LONGITUDE_OFFSET = 16;
+    private static final int ACCURACY_OFFSET = 24;
+    private static final int SPEED_OFFSET = 28;
+    private static final int BEARING_OFFSET = 30;
+    /** Stored as the speed or the bearing of a fix which has none */
+    private static final char MISSING = 0xFFFF;
+
+    /** The history file */
+    private final File mFile;
+    /** The maximum number of fixes */
+    private final int mCapacity;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final MappedByteBuffer mBuffer;
+    /** The number of fixes ever appended, which is the logical index of the next fix */
+    private long mCount;
+    /** The logical index of the oldest fix kept */
+    private long mFirst;
+
+    /**
+     * Opens the history, creating it if needed. A file written with another capacity or layout is started over.
+     *
+     * @param file     The history file
+     * @param capacity The maximum number of fixes kept
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public LocationHistory(File file, int capacity) throws IOException {
+        if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        this.mFile = file;
+        this.mCapacity = capacity;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        boolean valid = mRandomAccessFile.length() == HEADER_SIZE + (long) capacity * RECORD_SIZE;
+        mChannel = mRandomAccessFile.getChannel();
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity * RECORD_SIZE);
+        if (!valid || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION
+                || mBuffer.getInt(8) != RECORD_SIZE || mBuffer.getInt(CAPACITY_OFFSET) != capacity
+                || !isValidRange(mBuffer.getLong(FIRST_OFFSET), mBuffer.getLong(COUNT_OFFSET))) {
+            writeHeader();
+        }
+        mCount = mBuffer.getLong(COUNT_OFFSET);
+        mFirst = mBuffer.getLong(FIRST_OFFSET);
+    }
+
+    private void writeHeader() {
+        mBuffer.putInt(0, MAGIC);
+        mBuffer.putInt(4, VERSION);
+        mBuffer.putInt(8, RECORD_SIZE);
+        mBuffer.putInt(CAPACITY_OFFSET, mCapacity);
+        mBuffer.putLong(COUNT_OFFSET, 0);
+        mBuffer.putLong(FIRST_OFFSET, 0);
+    }
+
+    private boolean isValidRange(long first, long count) {
+        return first >= 0 && first <= count && count - first <= mCapacity;
+    }
+
+    /**
+     * Returns the maximum number of fixes kept.
+     */
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the number of fixes kept.
+     */
+    public synchronized int size() {
+        return (int) (mCount - mFirst);
+    }
+
+    /**
+     * Appends the fix, overwriting the oldest fix if the history is full.
+     *
+     * @param location The fix to append
+     * @return false if the fix was ignored because it is older than the latest fix
+     */
+    public synchronized boolean append(Location location) {
+        long time = location.getTime();
+        if (mCount > mFirst && time < timeAt(mCount - 1)) {
+            return false;
+        }
+        if (mCount - mFirst == mCapacity) {
+            // the oldest fix is dropped before its record is overwritten, so a crash while writing the record loses it
+            // instead of leaving a torn fix at the start of the history
+            mFirst++;
+            mBuffer.putLong(FIRST_OFFSET, mFirst);
+        }
+        int offset = offset(mCount);
+        mBuffer.putLong(offset + TIME_OFFSET, time);
+        mBuffer.putDouble(offset + LATITUDE_OFFSET, location.getLatitude());
+        mBuffer.putDouble(offset + LONGITUDE_OFFSET, location.getLongitude());
+        mBuffer.putFloat(offset + ACCURACY_OFFSET, location.hasAccuracy() ? location.getAccuracy() : Float.NaN);
+        mBuffer.putChar(offset + SPEED_OFFSET, location.hasSpeed()
+                ? (char) Math.min(MISSING - 1, Math.round(location.getSpeed() * 100)) : MISSING);
+        mBuffer.putChar(offset + BEARING_OFFSET, location.hasBearing()
+                ? (char) (Math.round(location.getBearing() * 100) % 36000) : MISSING);
+        // the record is complete before it is counted, so a crash loses at most this fix
+        mCount++;
+        mBuffer.putLong(COUNT_OFFSET, mCount);
+        return true;
+    }
+
+    /**
+     * Returns the fix at the index, the oldest fix kept being at index 0.
+     *
+     * @param index The index of the fix
+     * @return The fix
+     */
+    public synchronized Location get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+        }
+        return read(first() + index);
+    }
+
+    /**
+     * Returns the time of the fix at the index, without reading the rest of the fix.
+     *
+     * @param index The index of the fix
+     * @return The time of the fix, in milliseconds since the epoch
+     */
+    public synchronized long getTime(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size());
+        }
+        return timeAt(first() + index);
+    }
+
+    /**
+     * Returns the index of the first fix not older than the time, or {@link #size()} if all the fixes are older.
+     * The lookup is a binary search over the record times.
+     *
+     * @param timeMillis The time, in milliseconds since the epoch
+     * @return The index of the fix
+     */
+    public synchronized int indexOf(long timeMillis) {
+        long low = first();
+        long high = mCount;
+        while (low < high) {
+            long middle = (low + high) >>> 1;
+            if (timeAt(middle) < timeMillis) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return (int) (low - first());
+    }
+
+    /**
+     * Reads the fixes between the times into a list, keeping at most one fix per interval.
+     *
+     * @param fromMillis        The time of the oldest fix to read, inclusive
+     * @param toMillis          The time of the newest fix to read, inclusive
+     * @param minIntervalMillis The shortest time between two of the fixes read, 0 to read all of them
+     * @return The fixes, oldest first
+     */
+    public List<Location> query(long fromMillis, long toMillis, long minIntervalMillis) {
+        List<Location> locations = new ArrayList<>();
+        for (Location location : range(fromMillis, toMillis, minIntervalMillis)) {
+            locations.add(location);
+        }
+        return locations;
+    }
+
+    /**
+     * Returns the fixes between the times, read one at a time from the file, keeping at most one fix per interval. The
+     * iteration fails with a {@link ConcurrentModificationException} if the fix to read next was overwritten meanwhile.
+     *
+     * @param fromMillis        The time of the oldest fix to read, inclusive
+     * @param toMillis          The time of the newest fix to read, inclusive
+     * @param minIntervalMillis The shortest time between two of the fixes read, 0 to read all of them
+     * @return The fixes, oldest first
+     */
+    public Iterable<Location> range(final long fromMillis, final long toMillis, final long minIntervalMillis) {
+        return new Iterable<Location>() {
+            @Override
+            public Iterator<Location> iterator() {
+                synchronized (LocationHistory.this) {
+                    return new RangeIterator(first() + indexOf(fromMillis), toMillis, minIntervalMillis);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over all the fixes, oldest first, reading them one at a time from the file.
+     */
+    @Override
+    public Iterator<Location> iterator() {
+        return range(Long.MIN_VALUE, Long.MAX_VALUE, 0).iterator();
+    }
+
+    /**
+     * Removes all the fixes.
+     */
+    public synchronized void clear() {
+        mCount = 0;
+        mFirst = 0;
+        mBuffer.putLong(COUNT_OFFSET, 0);
+        mBuffer.putLong(FIRST_OFFSET, 0);
+    }
+
+    /**
+     * Forces the fixes to the disk. Without it, they survive the process being killed but not the device shutting down.
+     */
+    public synchronized void sync() {
+        mBuffer.force();
+    }
+
+    /**
+     * Closes the history. The instance must not be used afterwards.
+     */
+    public synchronized void close() {
+        try {
+            mBuffer.force();
+            mChannel.close();
+            mRandomAccessFile.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to close " + mFile, e);
+        }
+    }
+
+    /** Returns the logical index of the oldest fix kept. */
+    private long first() {
+        return mFirst;
+    }
+
+    /** Returns the offset of the record of the logical index. */
+    private int offset(long logicalIndex) {
+        return HEADER_SIZE + (int) (logicalIndex % mCapacity) * RECORD_SIZE;
+    }
+
+    /** Returns the time of the record of the logical index. */
+    private long timeAt(long logicalIndex) {
+        return mBuffer.getLong(offset(logicalIndex) + TIME_OFFSET);
+    }
+
+    /** Reads the record of the logical index into a new Location. */
+    private Location read(long logicalIndex) {
+        int offset = offset(logicalIndex);
+        Location location = new Location(PROVIDER);
+        location.setTime(mBuffer.getLong(offset + TIME_OFFSET));
+        location.setLatitude(mBuffer.getDouble(offset + LATITUDE_OFFSET));
+        location.setLongitude(mBuffer.getDouble(offset + LONGITUDE_OFFSET));
+        float accuracy = mBuffer.getFloat(offset + ACCURACY_OFFSET);
+        if (!Float.isNaN(accuracy)) {
+            location.setAccuracy(accuracy);
+        }
+        char speed = mBuffer.getChar(offset + SPEED_OFFSET);
+        if (speed != MISSING) {
+            location.setSpeed(speed / 100f);
+        }
+        char bearing = mBuffer.getChar(offset + BEARING_OFFSET);
+        if (bearing != MISSING) {
+            location.setBearing(bearing / 100f);
+        }
+        return location;
+    }
+
+    /** Reads the records of a time range one at a time, skipping the records closer than the interval. */
+    private class RangeIterator implements Iterator<Location> {
+        /** The time of the newest fix to read */
+        private final long mTo;
+        /** The shortest time between two fixes read */
+        private final long mMinInterval;
+        /** The logical index of the next record to look at */
+        private long mIndex;
+        /** The next fix, or null if not read yet */
+        private Location mNext;
+        /** The time of the last fix returned */
+        private long mLastTime = Long.MIN_VALUE;
+
+        RangeIterator(long start, long to, long minInterval) {
+            this.mIndex = start;
+            this.mTo = to;
+            this.mMinInterval = minInterval;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (mNext != null) {
+                return true;
+            }
+            synchronized (LocationHistory.this) {
+                if (mIndex < first()) {
+                    throw new ConcurrentModificationException("The fixes were overwritten during the iteration");
+                }
+                while (mIndex < mCount) {
+                    long time = timeAt(mIndex);
+                    if (time > mTo) {
+                        mIndex = Long.MAX_VALUE;
+                        return false;
+                    }
+                    if (mLastTime == Long.MIN_VALUE || time - mLastTime >= mMinInterval) {
+                        mNext = read(mIndex++);
+                        mLastTime = time;
+                        return true;
+                    }
+                    mIndex++;
+                }
+                return false;
+            }
+        }
+
+        @Override
+        public Location next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Location next = mNext;
+            mNext = null;
+            return next;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package com.vishnu.app.currentlocation;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The measurements of a location manager, recorded without locking and exported with {@link #snapshot()}:
+ * <ul>
+ * <li>the time to connect to the location source,</li>
+ * <li>the time from a request to its first fix,</li>
+ * <li>the accuracy of the fixes delivered,</li>
+ * <li>the failures, by error code, and the timeouts.</li>
+ * </ul>
+ * Obtain the metrics from {@link BaseLocationManager#getMetrics()}.
+ */
+public final class LocationMetrics {
+
+    /** Stands for the error codes counted together in {@link Snapshot#getFailureCounts()} */
+    public static final int OTHER_ERROR_CODE = -1;
+    /** The error codes counted individually; the others are counted together */
+    private static final int ERROR_CODES = 32;
+
+    private final LocationHistogram mConnectTime = new LocationHistogram();
+    private final LocationHistogram mTimeToFirstFix = new LocationHistogram();
+    private final LocationHistogram mAccuracy = new LocationHistogram();
+    private final AtomicLongArray mFailures = new AtomicLongArray(ERROR_CODES);
+    private final AtomicLong mOtherFailures = new AtomicLong();
+    private final AtomicLong mTimeouts = new AtomicLong();
+    private final AtomicLong mFixes = new AtomicLong();
+
+    /**
+     * Records the time a connection took.
+     * @param nanos The time from the connection request to the connection, in nanoseconds
+     */
+    void recordConnectTime(long nanos) {
+        mConnectTime.record(nanos / 1000000L);
+    }
+
+    /**
+     * Records the time until the first fix of a request.
+     * @param nanos The time from the request to its first fix, in nanoseconds
+     */
+    void recordTimeToFirstFix(long nanos) {
+        mTimeToFirstFix.record(nanos / 1000000L);
+    }
+
+    /**
+     * Records a fix delivered to the listeners.
+     * @param accuracy The accuracy of the fix, in meters, or a negative value if it has none
+     */
+    void recordFix(float accuracy) {
+        mFixes.incrementAndGet();
+        if (accuracy >= 0) {
+            mAccuracy.record(Math.round(accuracy * 100));
+        }
+    }
+
+    /**
+     * Records a failed request.
+     * @param errorCode The error code reported to the listeners
+     */
+    void recordFailure(int errorCode) {
+        if (errorCode >= 0 && errorCode < ERROR_CODES) {
+            mFailures.incrementAndGet(errorCode);
+        } else {
+            mOtherFailures.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records a request which timed out.
+     */
+    void recordTimeout() {
+        mTimeouts.incrementAndGet();
+    }
+
+    /**
+     * Copies the measurements, for example to send them to the telemetry.
+     */
+    public Snapshot snapshot() {
+        Map<Integer, Long> failures = new LinkedHashMap<>();
+        for (int i = 0; i < ERROR_CODES; i++) {
+            long count = mFailures.get(i);
+            if (count > 0) {
+                failures.put(i, count);
+            }
+        }
+        long other = mOtherFailures.get();
+        if (other > 0) {
+            failures.put(OTHER_ERROR_CODE, other);
+        }
+        return new Snapshot(mConnectTime.snapshot(), mTimeToFirstFix.snapshot(), mAccuracy.snapshot(),
+                Collections.unmodifiableMap(failures), mTimeouts.get(), mFixes.get());
+    }
+
+    /**
+     * Forgets the measurements, for example after sending them to the telemetry.
+     */
+    public void reset() {
+        mConnectTime.reset();
+        mTimeToFirstFix.reset();
+        mAccuracy.reset();
+        for (int i = 0; i < ERROR_CODES; i++) {
+            mFailures.set(i, 0);
+        }
+        mOtherFailures.set(0);
+        mTimeouts.set(0);
+        mFixes.set(0);
+    }
+
+    /**
+     * The measurements of a location manager at one point in time.
+     */
+    public static final class Snapshot {
+        private final LocationHistogram.Snapshot mConnectTime;
+        private final LocationHistogram.Snapshot mTimeToFirstFix;
+        private final LocationHistogram.Snapshot mAccuracy;
+        private final Map<Integer, Long> mFailureCounts;
+        private final long mTimeoutCount;
+        private final long mFixCount;
+
+        Snapshot(LocationHistogram.Snapshot connectTime, LocationHistogram.Snapshot timeToFirstFix,
+                 LocationHistogram.Snapshot accuracy, Map<Integer, Long> failureCounts, long timeoutCount,
+                 long fixCount) {
+            this.mConnectTime = connectTime;
+            this.mTimeToFirstFix = timeToFirstFix;
+            this.mAccuracy = accuracy;
+            this.mFailureCounts = failureCounts;
+            this.mTimeoutCount = timeoutCount;
+            this.mFixCount = fixCount;
+        }
+
+        /**
+         * Returns the times to connect to the location source, in milliseconds.
+         */
+        public LocationHistogram.Snapshot getConnectTime() {
+            return mConnectTime;
+        }
+
+        /**
+         * Returns the times from a request to its first fix, in milliseconds.
+         */
+        public LocationHistogram.Snapshot getTimeToFirstFix() {
+            return mTimeToFirstFix;
+        }
+
+        /**
+         * Returns the accuracies of the fixes delivered, in centimeters.
+         */
+        public LocationHistogram.Snapshot getAccuracy() {
+            return mAccuracy;
+        }
+
+        /**
+         * Returns the number of failures by error code, {@link #OTHER_ERROR_CODE} standing for the codes above 31.
+         * The timeouts are included, under ConnectionResult.TIMEOUT.
+         */
+        public Map<Integer, Long> getFailureCounts() {
+            return mFailureCounts;
+        }
+
+        /**
+         * Returns the number of requests which timed out.
+         */
+        public long getTimeoutCount() {
+            return mTimeoutCount;
+        }
+
+        /**
+         * Returns the number of fixes delivered to the listeners.
+         */
+        public long getFixCount() {
+            return mFixCount;
+        }
+
+        @Override
+        public String toString() {
+            return "LocationMetrics{connectTimeMs=" + mConnectTime + ", timeToFirstFixMs=" + mTimeToFirstFix
+                    + ", accuracyCm=" + mAccuracy + ", failures=" + mFailureCounts + ", timeouts=" + mTimeoutCount
+                    + ", fixes=" + mFixCount + "}";
+        }
+    }
+}
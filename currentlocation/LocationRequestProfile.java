@@ -0,0 +1,171 @@
+package com.vishnu.app.currentlocation;
+
+import com.google.android.gms.location.LocationRequest;
+
+/**
+ * The conditions of a location request made by {@link BaseLocationManager}: the priority, the update intervals, the
+ * number of updates, the smallest displacement and the batching. Use one of the presets, or create a profile for a
+ * specific use case and pass it to {@link BaseLocationManager#setRequestProfile(LocationRequestProfile)}.
+ */
+public final class LocationRequestProfile {
+
+    /** A single accurate fix, disconnecting afterwards. Used by {@link CurrentLocationManager#fetchLocation()}. */
+    public static final LocationRequestProfile SINGLE_FIX = new LocationRequestProfile(
+            LocationRequest.PRIORITY_HIGH_ACCURACY, 1000, 500, 1, 0);
+
+    /** A continuous stream of accurate fixes, for a moving user. */
+    public static final LocationRequestProfile TRACKING = new LocationRequestProfile(
+            LocationRequest.PRIORITY_HIGH_ACCURACY, 2000, 1000, Integer.MAX_VALUE, 0);
+
+    /** A slow stream of fixes, for a user who is not moving. Wakes the GPS rarely. */
+    public static final LocationRequestProfile STATIONARY = new LocationRequestProfile(
+            LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY, 30000, 10000, Integer.MAX_VALUE, 10);
+
+    /** A slow stream of coarse fixes, for when the battery is low. */
+    public static final LocationRequestProfile LOW_POWER = new LocationRequestProfile(
+            LocationRequest.PRIORITY_LOW_POWER, 60000, 30000, Integer.MAX_VALUE, 50);
+
+    /** One of the LocationRequest.PRIORITY_* constants */
+    private final int mPriority;
+    /** The desired interval between fixes */
+    private final long mInterval;                   // IN MILLI SECONDS
+    /** The fastest interval at which fixes are accepted */
+    private final long mFastestInterval;            // IN MILLI SECONDS
+    /** The number of fixes after which the updates stop */
+    private final int mNumUpdates;
+    /** The smallest distance between two fixes */
+    private final float mSmallestDisplacement;      // IN METERS
+    /** The longest time fixes may be held back to be delivered together, or 0 */
+    private final long mMaxWaitTime;                // IN MILLI SECONDS
+
+    /**
+     * @param priority             One of the LocationRequest.PRIORITY_* constants
+     * @param interval             The desired interval between fixes, in milliseconds
+     * @param fastestInterval      The fastest interval at which fixes are accepted, in milliseconds
+     * @param numUpdates           The number of fixes after which the updates stop, {@link Integer#MAX_VALUE} for a
+     *                             stream
+     * @param smallestDisplacement The smallest distance between two fixes, in meters
+     */
+    public LocationRequestProfile(int priority, long interval, long fastestInterval, int numUpdates,
+                                  float smallestDisplacement) {
+        this(priority, interval, fastestInterval, numUpdates, smallestDisplacement, 0);
+    }
+
+    /**
+     * @param priority             One of the LocationRequest.PRIORITY_* constants
+     * @param interval             The desired interval between fixes, in milliseconds
+     * @param fastestInterval      The fastest interval at which fixes are accepted, in milliseconds
+     * @param numUpdates           The number of fixes after which the updates stop, {@link Integer#MAX_VALUE} for a
+     *                             stream
+     * @param smallestDisplacement The smallest distance between two fixes, in meters
+     * @param maxWaitTime          The longest time the fixes may be held back by the location provider to be
+     *                             delivered together, in milliseconds, or 0 to deliver every fix immediately
+     */
+    public LocationRequestProfile(int priority, long interval, long fastestInterval, int numUpdates,
+                                  float smallestDisplacement, long maxWaitTime) {
+        if (interval < 0 || fastestInterval < 0 || numUpdates <= 0 || smallestDisplacement < 0 || maxWaitTime < 0) {
+            throw new IllegalArgumentException("Invalid location request profile");
+        }
+        this.mPriority = priority;
+        this.mInterval = interval;
+        this.mFastestInterval = fastestInterval;
+        this.mNumUpdates = numUpdates;
+        this.mSmallestDisplacement = smallestDisplacement;
+        this.mMaxWaitTime = maxWaitTime;
+    }
+
+    /**
+     * Returns a copy of this profile letting the location provider hold the fixes back for up to maxWaitTime, so the
+     * device can batch them in hardware and wake the app less often.
+     *
+     * @param maxWaitTime The longest time the fixes may be held back, in milliseconds, or 0
+     */
+    public LocationRequestProfile withMaxWaitTime(long maxWaitTime) {
+        return new LocationRequestProfile(mPriority, mInterval, mFastestInterval, mNumUpdates, mSmallestDisplacement,
+                maxWaitTime);
+    }
+
+    public int getPriority() {
+        return mPriority;
+    }
+
+    public long getInterval() {
+        return mInterval;
+    }
+
+    public long getFastestInterval() {
+        return mFastestInterval;
+    }
+
+    public int getNumUpdates() {
+        return mNumUpdates;
+    }
+
+    public float getSmallestDisplacement() {
+        return mSmallestDisplacement;
+    }
+
+    public long getMaxWaitTime() {
+        return mMaxWaitTime;
+    }
+
+    /**
+     * Returns whether the profile requests a stream of fixes rather than a fixed number of them.
+     */
+    public boolean isContinuous() {
+        return mNumUpdates == Integer.MAX_VALUE;
+    }
+
+    /**
+     * Creates the LocationRequest made to the FusedLocationApi for this profile.
+     */
+    LocationRequest toLocationRequest() {
+        LocationRequest locationRequest = LocationRequest.create();
+        locationRequest.setPriority(mPriority);
+        locationRequest.setInterval(mInterval);
+        locationRequest.setFastestInterval(mFastestInterval);
+        if (!isContinuous()) {
+            locationRequest.setNumUpdates(mNumUpdates);
+        }
+        locationRequest.setSmallestDisplacement(mSmallestDisplacement);
+        if (mMaxWaitTime > 0) {
+            locationRequest.setMaxWaitTime(mMaxWaitTime);
+        }
+        return locationRequest;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof LocationRequestProfile)) {
+            return false;
+        }
+        LocationRequestProfile that = (LocationRequestProfile) o;
+        return mPriority == that.mPriority
+                && mInterval == that.mInterval
+                && mFastestInterval == that.mFastestInterval
+                && mNumUpdates == that.mNumUpdates
+                && Float.compare(mSmallestDisplacement, that.mSmallestDisplacement) == 0
+                && mMaxWaitTime == that.mMaxWaitTime;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mPriority;
+        result = 31 * result + (int) (mInterval ^ (mInterval >>> 32));
+        result = 31 * result + (int) (mFastestInterval ^ (mFastestInterval >>> 32));
+        result = 31 * result + mNumUpdates;
+        result = 31 * result + Float.floatToIntBits(mSmallestDisplacement);
+        result = 31 * result + (int) (mMaxWaitTime ^ (mMaxWaitTime >>> 32));
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "LocationRequestProfile{priority=" + mPriority + ", interval=" + mInterval + ", fastestInterval="
+                + mFastestInterval + ", numUpdates=" + mNumUpdates + ", smallestDisplacement="
+                + mSmallestDisplacement + ", maxWaitTime=" + mMaxWaitTime + "}";
+    }
+}
@@ -0,0 +1,47 @@
+package com.vishnu.app.currentlocation;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The single thread running the timed work of the location classes: the request timeouts and deadlines of
+ * {@link BaseLocationManager}, the batch expiries of {@link LocationBatcher} and the delayed saves of the current
+ * location. A scheduled task costs nothing until it runs, unlike a ticking timer, and can be scheduled and cancelled
+ * from any thread. The tasks must be short, as they share the thread.
+ */
+final class LocationScheduler {
+
+    /** The scheduler thread. Created on first use. */
+    private static ScheduledExecutorService sExecutor;
+
+    private LocationScheduler() {
+    }
+
+    /**
+     * Runs the task once the delay has passed.
+     *
+     * @param task        The task to run on the scheduler thread
+     * @param delayMillis The delay, in milliseconds
+     * @return The scheduled task, to cancel it
+     */
+    static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return executor().schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledExecutorService executor() {
+        if (sExecutor == null) {
+            sExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "LocationScheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sExecutor;
+    }
+}
@@ -0,0 +1,78 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+
+import com.google.android.gms.common.ConnectionResult;
+
+/**
+ * The provider of the fixes used by {@link BaseLocationManager}. {@link FusedLocationSource} gets them from Google Play
+ * services, {@link ReplayLocationSource} replays a recorded track, so the location pipeline can also run off-device.
+ */
+public interface LocationSource {
+
+    /**
+     * Used for receiving the connection state and the fixes of a {@link LocationSource}.
+     */
+    interface Callbacks {
+        /**
+         * Called when the source is connected, and {@link #requestLocationUpdates(LocationRequestProfile)} can be
+         * called.
+         */
+        void onConnected();
+
+        /**
+         * Called when the connection of the source is lost.
+         * @param cause The cause of the disconnection
+         */
+        void onConnectionSuspended(int cause);
+
+        /**
+         * Called when the source could not connect.
+         * @param connectionResult The cause of the failure
+         */
+        void onConnectionFailed(ConnectionResult connectionResult);
+
+        /**
+         * Called for every fix of the requested updates.
+         * @param location The new fix
+         */
+        void onLocationChanged(Location location);
+    }
+
+    /**
+     * Sets the callbacks notified of the connection state and of the fixes.
+     */
+    void setCallbacks(Callbacks callbacks);
+
+    /**
+     * Connects the source in the background. {@link Callbacks#onConnected()} or
+     * {@link Callbacks#onConnectionFailed(ConnectionResult)} is called once done.
+     */
+    void connect();
+
+    /**
+     * Closes the connection, cancelling the updates.
+     */
+    void disconnect();
+
+    boolean isConnected();
+
+    boolean isConnecting();
+
+    /**
+     * Starts delivering fixes with the conditions of the profile, replacing any previous request.
+     *
+     * @param profile The conditions of the updates
+     */
+    void requestLocationUpdates(LocationRequestProfile profile);
+
+    /**
+     * Stops delivering fixes.
+     */
+    void removeLocationUpdates();
+
+    /**
+     * Returns the most recent fix of the source, or null if there is none.
+     */
+    Location getLastLocation();
+}
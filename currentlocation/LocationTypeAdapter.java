@@ -0,0 +1,188 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+import android.os.Build;
+
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+
+/**
+ * Precompiled Gson adapter for the {@link Location} stored by {@link CurrentLocationManager#setCurrentLocation}.
+ * Only the public state of the fix is written, under short names. Locations stored earlier by Gson's reflective
+ * adapter, under the private field names of {@link Location}, are still read, in the layouts of all the API levels:
+ * <ul>
+ * <li>up to API 25, the values with a boolean presence flag each, such as mAccuracy and mHasAccuracy</li>
+ * <li>API 26 to 30, the same values, the accuracy as mHorizontalAccuracyMeters, and the presence flags as bits of
+ * mFieldsMask</li>
+ * <li>from API 31, the values under names with their units, such as mAltitudeMeters, and the bits of mFieldsMask</li>
+ * </ul>
+ */
+public class LocationTypeAdapter extends TypeAdapter<Location> {
+
+    /** The bits of mFieldsMask in the reflective layouts from API 26, the same in all of them */
+    private static final int HAS_ALTITUDE_MASK = 1;
+    private static final int HAS_SPEED_MASK = 1 << 1;
+    private static final int HAS_BEARING_MASK = 1 << 2;
+    private static final int HAS_HORIZONTAL_ACCURACY_MASK = 1 << 3;
+
+    @Override
+    public void write(JsonWriter out, Location location) throws IOException {
+        out.beginObject();
+        out.name("provider").value(location.getProvider());
+        out.name("time").value(location.getTime());
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            out.name("elapsedRealtimeNanos").value(location.getElapsedRealtimeNanos());
+        }
+        out.name("latitude").value(location.getLatitude());
+        out.name("longitude").value(location.getLongitude());
+        if (location.hasAltitude()) {
+            out.name("altitude").value(location.getAltitude());
+        }
+        if (location.hasSpeed()) {
+            out.name("speed").value(location.getSpeed());
+        }
+        if (location.hasBearing()) {
+            out.name("bearing").value(location.getBearing());
+        }
+        if (location.hasAccuracy()) {
+            out.name("accuracy").value(location.getAccuracy());
+        }
+        out.endObject();
+    }
+
+    @Override
+    public Location read(JsonReader in) throws IOException {
+        String provider = null;
+        long time = 0;
+        long elapsedRealtimeNanos = 0;
+        double latitude = 0;
+        double longitude = 0;
+        double altitude = 0;
+        float speed = 0;
+        float bearing = 0;
+        float accuracy = 0;
+        boolean hasAltitude = false;
+        boolean hasSpeed = false;
+        boolean hasBearing = false;
+        boolean hasAccuracy = false;
+        // the presence flags of the layouts from API 26
+        int fieldsMask = 0;
+        boolean hasFieldsMask = false;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (name) {
+                case "provider":
+                case "mProvider":
+                    provider = in.nextString();
+                    break;
+                case "time":
+                case "mTime":
+                case "mTimeMs":
+                    time = in.nextLong();
+                    break;
+                case "elapsedRealtimeNanos":
+                case "mElapsedRealtimeNanos":
+                case "mElapsedRealtimeNs":
+                    elapsedRealtimeNanos = in.nextLong();
+                    break;
+                case "latitude":
+                case "mLatitude":
+                case "mLatitudeDegrees":
+                    latitude = in.nextDouble();
+                    break;
+                case "longitude":
+                case "mLongitude":
+                case "mLongitudeDegrees":
+                    longitude = in.nextDouble();
+                    break;
+                case "altitude":
+                    hasAltitude = true;
+                    // fall through
+                case "mAltitude":
+                case "mAltitudeMeters":
+                    altitude = in.nextDouble();
+                    break;
+                case "speed":
+                    hasSpeed = true;
+                    // fall through
+                case "mSpeed":
+                case "mSpeedMetersPerSecond":
+                    speed = (float) in.nextDouble();
+                    break;
+                case "bearing":
+                    hasBearing = true;
+                    // fall through
+                case "mBearing":
+                case "mBearingDegrees":
+                    bearing = (float) in.nextDouble();
+                    break;
+                case "accuracy":
+                    hasAccuracy = true;
+                    // fall through
+                case "mAccuracy":
+                case "mHorizontalAccuracyMeters":
+                    accuracy = (float) in.nextDouble();
+                    break;
+                // the presence flags of the reflective layouts
+                case "mFieldsMask":
+                    // a byte up to API 30, so the bits above the ones read here may be set by its sign
+                    fieldsMask = in.nextInt();
+                    hasFieldsMask = true;
+                    break;
+                case "mHasAltitude":
+                    hasAltitude = in.nextBoolean();
+                    break;
+                case "mHasSpeed":
+                    hasSpeed = in.nextBoolean();
+                    break;
+                case "mHasBearing":
+                    hasBearing = in.nextBoolean();
+                    break;
+                case "mHasAccuracy":
+                    hasAccuracy = in.nextBoolean();
+                    break;
+                default:
+                    in.skipValue();
+                    break;
+            }
+        }
+        in.endObject();
+        if (hasFieldsMask) {
+            hasAltitude = (fieldsMask & HAS_ALTITUDE_MASK) != 0;
+            hasSpeed = (fieldsMask & HAS_SPEED_MASK) != 0;
+            hasBearing = (fieldsMask & HAS_BEARING_MASK) != 0;
+            hasAccuracy = (fieldsMask & HAS_HORIZONTAL_ACCURACY_MASK) != 0;
+        }
+
+        Location location = new Location(provider);
+        location.setTime(time);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+            location.setElapsedRealtimeNanos(elapsedRealtimeNanos);
+        }
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        if (hasAltitude) {
+            location.setAltitude(altitude);
+        }
+        if (hasSpeed) {
+            location.setSpeed(speed);
+        }
+        if (hasBearing) {
+            location.setBearing(bearing);
+        }
+        if (hasAccuracy) {
+            location.setAccuracy(accuracy);
+        }
+        return location;
+    }
+}
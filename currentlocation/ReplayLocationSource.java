@@ -0,0 +1,445 @@
+package com.vishnu.app.currentlocation;
+
+import android.location.Location;
+import android.os.Build;
+import android.os.SystemClock;
+
+import com.google.android.gms.common.ConnectionResult;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * A {@link LocationSource} replaying a recorded track, so the location pipeline can be driven deterministically,
+ * without the Google Play services. The fixes are delivered on a replay thread, keeping the time between them divided
+ * by the speed-up factor. A factor of {@link Double#POSITIVE_INFINITY} delivers them as fast as the callbacks consume
+ * them.
+ * <p>
+ * The source still uses {@link Location}, {@link SystemClock} and {@link Build}, so off the device it needs an Android
+ * runtime such as Robolectric; it does not run on a plain JVM.
+ * <p>
+ * The dispatch latency of every fix is measured: how late the fix was delivered after its time in the replay, and how
+ * long the callbacks took to consume it. See {@link #getDeliveryDelay()} and {@link #getDispatchTime()}.
+ * <p>
+ * Tracks are read from GPX files, or from CSV files with one fix per line:
+ * {@code time,latitude,longitude[,altitude,speed,bearing,accuracy]}, the time being in milliseconds since the epoch.
+ * The first line may be a header. Empty optional columns, empty lines and lines starting with {@code #} are skipped.
+ */
+public class ReplayLocationSource implements LocationSource {
+
+    /** The provider of the replayed fixes */
+    public static final String PROVIDER = "replay";
+
+    /** The recorded fixes, in the order of their time */
+    private final List<Location> mTrack;
+    /** The factor by which the replay is faster than the recording */
+    private final double mSpeedUp;
+    /** Whether the track restarts from its first fix once the last one is delivered */
+    private volatile boolean mLooping = false;
+    /** Whether the fixes are given the current time instead of the recorded time */
+    private volatile boolean mRebaseTime = true;
+    /** The callbacks notified of the connection state and the fixes */
+    private volatile Callbacks mCallbacks;
+    private volatile boolean mConnected = false;
+    /** The thread delivering the requested updates, or null */
+    private Thread mReplayThread;
+    /** The index of the next fix to deliver, kept across requests */
+    private int mPosition = 0;
+    /** The last delivered fix */
+    private volatile Location mLastLocation;
+    /** The delay from the time of a fix in the replay to its delivery, IN MICRO SECONDS */
+    private final LocationHistogram mDeliveryDelay = new LocationHistogram();
+    /** The time the callbacks took to consume a fix, IN MICRO SECONDS */
+    private final LocationHistogram mDispatchTime = new LocationHistogram();
+
+    /**
+     * @param track   The recorded fixes, in the order of their time
+     * @param speedUp The factor by which the replay is faster than the recording
+     */
+    public ReplayLocationSource(List<Location> track, double speedUp) {
+        if (!(speedUp > 0)) {
+            throw new IllegalArgumentException("The speed-up factor must be positive");
+        }
+        this.mTrack = Collections.unmodifiableList(new ArrayList<>(track));
+        this.mSpeedUp = speedUp;
+    }
+
+    /**
+     * Creates a source replaying a GPX or CSV file, chosen by the file extension.
+     *
+     * @param file    The recorded track
+     * @param speedUp The factor by which the replay is faster than the recording
+     */
+    public static ReplayLocationSource fromFile(File file, double speedUp) throws IOException {
+        List<Location> track;
+        if (file.getName().toLowerCase(Locale.US).endsWith(".gpx")) {
+            InputStream in = new FileInputStream(file);
+            try {
+                track = readGpx(in);
+            } finally {
+                in.close();
+            }
+        } else {
+            Reader in = new FileReader(file);
+            try {
+                track = readCsv(in);
+            } finally {
+                in.close();
+            }
+        }
+        return new ReplayLocationSource(track, speedUp);
+    }
+
+    /**
+     * Reads the fixes of a CSV track.
+     *
+     * @param reader The CSV lines, {@code time,latitude,longitude[,altitude,speed,bearing,accuracy]}
+     * @return The fixes
+     */
+    public static List<Location> readCsv(Reader reader) throws IOException {
+        BufferedReader lines = new BufferedReader(reader);
+        List<Location> track = new ArrayList<>();
+        String line;
+        int number = 0;
+        boolean first = true;
+        while ((line = lines.readLine()) != null) {
+            number++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            boolean header = first;
+            first = false;
+            String[] columns = line.split(",", -1);
+            if (columns.length < 3) {
+                throw new IOException("Line " + number + " has less than 3 columns");
+            }
+            try {
+                Location location = new Location(PROVIDER);
+                location.setTime(Long.parseLong(columns[0].trim()));
+                location.setLatitude(Double.parseDouble(columns[1].trim()));
+                location.setLongitude(Double.parseDouble(columns[2].trim()));
+                if (hasColumn(columns, 3)) {
+                    location.setAltitude(Double.parseDouble(columns[3].trim()));
+                }
+                if (hasColumn(columns, 4)) {
+                    location.setSpeed(Float.parseFloat(columns[4].trim()));
+                }
+                if (hasColumn(columns, 5)) {
+                    location.setBearing(Float.parseFloat(columns[5].trim()));
+                }
+                if (hasColumn(columns, 6)) {
+                    location.setAccuracy(Float.parseFloat(columns[6].trim()));
+                }
+                track.add(location);
+            } catch (NumberFormatException e) {
+                // only the first line may be a header
+                if (!header) {
+                    throw new IOException("Line " + number + " is not a fix: " + line, e);
+                }
+            }
+        }
+        return track;
+    }
+
+    private static boolean hasColumn(String[] columns, int index) {
+        return columns.length > index && !columns[index].trim().isEmpty();
+    }
+
+    /**
+     * Reads the track points of a GPX track. The latitude and longitude attributes and the time are required, as the
+     * time sets the pace of the replay; the elevation is used when present.
+     *
+     * @param in The GPX document
+     * @return The fixes
+     * @throws IOException if the document is not valid, or a point has no time
+     */
+    public static List<Location> readGpx(InputStream in) throws IOException {
+        final List<Location> track = new ArrayList<>();
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        try {
+            SAXParserFactory.newInstance().newSAXParser().parse(in, new DefaultHandler() {
+                private Location mPoint;
+                private boolean mHasTime;
+                private final StringBuilder mText = new StringBuilder();
+
+                @Override
+                public void startElement(String uri, String localName, String qName, Attributes attributes) {
+                    String name = localName(qName);
+                    if (name.equals("trkpt") || name.equals("rtept") || name.equals("wpt")) {
+                        mPoint = new Location(PROVIDER);
+                        mPoint.setLatitude(Double.parseDouble(attributes.getValue("lat")));
+                        mPoint.setLongitude(Double.parseDouble(attributes.getValue("lon")));
+                        mHasTime = false;
+                    }
+                    mText.setLength(0);
+                }
+
+                @Override
+                public void characters(char[] ch, int start, int length) {
+                    mText.append(ch, start, length);
+                }
+
+                @Override
+                public void endElement(String uri, String localName, String qName) throws SAXException {
+                    if (mPoint == null) {
+                        return;
+                    }
+                    String name = localName(qName);
+                    String text = mText.toString().trim();
+                    if (name.equals("ele")) {
+                        mPoint.setAltitude(Double.parseDouble(text));
+                    } else if (name.equals("time")) {
+                        mPoint.setTime(parseTime(format, text));
+                        mHasTime = true;
+                    } else if (name.equals("trkpt") || name.equals("rtept") || name.equals("wpt")) {
+                        if (!mHasTime) {
+                            throw new SAXException("Point " + (track.size() + 1) + " has no time");
+                        }
+                        track.add(mPoint);
+                        mPoint = null;
+                    }
+                }
+            });
+        } catch (ParserConfigurationException | SAXException | NumberFormatException e) {
+            throw new IOException("Invalid GPX track", e);
+        }
+        return track;
+    }
+
+    private static String localName(String qName) {
+        int colon = qName.indexOf(':');
+        return colon >= 0 ? qName.substring(colon + 1) : qName;
+    }
+
+    /** Parses an ISO 8601 UTC time, with optional fractional seconds. */
+    private static long parseTime(SimpleDateFormat format, String text) throws SAXException {
+        String time = text.endsWith("Z") ? text.substring(0, text.length() - 1) : text;
+        long millis = 0;
+        int dot = time.indexOf('.');
+        if (dot >= 0) {
+            String fraction = (time.substring(dot + 1) + "00").substring(0, 3);
+            millis = Long.parseLong(fraction);
+            time = time.substring(0, dot);
+        }
+        try {
+            return format.parse(time).getTime() + millis;
+        } catch (ParseException e) {
+            throw new SAXException("Invalid time " + text, e);
+        }
+    }
+
+    /**
+     * Sets whether the track restarts from its first fix once the last one is delivered. Off by default.
+     */
+    public void setLooping(boolean looping) {
+        this.mLooping = looping;
+    }
+
+    /**
+     * Sets whether the replayed fixes are moved to the current time instead of keeping their recorded time, so that
+     * they are fresh for the freshness checks of the pipeline. On by default.
+     * <p>
+     * The fixes are moved by one offset, set when the replay starts, so they keep their recorded spacing and the
+     * speeds derived from them stay right. With a speed-up factor above 1, their times therefore run ahead of the
+     * clock.
+     */
+    public void setRebaseTime(boolean rebaseTime) {
+        this.mRebaseTime = rebaseTime;
+    }
+
+    /**
+     * Returns the recorded fixes.
+     */
+    public List<Location> getTrack() {
+        return mTrack;
+    }
+
+    @Override
+    public void setCallbacks(Callbacks callbacks) {
+        this.mCallbacks = callbacks;
+    }
+
+    /**
+     * Connects immediately, calling {@link Callbacks#onConnected()} on the calling thread.
+     */
+    @Override
+    public void connect() {
+        mConnected = true;
+        Callbacks callbacks = mCallbacks;
+        if (callbacks != null) {
+            callbacks.onConnected();
+        }
+    }
+
+    @Override
+    public void disconnect() {
+        mConnected = false;
+        removeLocationUpdates();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return mConnected;
+    }
+
+    @Override
+    public boolean isConnecting() {
+        return false;
+    }
+
+    /**
+     * Starts a replay thread delivering the next fixes of the track. The number of updates of the profile is honoured;
+     * its intervals are not, the recording sets the pace.
+     */
+    @Override
+    public synchronized void requestLocationUpdates(LocationRequestProfile profile) {
+        if (!mConnected) {
+            Callbacks callbacks = mCallbacks;
+            if (callbacks != null) {
+                callbacks.onConnectionFailed(new ConnectionResult(ConnectionResult.API_UNAVAILABLE, null));
+            }
+            return;
+        }
+        removeLocationUpdates();
+        final int numUpdates = profile.getNumUpdates();
+        mReplayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                replay(numUpdates);
+            }
+        }, "ReplayLocationSource");
+        mReplayThread.setDaemon(true);
+        mReplayThread.start();
+    }
+
+    @Override
+    public synchronized void removeLocationUpdates() {
+        if (mReplayThread != null) {
+            mReplayThread.interrupt();
+            mReplayThread = null;
+        }
+    }
+
+    @Override
+    public Location getLastLocation() {
+        Location location = mLastLocation;
+        return location != null ? new Location(location) : null;
+    }
+
+    /**
+     * Returns the delays from the time of the fixes in the replay to their delivery, in microseconds. They show whether
+     * the callbacks keep up with the speed-up factor. Only the paced fixes are counted: neither the first fix of a pass
+     * nor the fixes of a replay at {@link Double#POSITIVE_INFINITY} speed have a time in the replay.
+     */
+    public LocationHistogram.Snapshot getDeliveryDelay() {
+        return mDeliveryDelay.snapshot();
+    }
+
+    /**
+     * Returns the times the callbacks took to consume the fixes, from the call of
+     * {@link Callbacks#onLocationChanged(Location)} to its return, in microseconds.
+     */
+    public LocationHistogram.Snapshot getDispatchTime() {
+        return mDispatchTime.snapshot();
+    }
+
+    /**
+     * Forgets the measured delays and dispatch times, e.g. after a warm-up.
+     */
+    public void resetMeasurements() {
+        mDeliveryDelay.reset();
+        mDispatchTime.reset();
+    }
+
+    /** Delivers up to numUpdates fixes, keeping the recorded time between them divided by the speed-up factor. */
+    private void replay(int numUpdates) {
+        Thread thread = Thread.currentThread();
+        long previousTime = -1;
+        long nextDeadline = System.nanoTime();
+        // the recorded time, the wall clock time and the elapsed realtime the rebased times count from
+        long recordedAnchor = 0;
+        long timeAnchor = 0;
+        long elapsedAnchor = 0;
+        long lastTime = Long.MIN_VALUE;
+        for (int delivered = 0; delivered < numUpdates; delivered++) {
+            Location recorded;
+            synchronized (this) {
+                if (mReplayThread != thread) {
+                    return;
+                }
+                if (mPosition >= mTrack.size()) {
+                    if (!mLooping || mTrack.isEmpty()) {
+                        return;
+                    }
+                    mPosition = 0;
+                    previousTime = -1;
+                }
+                recorded = mTrack.get(mPosition++);
+            }
+            boolean paced = previousTime >= 0 && !Double.isInfinite(mSpeedUp);
+            if (paced) {
+                long gap = Math.max(0, recorded.getTime() - previousTime);
+                // the deadlines are absolute, so the time spent in the callbacks does not slow down the replay
+                nextDeadline += (long) (gap * 1000000L / mSpeedUp);
+                long wait = nextDeadline - System.nanoTime();
+                if (wait > 0) {
+                    try {
+                        Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+            boolean newPass = previousTime < 0;
+            previousTime = recorded.getTime();
+
+            Location location = new Location(recorded);
+            if (mRebaseTime) {
+                if (newPass) {
+                    // a new pass of the track; its times follow the ones of the previous pass
+                    long now = System.currentTimeMillis();
+                    recordedAnchor = recorded.getTime();
+                    timeAnchor = Math.max(now, lastTime + 1);
+                    elapsedAnchor = SystemClock.elapsedRealtimeNanos() + (timeAnchor - now) * 1000000L;
+                }
+                long offset = recorded.getTime() - recordedAnchor;
+                lastTime = timeAnchor + offset;
+                location.setTime(lastTime);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1) {
+                    location.setElapsedRealtimeNanos(elapsedAnchor + offset * 1000000L);
+                }
+            }
+            mLastLocation = location;
+            Callbacks callbacks = mCallbacks;
+            if (callbacks != null && !thread.isInterrupted()) {
+                long dispatchStart = System.nanoTime();
+                if (paced) {
+                    mDeliveryDelay.record((dispatchStart - nextDeadline) / 1000L);
+                }
+                callbacks.onLocationChanged(location);
+                mDispatchTime.record((System.nanoTime() - dispatchStart) / 1000L);
+            }
+        }
+    }
+}
@@ -0,0 +1,593 @@
+package com.vishnu.app;
+
+import android.util.Base64;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.math.BigDecimal;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A compact binary {@link PreferenceCodec}. The values are written through the same Gson type adapters as the
+ * {@link GsonPreferenceCodec}, but into a tagged binary stream instead of JSON text: integers are zig-zag varints,
+ * strings are length prefixed UTF-8 and repeated field names are written once and referenced by index afterwards.
+ * The bytes are Base64 wrapped only by {@link #encode(Object, Type)}, as the preferences can only store strings.
+ * <p>
+ * Maps are not supported, as Gson reads map keys through internals of {@link JsonReader} which a binary stream
+ * cannot provide. Use the {@link GsonPreferenceCodec} for keys holding maps.
+ */
+public class BinaryPreferenceCodec implements PreferenceCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The first byte of every encoded value, to allow the format to change later. */
+    private static final int VERSION = 1;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_STRING = 5;
+    private static final int TAG_NUMBER_STRING = 6;
+    private static final int TAG_BEGIN_ARRAY = 7;
+    private static final int TAG_END_ARRAY = 8;
+    private static final int TAG_BEGIN_OBJECT = 9;
+    private static final int TAG_END_OBJECT = 10;
+    private static final int TAG_NAME = 11;
+    private static final int TAG_NAME_REF = 12;
+
+    @Override
+    public String encode(Object value, Type type) {
+        return Base64.encodeToString(encodeBytes(value, type), Base64.NO_WRAP);
+    }
+
+    @Override
+    public Object decode(String stored, Type type) {
+        if (stored == null || stored.isEmpty()) {
+            return null;
+        }
+        return decodeBytes(Base64.decode(stored, Base64.NO_WRAP), type);
+    }
+
+    /**
+     * Encodes the value into the binary format, without the Base64 wrapping.
+     *
+     * @param value The value to encode, may be null
+     * @param type  The type of the value
+     * @return The encoded bytes
+     */
+    public byte[] encodeBytes(Object value, Type type) {
+        BinaryWriter writer = new BinaryWriter();
+        if (value == null) {
+            writer.nullValue();
+        } else {
+            PreferenceManager.gson().toJson(value, type, writer);
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Decodes bytes written by {@link #encodeBytes(Object, Type)}.
+     *
+     * @param bytes The encoded bytes
+     * @param type  The type to decode the bytes into
+     * @return The decoded value, or null if the bytes are empty
+     */
+    public Object decodeBytes(byte[] bytes, Type type) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (bytes[0] != VERSION) {
+            throw new JsonSyntaxException("Unknown binary preference format " + bytes[0]);
+        }
+        return PreferenceManager.gson().fromJson(new BinaryReader(bytes, 1), type);
+    }
+
+    /**
+     * A {@link Writer} or {@link Reader} for the base classes of {@link BinaryWriter} and {@link BinaryReader}. The
+     * subclasses override every method which would touch it, so reaching it means Gson used an unsupported feature.
+     */
+    private static final class UnsupportedStream extends Reader {
+        static final Writer WRITER = new Writer() {
+            @Override
+            public void write(char[] buffer, int offset, int count) {
+                throw unsupported();
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        @Override
+        public int read(char[] buffer, int offset, int count) {
+            throw unsupported();
+        }
+
+        @Override
+        public void close() {
+        }
+
+        static UnsupportedOperationException unsupported() {
+            return new UnsupportedOperationException("BinaryPreferenceCodec does not support maps or raw JSON values");
+        }
+    }
+
+    /** Writes the Gson token stream as tagged binary. */
+    private static final class BinaryWriter extends JsonWriter {
+        private byte[] mBuffer = new byte[256];
+        private int mCount = 0;
+        /** The index of every field name written so far */
+        private final Map<String, Integer> mNames = new HashMap<>();
+        /** The name waiting for its value, dropped if the value is a null which should not be serialized */
+        private String mDeferredName;
+
+        BinaryWriter() {
+            super(UnsupportedStream.WRITER);
+            writeByte(VERSION);
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(mBuffer, mCount);
+        }
+
+        @Override
+        public JsonWriter beginArray() {
+            return writeTag(TAG_BEGIN_ARRAY);
+        }
+
+        @Override
+        public JsonWriter endArray() {
+            return writeTag(TAG_END_ARRAY);
+        }
+
+        @Override
+        public JsonWriter beginObject() {
+            return writeTag(TAG_BEGIN_OBJECT);
+        }
+
+        @Override
+        public JsonWriter endObject() {
+            mDeferredName = null;
+            return writeTag(TAG_END_OBJECT);
+        }
+
+        @Override
+        public JsonWriter name(String name) {
+            if (name == null) {
+                throw new NullPointerException("name == null");
+            }
+            mDeferredName = name;
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(String value) {
+            if (value == null) {
+                return nullValue();
+            }
+            writeTag(TAG_STRING);
+            writeString(value);
+            return this;
+        }
+
+        // not annotated with @Override, as older Gson versions do not declare this method.
+        public JsonWriter jsonValue(String value) {
+            throw UnsupportedStream.unsupported();
+        }
+
+        @Override
+        public JsonWriter nullValue() {
+            if (mDeferredName != null && !getSerializeNulls()) {
+                mDeferredName = null;
+                return this;
+            }
+            return writeTag(TAG_NULL);
+        }
+
+        @Override
+        public JsonWriter value(boolean value) {
+            return writeTag(value ? TAG_TRUE : TAG_FALSE);
+        }
+
+        // not annotated with @Override, as older Gson versions do not declare this method.
+        public JsonWriter value(Boolean value) {
+            if (value == null) {
+                return nullValue();
+            }
+            return value(value.booleanValue());
+        }
+
+        // not annotated with @Override, as older Gson versions do not declare this method.
+        public JsonWriter value(float value) {
+            return value((double) value);
+        }
+
+        @Override
+        public JsonWriter value(double value) {
+            long longValue = (long) value;
+            if (longValue == value && (longValue != 0 || 1 / value > 0)) {
+                return value(longValue);
+            }
+            writeTag(TAG_DOUBLE);
+            long bits = Double.doubleToLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (bits >>> shift));
+            }
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(long value) {
+            writeTag(TAG_LONG);
+            writeVarint((value << 1) ^ (value >> 63));
+            return this;
+        }
+
+        @Override
+        public JsonWriter value(Number value) {
+            if (value == null) {
+                return nullValue();
+            }
+            if (value instanceof Integer || value instanceof Long || value instanceof Short
+                    || value instanceof Byte || value instanceof AtomicInteger || value instanceof AtomicLong) {
+                return value(value.longValue());
+            }
+            if (value instanceof Double || value instanceof Float) {
+                return value(value.doubleValue());
+            }
+            // BigInteger, BigDecimal and Gson's lazily parsed numbers keep their exact text.
+            writeTag(TAG_NUMBER_STRING);
+            writeString(value.toString());
+            return this;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        private JsonWriter writeTag(int tag) {
+            if (mDeferredName != null) {
+                String name = mDeferredName;
+                mDeferredName = null;
+                Integer index = mNames.get(name);
+                if (index != null) {
+                    writeByte(TAG_NAME_REF);
+                    writeVarint(index);
+                } else {
+                    mNames.put(name, mNames.size());
+                    writeByte(TAG_NAME);
+                    writeString(name);
+                }
+            }
+            writeByte(tag);
+            return this;
+        }
+
+        private void writeString(String value) {
+            byte[] bytes = value.getBytes(UTF_8);
+            writeVarint(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, mBuffer, mCount, bytes.length);
+            mCount += bytes.length;
+        }
+
+        private void writeVarint(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                mBuffer[mCount++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            mBuffer[mCount++] = (byte) value;
+        }
+
+        private void writeByte(int value) {
+            ensureCapacity(1);
+            mBuffer[mCount++] = (byte) value;
+        }
+
+        private void ensureCapacity(int extra) {
+            if (mCount + extra > mBuffer.length) {
+                mBuffer = Arrays.copyOf(mBuffer, Math.max(mBuffer.length * 2, mCount + extra));
+            }
+        }
+    }
+
+    /** Reads the tagged binary written by {@link BinaryWriter} back as a Gson token stream. */
+    private static final class BinaryReader extends JsonReader {
+        private final byte[] mBytes;
+        private int mPosition;
+        /** The field names read so far, in the order they were first written */
+        private final List<String> mNames = new ArrayList<>();
+
+        BinaryReader(byte[] bytes, int offset) {
+            super(new UnsupportedStream());
+            this.mBytes = bytes;
+            this.mPosition = offset;
+        }
+
+        @Override
+        public JsonToken peek() throws IOException {
+            if (mPosition >= mBytes.length) {
+                return JsonToken.END_DOCUMENT;
+            }
+            switch (mBytes[mPosition]) {
+                case TAG_NULL:
+                    return JsonToken.NULL;
+                case TAG_FALSE:
+                case TAG_TRUE:
+                    return JsonToken.BOOLEAN;
+                case TAG_LONG:
+                case TAG_DOUBLE:
+                case TAG_NUMBER_STRING:
+                    return JsonToken.NUMBER;
+                case TAG_STRING:
+                    return JsonToken.STRING;
+                case TAG_BEGIN_ARRAY:
+                    return JsonToken.BEGIN_ARRAY;
+                case TAG_END_ARRAY:
+                    return JsonToken.END_ARRAY;
+                case TAG_BEGIN_OBJECT:
+                    return JsonToken.BEGIN_OBJECT;
+                case TAG_END_OBJECT:
+                    return JsonToken.END_OBJECT;
+                case TAG_NAME:
+                case TAG_NAME_REF:
+                    return JsonToken.NAME;
+                default:
+                    throw new JsonSyntaxException("Corrupt binary preference at " + mPosition);
+            }
+        }
+
+        @Override
+        public void beginArray() throws IOException {
+            expect(TAG_BEGIN_ARRAY, JsonToken.BEGIN_ARRAY);
+        }
+
+        @Override
+        public void endArray() throws IOException {
+            expect(TAG_END_ARRAY, JsonToken.END_ARRAY);
+        }
+
+        @Override
+        public void beginObject() throws IOException {
+            expect(TAG_BEGIN_OBJECT, JsonToken.BEGIN_OBJECT);
+        }
+
+        @Override
+        public void endObject() throws IOException {
+            expect(TAG_END_OBJECT, JsonToken.END_OBJECT);
+        }
+
+        @Override
+        public boolean hasNext() throws IOException {
+            JsonToken token = peek();
+            return token != JsonToken.END_ARRAY && token != JsonToken.END_OBJECT && token != JsonToken.END_DOCUMENT;
+        }
+
+        @Override
+        public String nextName() throws IOException {
+            int tag = peekTag();
+            if (tag == TAG_NAME) {
+                mPosition++;
+                String name = readString();
+                mNames.add(name);
+                return name;
+            } else if (tag == TAG_NAME_REF) {
+                mPosition++;
+                long index = readVarint();
+                if (index < 0 || index >= mNames.size()) {
+                    throw new JsonIOException("Corrupt binary preference at " + mPosition + ": name " + index
+                            + " not defined");
+                }
+                return mNames.get((int) index);
+            }
+            throw unexpected(JsonToken.NAME);
+        }
+
+        @Override
+        public String nextString() throws IOException {
+            switch (peekTag()) {
+                case TAG_STRING:
+                case TAG_NUMBER_STRING:
+                    mPosition++;
+                    return readString();
+                case TAG_LONG:
+                    return Long.toString(nextLong());
+                case TAG_DOUBLE:
+                    return Double.toString(nextDouble());
+                default:
+                    throw unexpected(JsonToken.STRING);
+            }
+        }
+
+        @Override
+        public boolean nextBoolean() throws IOException {
+            int tag = peekTag();
+            if (tag == TAG_TRUE || tag == TAG_FALSE) {
+                mPosition++;
+                return tag == TAG_TRUE;
+            }
+            throw unexpected(JsonToken.BOOLEAN);
+        }
+
+        @Override
+        public void nextNull() throws IOException {
+            expect(TAG_NULL, JsonToken.NULL);
+        }
+
+        @Override
+        public double nextDouble() throws IOException {
+            switch (peekTag()) {
+                case TAG_LONG:
+                    return nextLong();
+                case TAG_DOUBLE:
+                    mPosition++;
+                    require(8);
+                    long bits = 0;
+                    for (int i = 0; i < 8; i++) {
+                        bits = (bits << 8) | (mBytes[mPosition++] & 0xFF);
+                    }
+                    return Double.longBitsToDouble(bits);
+                case TAG_STRING:
+                case TAG_NUMBER_STRING:
+                    mPosition++;
+                    return Double.parseDouble(readString());
+                default:
+                    throw unexpected(JsonToken.NUMBER);
+            }
+        }
+
+        @Override
+        public long nextLong() throws IOException {
+            switch (peekTag()) {
+                case TAG_LONG:
+                    mPosition++;
+                    long zigZag = readVarint();
+                    return (zigZag >>> 1) ^ -(zigZag & 1);
+                case TAG_DOUBLE:
+                    double value = nextDouble();
+                    if ((long) value != value) {
+                        throw new NumberFormatException("Expected a long but was " + value);
+                    }
+                    return (long) value;
+                case TAG_STRING:
+                case TAG_NUMBER_STRING:
+                    mPosition++;
+                    return new BigDecimal(readString()).longValueExact();
+                default:
+                    throw unexpected(JsonToken.NUMBER);
+            }
+        }
+
+        @Override
+        public int nextInt() throws IOException {
+            long value = nextLong();
+            if ((int) value != value) {
+                throw new NumberFormatException("Expected an int but was " + value);
+            }
+            return (int) value;
+        }
+
+        @Override
+        public void skipValue() throws IOException {
+            int depth = 0;
+            do {
+                int tag = peekTag();
+                switch (tag) {
+                    case TAG_BEGIN_ARRAY:
+                    case TAG_BEGIN_OBJECT:
+                        mPosition++;
+                        depth++;
+                        break;
+                    case TAG_END_ARRAY:
+                    case TAG_END_OBJECT:
+                        mPosition++;
+                        depth--;
+                        break;
+                    case TAG_NAME:
+                    case TAG_NAME_REF:
+                        nextName();
+                        continue;
+                    case TAG_STRING:
+                    case TAG_NUMBER_STRING:
+                        nextString();
+                        break;
+                    case TAG_LONG:
+                    case TAG_DOUBLE:
+                        nextDouble();
+                        break;
+                    default:
+                        mPosition++;
+                        break;
+                }
+            } while (depth > 0);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String getPath() {
+            return "$";
+        }
+
+        @Override
+        public String toString() {
+            return "BinaryReader at " + mPosition;
+        }
+
+        private int peekTag() throws IOException {
+            if (mPosition >= mBytes.length) {
+                throw new JsonSyntaxException("Unexpected end of binary preference");
+            }
+            return mBytes[mPosition];
+        }
+
+        private void expect(int tag, JsonToken token) throws IOException {
+            if (peekTag() != tag) {
+                throw unexpected(token);
+            }
+            mPosition++;
+        }
+
+        private IllegalStateException unexpected(JsonToken expected) throws IOException {
+            return new IllegalStateException("Expected " + expected + " but was " + peek() + " at " + mPosition);
+        }
+
+        private String readString() {
+            long length = readVarint();
+            if (length < 0 || length > mBytes.length - mPosition) {
+                throw new JsonIOException("Corrupt binary preference at " + mPosition);
+            }
+            String value = new String(mBytes, mPosition, (int) length, UTF_8);
+            mPosition += (int) length;
+            return value;
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                require(1);
+                byte b = mBytes[mPosition++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new JsonIOException("Corrupt binary preference at " + mPosition);
+        }
+
+        /** Throws if fewer than the count of bytes are left. */
+        private void require(int count) {
+            if (count > mBytes.length - mPosition) {
+                throw new JsonIOException("Unexpected end of binary preference at " + mPosition);
+            }
+        }
+    }
+}
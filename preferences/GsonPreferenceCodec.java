@@ -0,0 +1,22 @@
+package com.vishnu.app;
+
+import java.lang.reflect.Type;
+
+/**
+ * The default {@link PreferenceCodec}, which stores the values as JSON text.
+ */
+public class GsonPreferenceCodec implements PreferenceCodec {
+
+    @Override
+    public String encode(Object value, Type type) {
+        if (value == null) {
+            return PreferenceManager.gson().toJson(null);
+        }
+        return PreferenceManager.gson().toJson(value, type);
+    }
+
+    @Override
+    public Object decode(String stored, Type type) {
+        return PreferenceManager.gson().fromJson(stored, type);
+    }
+}
@@ -0,0 +1,635 @@
+package com.vishnu.app;
+
+import android.content.SharedPreferences;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * A {@link SharedPreferences} stored in a memory-mapped, append-only log instead of an XML file. Every write appends a
+ * small CRC-checked record to the mapped file, so saving a value costs a memory copy instead of rewriting the whole
+ * file. The log is compacted once it holds mostly overwritten records. Records are in the page cache as soon as they
+ * are appended, so they survive the process being killed; {@link Editor#commit()} also forces them to the disk.
+ * <p>
+ * Use it with {@link PreferenceManager#setStorage(SharedPreferences)}, after copying the existing values once with
+ * {@link #migrateFrom(SharedPreferences, boolean)}. Only the {@link SharedPreferences} interface is used from Android,
+ * so this class also runs on a plain JVM. Unlike the Android implementation, change listeners are called on the
+ * thread which applied the change.
+ */
+public class MappedPreferences implements SharedPreferences {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The first int of the file */
+    private static final int MAGIC = 0x4D4B564C;
+    private static final int VERSION = 1;
+    /** Magic, version and flags */
+    private static final int HEADER_SIZE = 12;
+    /** The offset of the flags in the header */
+    private static final int FLAGS_OFFSET = 8;
+    /** Set in the flags once {@link #migrateFrom(SharedPreferences, boolean)} has run */
+    private static final int FLAG_MIGRATED = 1;
+    /** The length and the CRC of a record */
+    private static final int RECORD_HEADER_SIZE = 8;
+    /** The initial size of the mapping, doubled whenever a record does not fit */
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+    /** The log is not compacted below this size */
+    private static final int MIN_COMPACT_SIZE = 64 * 1024;
+
+    private static final byte OP_PUT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_CLEAR = 3;
+
+    private static final byte TYPE_STRING = 1;
+    private static final byte TYPE_INT = 2;
+    private static final byte TYPE_LONG = 3;
+    private static final byte TYPE_FLOAT = 4;
+    private static final byte TYPE_BOOLEAN = 5;
+    private static final byte TYPE_STRING_SET = 6;
+
+    /** Marks a removed key in the pending changes of an editor */
+    private static final Object REMOVED = new Object();
+
+    /** The log file */
+    private final File mFile;
+    /** The values, read without locking */
+    private final Map<String, Object> mValues = new ConcurrentHashMap<>();
+    /** The change listeners. Held weakly, like the Android implementation does. */
+    private final Map<OnSharedPreferenceChangeListener, Object> mListeners = new WeakHashMap<>();
+    /** Guards the writes to the log */
+    private final Object mWriteLock = new Object();
+
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+    private MappedByteBuffer mBuffer;
+    /** The offset the next record is appended at */
+    private int mWritePosition;
+    /** The size the log would have if it only held the current values */
+    private int mLiveSize;
+    /** The size of the record currently holding the value of each key */
+    private final Map<String, Integer> mRecordSizes = new HashMap<>();
+
+    /**
+     * Opens the log, creating it if needed. Records after the first corrupt or incomplete record are dropped.
+     *
+     * @param file The log file
+     * @throws IOException if the file cannot be opened or mapped
+     */
+    public MappedPreferences(File file) throws IOException {
+        this.mFile = file;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        synchronized (mWriteLock) {
+            open();
+            replay();
+        }
+    }
+
+    /**
+     * Copies all the values of the source into this log, unless they were already copied into it before. The
+     * preferences written through this log afterwards are not copied again.
+     *
+     * @param source      The preferences to copy, usually the default SharedPreferences of the app
+     * @param clearSource Whether to clear the source once its values are copied
+     * @return true if the values were copied by this call
+     */
+    public boolean migrateFrom(SharedPreferences source, boolean clearSource) {
+        synchronized (mWriteLock) {
+            if ((mBuffer.getInt(FLAGS_OFFSET) & FLAG_MIGRATED) != 0) {
+                return false;
+            }
+            EditorImpl editor = new EditorImpl();
+            for (Map.Entry<String, ?> entry : source.getAll().entrySet()) {
+                editor.put(entry.getKey(), entry.getValue());
+            }
+            editor.commit();
+            mBuffer.putInt(FLAGS_OFFSET, mBuffer.getInt(FLAGS_OFFSET) | FLAG_MIGRATED);
+            mBuffer.force();
+        }
+        if (clearSource) {
+            source.edit().clear().commit();
+        }
+        return true;
+    }
+
+    /**
+     * Closes the log. The instance must not be used afterwards.
+     */
+    public void close() {
+        synchronized (mWriteLock) {
+            try {
+                mBuffer.force();
+                mChannel.close();
+                mRandomAccessFile.close();
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to close " + mFile, e);
+            }
+        }
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        Map<String, Object> all = new HashMap<>(mValues);
+        for (Map.Entry<String, Object> entry : all.entrySet()) {
+            if (entry.getValue() instanceof Set) {
+                entry.setValue(new HashSet<>((Set<?>) entry.getValue()));
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public String getString(String key, String defValue) {
+        String value = (String) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValues) {
+        Set<String> values = (Set<String>) mValues.get(key);
+        return values != null ? new HashSet<>(values) : defValues;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Integer value = (Integer) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Long value = (Long) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Float value = (Float) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Boolean value = (Boolean) mValues.get(key);
+        return value != null ? value : defValue;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return mValues.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new EditorImpl();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (mListeners) {
+            mListeners.put(listener, Boolean.TRUE);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /** Maps the file, writing a new header if it is empty or not a log. */
+    private void open() throws IOException {
+        mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+        mChannel = mRandomAccessFile.getChannel();
+        long length = mChannel.size();
+        map((int) Math.max(length, INITIAL_CAPACITY));
+        if (length < HEADER_SIZE || mBuffer.getInt(0) != MAGIC || mBuffer.getInt(4) != VERSION) {
+            reset(mBuffer, 0);
+        }
+    }
+
+    /** Maps the first capacity bytes of the file, growing the file if needed. */
+    private void map(int capacity) throws IOException {
+        mBuffer = mChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    /** Writes an empty log with the flags into the buffer. */
+    private static void reset(ByteBuffer buffer, int flags) {
+        for (int i = 0; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(FLAGS_OFFSET, flags);
+    }
+
+    /** Reads the records of the log into {@link #mValues}, stopping at the first corrupt or incomplete record. */
+    private void replay() {
+        int position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= mBuffer.capacity()) {
+            int length = mBuffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > mBuffer.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            ByteBuffer source = mBuffer.duplicate();
+            source.position(position + RECORD_HEADER_SIZE);
+            source.get(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != mBuffer.getInt(position + 4)) {
+                break;
+            }
+            applyRecord(ByteBuffer.wrap(payload), RECORD_HEADER_SIZE + length);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        // drop whatever follows the last valid record, so new records are not read after garbage later
+        for (int i = position; i < Math.min(mBuffer.capacity(), position + RECORD_HEADER_SIZE); i++) {
+            mBuffer.put(i, (byte) 0);
+        }
+        mWritePosition = position;
+    }
+
+    /** Applies a record read from the log to {@link #mValues}. */
+    private void applyRecord(ByteBuffer payload, int recordSize) {
+        byte op = payload.get();
+        if (op == OP_CLEAR) {
+            mValues.clear();
+            mRecordSizes.clear();
+            mLiveSize = 0;
+            return;
+        }
+        String key = readString(payload);
+        if (op == OP_PUT) {
+            mValues.put(key, readValue(payload));
+            updateLiveSize(key, recordSize);
+        } else {
+            mValues.remove(key);
+            updateLiveSize(key, 0);
+        }
+    }
+
+    /** Tracks the size of the records holding the current values, to know when to compact. */
+    private void updateLiveSize(String key, int recordSize) {
+        Integer previous = recordSize > 0 ? mRecordSizes.put(key, recordSize) : mRecordSizes.remove(key);
+        mLiveSize += recordSize - (previous != null ? previous : 0);
+    }
+
+    /**
+     * Appends the changes of an editor to the log, and applies them to the values once all their records are written.
+     * If a record cannot be written, the records already appended for the editor are dropped and the values are left
+     * as they were.
+     *
+     * @param cleared Whether the editor cleared the values first
+     * @param changes The changed values by key, {@link #REMOVED} for removed keys
+     * @param force   Whether to force the records to the disk
+     * @return true if the records were written
+     */
+    private boolean write(boolean cleared, Map<String, Object> changes, boolean force) {
+        List<String> changedKeys = new ArrayList<>(changes.size());
+        boolean written = true;
+        synchronized (mWriteLock) {
+            List<Object> changedValues = new ArrayList<>(changes.size());
+            List<Integer> recordSizes = new ArrayList<>(changes.size());
+            int start = mWritePosition;
+            try {
+                if (cleared) {
+                    appendRecord(ByteBuffer.wrap(new byte[] {OP_CLEAR}));
+                }
+                for (Map.Entry<String, Object> entry : changes.entrySet()) {
+                    String key = entry.getKey();
+                    Object value = entry.getValue();
+                    Object current = cleared ? null : mValues.get(key);
+                    ByteBuffer record;
+                    if (value == REMOVED) {
+                        if (current == null) {
+                            continue;
+                        }
+                        record = encodeRecord(OP_REMOVE, key, null);
+                    } else {
+                        if (value.equals(current)) {
+                            continue;
+                        }
+                        record = encodeRecord(OP_PUT, key, value);
+                    }
+                    appendRecord(record);
+                    changedKeys.add(key);
+                    changedValues.add(value);
+                    recordSizes.add(RECORD_HEADER_SIZE + record.limit());
+                }
+            } catch (IOException e) {
+                // a log ending before the first record of the editor is replayed without any of them; the records
+                // are zeroed, so a later record of the same length cannot line up with them again
+                for (int i = start; i < mWritePosition; i++) {
+                    mBuffer.put(i, (byte) 0);
+                }
+                mWritePosition = start;
+                return false;
+            }
+
+            if (cleared) {
+                mValues.clear();
+                mRecordSizes.clear();
+                mLiveSize = 0;
+            }
+            for (int i = 0; i < changedKeys.size(); i++) {
+                String key = changedKeys.get(i);
+                Object value = changedValues.get(i);
+                if (value == REMOVED) {
+                    mValues.remove(key);
+                    updateLiveSize(key, 0);
+                } else {
+                    mValues.put(key, value);
+                    updateLiveSize(key, recordSizes.get(i));
+                }
+            }
+            try {
+                if (mWritePosition > MIN_COMPACT_SIZE && mWritePosition > 2 * (HEADER_SIZE + mLiveSize)) {
+                    compact();
+                }
+                if (force) {
+                    mBuffer.force();
+                }
+            } catch (IOException e) {
+                // the records are in the log already, only their compaction or their flush to the disk failed
+                written = false;
+            }
+        }
+        notifyListeners(cleared, changedKeys);
+        return written;
+    }
+
+    /** Appends a CRC-checked record, growing the mapping if it does not fit. */
+    private void appendRecord(ByteBuffer payload) throws IOException {
+        int length = payload.limit();
+        int required = mWritePosition + RECORD_HEADER_SIZE + length + RECORD_HEADER_SIZE;
+        if (required > mBuffer.capacity()) {
+            int capacity = mBuffer.capacity();
+            while (capacity < required) {
+                capacity *= 2;
+            }
+            mBuffer.force();
+            map(capacity);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, length);
+        // the payload and the crc are written before the length, so a half written record is never valid. The length
+        // after the record is zeroed first, so the log ends there even if stale records follow.
+        ByteBuffer target = mBuffer.duplicate();
+        target.position(mWritePosition + RECORD_HEADER_SIZE);
+        target.put(payload.array(), 0, length);
+        mBuffer.putInt(mWritePosition + 4, (int) crc.getValue());
+        int next = mWritePosition + RECORD_HEADER_SIZE + length;
+        mBuffer.putInt(next, 0);
+        mBuffer.putInt(mWritePosition, length);
+        mWritePosition = next;
+    }
+
+    /**
+     * Rewrites the log with one record for each current value. The new log is written to a temporary file which then
+     * replaces the log, so a crash during compaction leaves the old log intact. If the compaction fails, this instance
+     * keeps appending to the old log.
+     */
+    private void compact() throws IOException {
+        File temp = new File(mFile.getPath() + ".compact");
+        Map<String, Integer> recordSizes = new HashMap<>();
+        int liveSize = 0;
+        RandomAccessFile tempFile = new RandomAccessFile(temp, "rw");
+        try {
+            tempFile.setLength(0);
+            FileChannel tempChannel = tempFile.getChannel();
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < 2 * (HEADER_SIZE + mLiveSize)) {
+                capacity *= 2;
+            }
+            MappedByteBuffer buffer = tempChannel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            reset(buffer, mBuffer.getInt(FLAGS_OFFSET));
+            int position = HEADER_SIZE;
+            CRC32 crc = new CRC32();
+            for (Map.Entry<String, Object> entry : mValues.entrySet()) {
+                ByteBuffer payload = encodeRecord(OP_PUT, entry.getKey(), entry.getValue());
+                int length = payload.limit();
+                crc.reset();
+                crc.update(payload.array(), 0, length);
+                buffer.putInt(position, length);
+                buffer.putInt(position + 4, (int) crc.getValue());
+                ByteBuffer target = buffer.duplicate();
+                target.position(position + RECORD_HEADER_SIZE);
+                target.put(payload.array(), 0, length);
+                position += RECORD_HEADER_SIZE + length;
+                recordSizes.put(entry.getKey(), RECORD_HEADER_SIZE + length);
+                liveSize += RECORD_HEADER_SIZE + length;
+            }
+            buffer.force();
+        } catch (IOException e) {
+            tempFile.close();
+            temp.delete();
+            throw e;
+        }
+        tempFile.close();
+        mBuffer.force();
+        mChannel.close();
+        mRandomAccessFile.close();
+        boolean replaced = temp.renameTo(mFile);
+        // maps the compacted log, or the old one again
+        open();
+        if (!replaced) {
+            temp.delete();
+            throw new IOException("Unable to replace " + mFile);
+        }
+        mRecordSizes.clear();
+        mRecordSizes.putAll(recordSizes);
+        mLiveSize = liveSize;
+        mWritePosition = HEADER_SIZE + liveSize;
+    }
+
+    /** Encodes the payload of a put or remove record. */
+    private static ByteBuffer encodeRecord(byte op, String key, Object value) {
+        byte[] keyBytes = key.getBytes(UTF_8);
+        List<byte[]> strings = new ArrayList<>();
+        int size = 1 + 4 + keyBytes.length;
+        if (value != null) {
+            size += 1;
+            if (value instanceof String) {
+                byte[] bytes = ((String) value).getBytes(UTF_8);
+                strings.add(bytes);
+                size += 4 + bytes.length;
+            } else if (value instanceof Set) {
+                size += 4;
+                for (Object element : (Set<?>) value) {
+                    byte[] bytes = ((String) element).getBytes(UTF_8);
+                    strings.add(bytes);
+                    size += 4 + bytes.length;
+                }
+            } else {
+                size += 8;
+            }
+        }
+        ByteBuffer payload = ByteBuffer.allocate(size);
+        payload.put(op);
+        payload.putInt(keyBytes.length).put(keyBytes);
+        if (value instanceof String) {
+            payload.put(TYPE_STRING);
+            payload.putInt(strings.get(0).length).put(strings.get(0));
+        } else if (value instanceof Set) {
+            payload.put(TYPE_STRING_SET);
+            payload.putInt(strings.size());
+            for (byte[] bytes : strings) {
+                payload.putInt(bytes.length).put(bytes);
+            }
+        } else if (value instanceof Integer) {
+            payload.put(TYPE_INT).putInt((Integer) value);
+        } else if (value instanceof Long) {
+            payload.put(TYPE_LONG).putLong((Long) value);
+        } else if (value instanceof Float) {
+            payload.put(TYPE_FLOAT).putFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            payload.put(TYPE_BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+        }
+        payload.flip();
+        return payload;
+    }
+
+    private static Object readValue(ByteBuffer payload) {
+        byte type = payload.get();
+        switch (type) {
+            case TYPE_STRING:
+                return readString(payload);
+            case TYPE_INT:
+                return payload.getInt();
+            case TYPE_LONG:
+                return payload.getLong();
+            case TYPE_FLOAT:
+                return payload.getFloat();
+            case TYPE_BOOLEAN:
+                return payload.get() != 0;
+            case TYPE_STRING_SET:
+                int count = payload.getInt();
+                Set<String> values = new HashSet<>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(readString(payload));
+                }
+                return Collections.unmodifiableSet(values);
+            default:
+                throw new IllegalStateException("Unknown value type " + type);
+        }
+    }
+
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        String value = new String(payload.array(), payload.arrayOffset() + payload.position(), length, UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+
+    private void notifyListeners(boolean cleared, List<String> changedKeys) {
+        List<OnSharedPreferenceChangeListener> listeners;
+        synchronized (mListeners) {
+            if (mListeners.isEmpty()) {
+                return;
+            }
+            listeners = new ArrayList<>(mListeners.keySet());
+        }
+        for (OnSharedPreferenceChangeListener listener : listeners) {
+            if (cleared) {
+                listener.onSharedPreferenceChanged(this, null);
+            }
+            for (String key : changedKeys) {
+                listener.onSharedPreferenceChanged(this, key);
+            }
+        }
+    }
+
+    /** Collects the changes, which are appended to the log when applied or committed. */
+    private class EditorImpl implements Editor {
+        private final Map<String, Object> mChanges = new HashMap<>();
+        private boolean mCleared = false;
+
+        @Override
+        public Editor putString(String key, String value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putStringSet(String key, Set<String> values) {
+            return put(key, values);
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            return put(key, null);
+        }
+
+        @Override
+        public Editor clear() {
+            synchronized (this) {
+                mCleared = true;
+            }
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            synchronized (this) {
+                return write(mCleared, mChanges, true);
+            }
+        }
+
+        @Override
+        public void apply() {
+            synchronized (this) {
+                write(mCleared, mChanges, false);
+            }
+        }
+
+        Editor put(String key, Object value) {
+            if (value instanceof Set) {
+                value = Collections.unmodifiableSet(new HashSet<>((Set<?>) value));
+            }
+            synchronized (this) {
+                mChanges.put(key, value == null ? REMOVED : value);
+            }
+            return this;
+        }
+    }
+}
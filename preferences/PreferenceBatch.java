@@ -0,0 +1,115 @@
+package com.vishnu.app;
+
+import android.content.SharedPreferences;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * A set of typed writes to the preferences which are saved together, with one disk write, when the batch is applied.
+ * Obtain a batch from {@link PreferenceManager#batch()}. The writes are not visible to the getters of
+ * {@link PreferenceManager} until the batch is applied.
+ */
+public class PreferenceBatch {
+
+    /**
+     * The writes of a batch, used with {@link PreferenceManager#edit(Transaction)}.
+     */
+    public interface Transaction {
+        /**
+         * Called with the batch to record the writes in.
+         *
+         * @param batch The batch which is applied once this method returns
+         */
+        void run(PreferenceBatch batch);
+    }
+
+    /** The editor collecting the writes of this batch */
+    private final SharedPreferences.Editor mEditor;
+    /** The keys written by this batch */
+    private final Set<String> mKeys = new HashSet<>();
+    /** Whether this batch cleared the preferences */
+    private boolean mCleared = false;
+    /** Whether this batch was already applied or committed */
+    private boolean mDone = false;
+
+    PreferenceBatch(SharedPreferences.Editor editor) {
+        this.mEditor = editor;
+    }
+
+    public PreferenceBatch setString(String key, String value) {
+        return put(key, value);
+    }
+
+    public PreferenceBatch setInt(String key, int value) {
+        return put(key, value);
+    }
+
+    public PreferenceBatch setBoolean(String key, boolean value) {
+        return put(key, value);
+    }
+
+    /**
+     * Converts the object into JsonString the same way as {@link PreferenceManager#setObject(String, Object)}.
+     */
+    public PreferenceBatch setObject(String key, Object customObj) {
+        return put(key, PreferenceManager.encode(key, customObj));
+    }
+
+    /**
+     * Converts the ArrayList of values into JsonString the same way as
+     * {@link PreferenceManager#setArrayList(String, ArrayList)}.
+     */
+    public <T> PreferenceBatch setArrayList(String key, ArrayList<T> list) {
+        return put(key, PreferenceManager.encode(key, list));
+    }
+
+    public PreferenceBatch remove(String key) {
+        return put(key, null);
+    }
+
+    /**
+     * Removes all the values from the preferences. As with {@link SharedPreferences.Editor#clear()}, the clear is done
+     * first when the batch is applied, regardless of the order of the calls.
+     */
+    public PreferenceBatch clear() {
+        checkNotDone();
+        mEditor.clear();
+        mCleared = true;
+        return this;
+    }
+
+    /**
+     * Saves all the writes of this batch in memory immediately and to disk asynchronously.
+     */
+    public void apply() {
+        checkNotDone();
+        mDone = true;
+        PreferenceManager.applyBatch(mEditor, mKeys, mCleared, false);
+    }
+
+    /**
+     * Saves all the writes of this batch synchronously. This is not allowed on the UI thread.
+     *
+     * @return true if the values were successfully written to disk
+     */
+    public boolean commit() {
+        checkNotDone();
+        mDone = true;
+        return PreferenceManager.applyBatch(mEditor, mKeys, mCleared, true);
+    }
+
+    private PreferenceBatch put(String key, Object value) {
+        checkNotDone();
+        PreferenceManager.putValue(mEditor, key, value);
+        mKeys.add(key);
+        return this;
+    }
+
+    private void checkNotDone() {
+        if (mDone) {
+            throw new IllegalStateException("The batch was already applied");
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package com.vishnu.app;
+
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded, in-memory cache of the decoded values stored by {@link PreferenceManager}. Entries are keyed on the
+ * preference key and the type used to decode it, so a key read with several types keeps one entry per type, and the
+ * least recently used entries are evicted once the estimated size of the cached values exceeds the configured budget.
+ * <p>
+ * Cached values are shared between callers, so the returned objects must be treated as read-only.
+ */
+class PreferenceCache {
+
+    /** The default size budget of the cache, in estimated bytes. */
+    static final int DEFAULT_MAX_SIZE = 512 * 1024;
+
+    /** The decoded values in access order, keyed on the preference key and the type. */
+    private final LinkedHashMap<CacheKey, Entry> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+    /** The cache keys of the cached values of each preference key. */
+    private final Map<String, List<CacheKey>> mKeysByKey = new HashMap<>();
+    /** The size budget of the cache, in estimated bytes. */
+    private int mMaxSize;
+    /** The estimated size of all the cached values, in bytes. */
+    private int mSize;
+
+    private long mHitCount;
+    private long mMissCount;
+    private long mEvictionCount;
+
+    PreferenceCache(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        this.mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the value cached for the key and the type.
+     *
+     * @param key  The preference key
+     * @param type The type the value was decoded with
+     * @return The cached value or null on a miss
+     */
+    synchronized Object get(String key, Type type) {
+        Entry entry = mEntries.get(new CacheKey(key, type));
+        if (entry != null) {
+            mHitCount++;
+            return entry.value;
+        }
+        mMissCount++;
+        return null;
+    }
+
+    /**
+     * Caches the decoded value of the key, replacing any value decoded earlier with the same type.
+     *
+     * @param key     The preference key
+     * @param type    The type the value was decoded with
+     * @param value   The decoded value
+     * @param encoded The stored string the value was decoded from. Used to estimate the size of the value.
+     */
+    synchronized void put(String key, Type type, Object value, String encoded) {
+        if (value == null) {
+            return;
+        }
+        // a java char is two bytes, and the decoded graph is usually at least as large as its json text.
+        int size = (encoded == null ? 0 : encoded.length() * 2) + 64;
+        CacheKey cacheKey = new CacheKey(key, type);
+        if (size > mMaxSize) {
+            removeEntry(cacheKey);
+            return;
+        }
+        Entry previous = mEntries.put(cacheKey, new Entry(value, size));
+        if (previous != null) {
+            mSize -= previous.size;
+        } else {
+            List<CacheKey> cacheKeys = mKeysByKey.get(key);
+            if (cacheKeys == null) {
+                cacheKeys = new ArrayList<>(1);
+                mKeysByKey.put(key, cacheKeys);
+            }
+            cacheKeys.add(cacheKey);
+        }
+        mSize += size;
+        trimToSize();
+    }
+
+    /** Removes the cached values of the key, whatever type they were decoded with. */
+    synchronized void remove(String key) {
+        List<CacheKey> cacheKeys = mKeysByKey.remove(key);
+        if (cacheKeys == null) {
+            return;
+        }
+        for (CacheKey cacheKey : cacheKeys) {
+            mSize -= mEntries.remove(cacheKey).size;
+        }
+    }
+
+    /** Removes all the cached values. */
+    synchronized void clear() {
+        mEntries.clear();
+        mKeysByKey.clear();
+        mSize = 0;
+    }
+
+    /** Changes the size budget of the cache, evicting entries if needed. */
+    synchronized void resize(int maxSize) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize <= 0");
+        }
+        mMaxSize = maxSize;
+        trimToSize();
+    }
+
+    synchronized long hitCount() {
+        return mHitCount;
+    }
+
+    synchronized long missCount() {
+        return mMissCount;
+    }
+
+    synchronized long evictionCount() {
+        return mEvictionCount;
+    }
+
+    synchronized int size() {
+        return mSize;
+    }
+
+    synchronized int maxSize() {
+        return mMaxSize;
+    }
+
+    /** Evicts the least recently used entries until the cache is within its size budget. */
+    private void trimToSize() {
+        Iterator<Map.Entry<CacheKey, Entry>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            Map.Entry<CacheKey, Entry> eldest = iterator.next();
+            mSize -= eldest.getValue().size;
+            iterator.remove();
+            forget(eldest.getKey());
+            mEvictionCount++;
+        }
+    }
+
+    /** Removes the cached value of one key and type. */
+    private void removeEntry(CacheKey cacheKey) {
+        Entry previous = mEntries.remove(cacheKey);
+        if (previous != null) {
+            mSize -= previous.size;
+            forget(cacheKey);
+        }
+    }
+
+    /** Drops a removed entry from {@link #mKeysByKey}. */
+    private void forget(CacheKey cacheKey) {
+        List<CacheKey> cacheKeys = mKeysByKey.get(cacheKey.key);
+        cacheKeys.remove(cacheKey);
+        if (cacheKeys.isEmpty()) {
+            mKeysByKey.remove(cacheKey.key);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        long accesses = mHitCount + mMissCount;
+        int hitPercent = accesses != 0 ? (int) (100 * mHitCount / accesses) : 0;
+        return "PreferenceCache[size=" + mSize + ",maxSize=" + mMaxSize + ",hits=" + mHitCount + ",misses="
+                + mMissCount + ",hitRate=" + hitPercent + "%]";
+    }
+
+    /** A preference key together with the type its value was decoded with. */
+    private static final class CacheKey {
+        final String key;
+        final Type type;
+
+        CacheKey(String key, Type type) {
+            this.key = key;
+            this.type = type;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CacheKey)) {
+                return false;
+            }
+            CacheKey other = (CacheKey) o;
+            return key.equals(other.key) && type.equals(other.type);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + type.hashCode();
+        }
+    }
+
+    /** A decoded value together with its estimated size. */
+    private static class Entry {
+        final Object value;
+        final int size;
+
+        Entry(Object value, int size) {
+            this.value = value;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.vishnu.app;
+
+/**
+ * Used for receiving the values read by the async getters of {@link PreferenceManager}.
+ *
+ * @param <T> The type of the value
+ */
+public interface PreferenceCallback<T> {
+    /**
+     * Called when the value is read and decoded.
+     * @param value The value, or the default of the getter if nothing is stored
+     */
+    void onResult(T value);
+
+    /**
+     * Called when the value could not be read or decoded.
+     * @param error The cause of the failure
+     */
+    void onFailure(Exception error);
+}
@@ -0,0 +1,29 @@
+package com.vishnu.app;
+
+import java.lang.reflect.Type;
+
+/**
+ * Converts the objects saved by {@link PreferenceManager#setObject(String, Object)} and
+ * {@link PreferenceManager#setArrayList(String, java.util.ArrayList)} to the string stored in the preferences, and
+ * back. The codec of a key is selected with {@link PreferenceManager#setCodec(String, PreferenceCodec)}.
+ */
+public interface PreferenceCodec {
+
+    /**
+     * Encodes the value into the string to store in the preferences.
+     *
+     * @param value The value to encode, may be null
+     * @param type  The type of the value
+     * @return The encoded string
+     */
+    String encode(Object value, Type type);
+
+    /**
+     * Decodes a string stored by {@link #encode(Object, Type)}.
+     *
+     * @param stored The stored string, or an empty string if nothing is stored
+     * @param type   The type to decode the string into
+     * @return The decoded value, or null if nothing is stored
+     */
+    Object decode(String stored, Type type);
+}
@@ -0,0 +1,315 @@
+package com.vishnu.app;
+
+import com.google.gson.JsonIOException;
+import com.google.gson.stream.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A list stored in segment files outside of the preferences, for lists too large to be rewritten on every change.
+ * Every element is stored as one line of JSON, and every segment file holds up to {@link #SEGMENT_SIZE} elements, so
+ * appending an element only writes that element, and reading an element only reads that element.
+ * <p>
+ * Obtain a store from {@link PreferenceManager#getListStore(String, Type)}.
+ *
+ * @param <T> The type of the elements
+ */
+public class PreferenceListStore<T> implements Iterable<T> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** The number of elements in each segment file */
+    static final int SEGMENT_SIZE = 256;
+
+    /** The directory holding the segment files */
+    private final File mDirectory;
+    /** The type of the elements */
+    private final Type mElementType;
+    /** The number of elements in the store */
+    private int mSize;
+    /** The segment whose line offsets are in {@link #mOffsets}, or -1 */
+    private int mOffsetsSegment = -1;
+    /** The byte offset of each line of {@link #mOffsetsSegment}, followed by the length of the segment */
+    private long[] mOffsets;
+
+    PreferenceListStore(File directory, Type elementType) {
+        this.mDirectory = directory;
+        this.mElementType = elementType;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new JsonIOException("Unable to create " + directory);
+        }
+        this.mSize = countElements();
+    }
+
+    /** Returns the type of the elements. */
+    Type getElementType() {
+        return mElementType;
+    }
+
+    /**
+     * Returns the number of elements in the store.
+     */
+    public synchronized int size() {
+        return mSize;
+    }
+
+    /**
+     * Appends the element to the end of the store. Only the new element is encoded and written.
+     *
+     * @param element The element to append
+     */
+    public synchronized void append(T element) {
+        appendAll(Arrays.asList(element));
+    }
+
+    /**
+     * Appends the elements to the end of the store. If a segment cannot be written, it is cut back to its previous
+     * length, so the elements appended to it by this call are dropped, and the exception is thrown.
+     *
+     * @param elements The elements to append
+     */
+    public synchronized void appendAll(Collection<? extends T> elements) {
+        Iterator<? extends T> iterator = elements.iterator();
+        while (iterator.hasNext()) {
+            int segment = mSize / SEGMENT_SIZE;
+            StringBuilder lines = new StringBuilder();
+            int count = 0;
+            // fill up the current segment, then move on to the next one
+            while (iterator.hasNext() && (mSize + count) / SEGMENT_SIZE == segment) {
+                lines.append(PreferenceManager.gson().toJson(iterator.next(), mElementType)).append('\n');
+                count++;
+            }
+            RandomAccessFile file = null;
+            long length = -1;
+            try {
+                file = new RandomAccessFile(segmentFile(segment), "rw");
+                length = file.length();
+                file.seek(length);
+                file.write(lines.toString().getBytes(UTF_8));
+            } catch (IOException e) {
+                // a partly written line would be taken for the next element, and the lines after it would be
+                // misnumbered
+                if (length >= 0) {
+                    try {
+                        file.setLength(length);
+                    } catch (IOException ignored) {
+                    }
+                }
+                throw new JsonIOException(e);
+            } finally {
+                closeQuietly(file);
+            }
+            if (mOffsetsSegment == segment) {
+                mOffsetsSegment = -1;
+            }
+            mSize += count;
+        }
+    }
+
+    /**
+     * Returns the element at the index. Only the line of that element is read and decoded.
+     *
+     * @param index The index of the element
+     * @return The element
+     */
+    public synchronized T get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + mSize);
+        }
+        int segment = index / SEGMENT_SIZE;
+        int line = index % SEGMENT_SIZE;
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(segmentFile(segment), "r");
+            if (mOffsetsSegment != segment) {
+                mOffsets = readLineOffsets(file);
+                mOffsetsSegment = segment;
+            }
+            long start = mOffsets[line];
+            byte[] bytes = new byte[(int) (mOffsets[line + 1] - start - 1)];
+            file.seek(start);
+            file.readFully(bytes);
+            return PreferenceManager.gson().fromJson(new String(bytes, UTF_8), mElementType);
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    /**
+     * Replaces all the elements of the store.
+     *
+     * @param elements The new elements
+     */
+    public synchronized void setAll(Collection<? extends T> elements) {
+        clear();
+        appendAll(elements);
+    }
+
+    /**
+     * Removes all the elements and their segment files.
+     */
+    public synchronized void clear() {
+        File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        mSize = 0;
+        mOffsetsSegment = -1;
+    }
+
+    /**
+     * Reads all the elements into a new list.
+     */
+    public synchronized ArrayList<T> toArrayList() {
+        ArrayList<T> list = new ArrayList<>(mSize);
+        for (T element : this) {
+            list.add(element);
+        }
+        return list;
+    }
+
+    /**
+     * Returns an iterator which streams the elements from the segment files through a lenient JsonReader, reading one
+     * segment and decoding one element at a time. The iterator covers the elements present when it was created, and
+     * must not be used after {@link #clear()}.
+     */
+    @Override
+    public synchronized Iterator<T> iterator() {
+        return new StreamingIterator(mSize);
+    }
+
+    /** Counts the elements of the existing segment files, dropping a last line left incomplete by a crash. */
+    private int countElements() {
+        int segments = 0;
+        while (segmentFile(segments).exists()) {
+            segments++;
+        }
+        if (segments == 0) {
+            return 0;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(segmentFile(segments - 1), "rw");
+            long[] offsets = readLineOffsets(file);
+            int lines = offsets.length - 1;
+            // the last line is complete only if the segment ends with its newline
+            file.setLength(offsets[lines]);
+            return (segments - 1) * SEGMENT_SIZE + lines;
+        } catch (IOException e) {
+            throw new JsonIOException(e);
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    /**
+     * Returns the start offset of every complete line of the segment, followed by the offset just after the last
+     * complete line.
+     */
+    private static long[] readLineOffsets(RandomAccessFile file) throws IOException {
+        long[] offsets = new long[SEGMENT_SIZE + 1];
+        int lines = 0;
+        byte[] buffer = new byte[8192];
+        long position = 0;
+        int read;
+        file.seek(0);
+        while ((read = file.read(buffer)) > 0) {
+            for (int i = 0; i < read && lines < SEGMENT_SIZE; i++) {
+                if (buffer[i] == '\n') {
+                    offsets[++lines] = position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return Arrays.copyOf(offsets, lines + 1);
+    }
+
+    private File segmentFile(int segment) {
+        return new File(mDirectory, "segment-" + segment + ".json");
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * Reads the segment files one segment at a time, and decodes their elements one at a time with a lenient
+     * JsonReader, which takes the lines of a segment as a stream of top-level values. A segment is read with one call
+     * and its file closed at once, so no file is left open between the calls and the iterator may be dropped at any
+     * element, or after a decoding error; the memory it holds is bounded by one segment of {@link #SEGMENT_SIZE}
+     * elements.
+     */
+    private class StreamingIterator implements Iterator<T> {
+        /** The number of elements to iterate */
+        private final int mEnd;
+        /** The index of the next element */
+        private int mIndex = 0;
+        /** The reader of the current segment */
+        private JsonReader mReader;
+
+        StreamingIterator(int end) {
+            this.mEnd = end;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return mIndex < mEnd;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (mIndex % SEGMENT_SIZE == 0) {
+                mReader = openSegment(mIndex / SEGMENT_SIZE);
+            }
+            T element = PreferenceManager.gson().fromJson(mReader, mElementType);
+            mIndex++;
+            return element;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException("remove");
+        }
+
+        /** Reads the segment, closing its file before returning, and returns a reader of its elements. */
+        private JsonReader openSegment(int segment) {
+            RandomAccessFile file = null;
+            try {
+                file = new RandomAccessFile(segmentFile(segment), "r");
+                byte[] bytes = new byte[(int) file.length()];
+                file.readFully(bytes);
+                JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(bytes), UTF_8));
+                reader.setLenient(true);
+                return reader;
+            } catch (IOException e) {
+                throw new JsonIOException(e);
+            } finally {
+                closeQuietly(file);
+            }
+        }
+    }
+}
@@ -1,90 +1,217 @@
 package com.vishnu.app;
 
-import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.Build;
 
 import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
 
+import java.io.File;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Created by Vishnu on 8/1/2015.
  */
 public class PreferenceManager {
 
-    private static Context sAppContext = EhsApplication.getContext();
+    /**
+     * Called once the preferences are loaded, to measure the startup cost of this class.
+     */
+    public interface StartupListener {
+        /**
+         * Called on the thread which loaded the preferences, or on the thread setting the listener if they were
+         * already loaded.
+         *
+         * @param loadTimeNanos The time spent creating the storage and waiting for its file to be read
+         * @param loadingThread The thread which was blocked while loading
+         */
+        void onPreferencesLoaded(long loadTimeNanos, Thread loadingThread);
+    }
+
+    /**
+     * Told of every write, so classes keeping a value of the preferences in memory can drop it. Unlike
+     * {@link #observe}, nothing is decoded.
+     */
+    public interface ChangeListener {
+        /**
+         * Called once for every change of a key, through this class or directly through the storage, after the
+         * storage holds the new value. The changes of keys are reported by the storage, so this is called on the main
+         * thread for the default SharedPreferences and on the writing thread for {@link MappedPreferences}. The
+         * writes of the coalescing mode are reported once they are flushed.
+         *
+         * @param key The written key, or null if the preferences were cleared or the storage was replaced
+         */
+        void onPreferenceChanged(String key);
+    }
+
+    /** The first API level whose SharedPreferences reports a clear to its listeners, Build.VERSION_CODES.R */
+    private static final int API_CLEAR_REPORTED = 30;
+
+    /** Guards the lazy creation of {@link #sPreferences} and {@link #gson} */
+    private static final Object sInitLock = new Object();
+
+    /** The Gson instance of the codecs. Created on first use, and again when {@link PreferenceTypeAdapters} changes */
+    private static volatile Gson gson;
+
+    /** The codec used for keys without a codec of their own */
+    private static final PreferenceCodec sDefaultCodec = new GsonPreferenceCodec();
+    /** The codecs selected for individual keys with {@link #setCodec(String, PreferenceCodec)} */
+    private static final Map<String, PreferenceCodec> sCodecs = new ConcurrentHashMap<>();
+
+    /**
+     * The storage engine, the default SharedPreferences unless replaced with {@link #setStorage}. Created on first use
+     * by {@link #preferences()}, or ahead of time by {@link #preload(Executor)}.
+     */
+    private static volatile SharedPreferences sPreferences;
+    /** The time it took to load {@link #sPreferences}, or -1 while not loaded */
+    private static volatile long sLoadTimeNanos = -1;
+    /** The thread which loaded {@link #sPreferences} */
+    private static Thread sLoadingThread;
+    /** The listener to notify once {@link #sPreferences} is loaded */
+    private static StartupListener sStartupListener;
 
-    private static Gson gson = new Gson();
+    /** The decoded values of {@link #getObject(String, Class)} and {@link #getArrayList(String, Type)} */
+    private static final PreferenceCache sCache = new PreferenceCache(PreferenceCache.DEFAULT_MAX_SIZE);
 
-    private static SharedPreferences sPreferences = android.preference.PreferenceManager.getDefaultSharedPreferences(
-            sAppContext);
+    /**
+     * Drops the cached value of a key and notifies its listeners and subscriptions when it is changed, through this
+     * class or outside of it; the writes of this class are not reported a second time. SharedPreferences holds its
+     * listeners weakly, so a strong reference is kept here.
+     */
+    private static final SharedPreferences.OnSharedPreferenceChangeListener sChangeListener =
+            new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (key == null) {
+                        sCache.clear();
+                    } else {
+                        sCache.remove(key);
+                    }
+                    notifySubscriptions(key);
+                }
+            };
+
+    /** Marks a key removed in {@link #sPendingWrites}, as the map cannot hold null values. */
+    private static final Object REMOVED = new Object();
+    /** Guards {@link #sPendingWrites} against a concurrent flush. */
+    private static final Object sPendingLock = new Object();
+    /** The writes of the single setters waiting for the coalescing window to close. */
+    private static final Map<String, Object> sPendingWrites = new ConcurrentHashMap<>();
+    /** The coalescing window in milliseconds. 0 writes every setter through immediately. */
+    private static long sCoalescingWindow = 0;
+    /** Whether a flush of {@link #sPendingWrites} is already scheduled. */
+    private static boolean sFlushScheduled = false;
+    /** The threads which flush the coalesced writes and run the async getters. Created on first use. */
+    private static ScheduledExecutorService sBackgroundExecutor;
+    /** The number of threads of {@link #sBackgroundExecutor} */
+    private static final int BACKGROUND_THREADS = 2;
+
+    /** The listeners added with {@link #addChangeListener(ChangeListener)} */
+    private static final List<ChangeListener> sChangeListeners = new CopyOnWriteArrayList<>();
 
+    /** The subscriptions of {@link #observe}, by key */
+    private static final Map<String, List<PreferenceSubscription>> sSubscriptions = new ConcurrentHashMap<>();
+
+    /** The directory holding the files of the {@link PreferenceListStore}s, under the app's files directory */
+    private static final String LIST_STORE_DIRECTORY = "preference_lists";
+    /** The list stores opened so far, by key */
+    private static final Map<String, PreferenceListStore<?>> sListStores = new HashMap<>();
 
     public static void setObject(String key, Object customObj) {
-        String jsonStr = gson.toJson(customObj);
-        SharedPreferences.Editor editor = sPreferences.edit();
-        editor.putString(key, jsonStr);
-        editor.apply();
+        write(key, encode(key, customObj));
     }
 
+    /**
+     * Returns the object that was already saved in preference. The decoded object is cached until the key is written
+     * again, so the returned object must not be modified.
+     *
+     * @param key         The key to retrieve the object
+     * @param customClass The class of the saved object
+     * @param <T>         The type of the saved object
+     * @return The saved object or null
+     */
     public static <T> T getObject(String key, Class<T> customClass) {
-        return gson.fromJson(sPreferences.getString(key, ""), customClass);
-
+        return customClass.cast(getDecoded(key, customClass));
     }
 
     public static void setString(String key, String value) {
-        SharedPreferences.Editor editor = sPreferences.edit();
-        editor.putString(key, value);
-        editor.apply();
+        write(key, value);
     }
 
     public static String getString(String key) {
-        return sPreferences.getString(key, null);
+        Object pending = sPendingWrites.get(key);
+        if (pending != null) {
+            return pending == REMOVED ? null : (String) pending;
+        }
+        return preferences().getString(key, null);
     }
 
     public static void setInt(String key, int value) {
-        SharedPreferences.Editor editor = sPreferences.edit();
-        editor.putInt(key, value);
-        editor.apply();
+        write(key, value);
     }
 
     public static int getInt(String key) {
-        return sPreferences.getInt(key, 0);
+        Object pending = sPendingWrites.get(key);
+        if (pending != null) {
+            return pending == REMOVED ? 0 : (Integer) pending;
+        }
+        return preferences().getInt(key, 0);
     }
 
     public static void setBoolean(String key, boolean value) {
-        SharedPreferences.Editor editor = sPreferences.edit();
-        editor.putBoolean(key, value);
-        editor.apply();
+        write(key, value);
     }
 
     public static boolean getBoolean(String key) {
-        return sPreferences.getBoolean(key, false);
+        Object pending = sPendingWrites.get(key);
+        if (pending != null) {
+            return pending != REMOVED && (Boolean) pending;
+        }
+        return preferences().getBoolean(key, false);
     }
 
     public static void clearPreference() {
-        SharedPreferences.Editor editor = sPreferences.edit();
-        editor.clear();
-        editor.apply();
+        synchronized (sPendingLock) {
+            sPendingWrites.clear();
+            SharedPreferences.Editor editor = preferences().edit();
+            editor.clear();
+            editor.apply();
+        }
+        sCache.clear();
+        clearListStores();
+        notifyClear();
     }
 
     /**
-     * Converts the ArrayList of values into JsonString and saves the string in system preference
+     * Converts the ArrayList of values into JsonString, or the format of the codec selected for the key, and saves the
+     * string in system preference
      *
      * @param key  The key to save the string
      * @param list The list to convert
      * @param <T>  The type of the list
      */
     public static <T> void setArrayList(String key, ArrayList<T> list) {
-        String jsonStr = gson.toJson(list);
-        SharedPreferences.Editor editor = sPreferences.edit();
-        editor.putString(key, jsonStr);
-        editor.apply();
+        write(key, encode(key, list));
     }
 
     /**
-     * Returns the ArrayList of values that was already saved in preference.
+     * Returns the ArrayList of values that was already saved in preference. The decoded list is cached until the key
+     * is written again, so the returned list must not be modified.
      *
      * @param key       The key to retrieve the list
      * @param arrayList The arrayList of the array list. The saved string from preference will be converted to the
@@ -93,7 +220,8 @@ public class PreferenceManager {
      * @return The ArrayList <T> values.
      */
     public static <T> ArrayList<T> getArrayList(String key, Type arrayList) {
-        ArrayList<T> retList = gson.fromJson(sPreferences.getString(key, ""), arrayList);
+        @SuppressWarnings("unchecked")
+        ArrayList<T> retList = (ArrayList<T>) getDecoded(key, arrayList);
 
         // return an empty list if the stored respone is null;
         if (retList == null) {
@@ -101,4 +229,673 @@ public class PreferenceManager {
         }
         return retList;
     }
+
+    /**
+     * Reads and decodes the object on a background thread, see {@link #getObject(String, Class)}. Neither the
+     * preferences file nor the decoding blocks the calling thread.
+     *
+     * @param key              The key to retrieve the object
+     * @param customClass      The class of the saved object
+     * @param callbackExecutor The executor to call the callback on, for example one posting to the main thread, or null
+     *                         to call it on the background thread
+     * @param callback         The callback to receive the object, may be null
+     * @param <T>              The type of the saved object
+     * @return The future of the object
+     */
+    public static <T> Future<T> getObjectAsync(final String key, final Class<T> customClass,
+            Executor callbackExecutor, PreferenceCallback<T> callback) {
+        return readAsync(new Callable<T>() {
+            @Override
+            public T call() {
+                return getObject(key, customClass);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * Reads and decodes the list on a background thread, see {@link #getArrayList(String, Type)}.
+     *
+     * @param key              The key to retrieve the list
+     * @param arrayList        The type of the array list
+     * @param callbackExecutor The executor to call the callback on, or null to call it on the background thread
+     * @param callback         The callback to receive the list, may be null
+     * @param <T>              The type of each value in the list
+     * @return The future of the list
+     */
+    public static <T> Future<ArrayList<T>> getArrayListAsync(final String key, final Type arrayList,
+            Executor callbackExecutor, PreferenceCallback<ArrayList<T>> callback) {
+        return readAsync(new Callable<ArrayList<T>>() {
+            @Override
+            public ArrayList<T> call() {
+                return getArrayList(key, arrayList);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * Reads the string on a background thread, see {@link #getString(String)}.
+     */
+    public static Future<String> getStringAsync(final String key, Executor callbackExecutor,
+            PreferenceCallback<String> callback) {
+        return readAsync(new Callable<String>() {
+            @Override
+            public String call() {
+                return getString(key);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * Reads the int on a background thread, see {@link #getInt(String)}.
+     */
+    public static Future<Integer> getIntAsync(final String key, Executor callbackExecutor,
+            PreferenceCallback<Integer> callback) {
+        return readAsync(new Callable<Integer>() {
+            @Override
+            public Integer call() {
+                return getInt(key);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * Reads the boolean on a background thread, see {@link #getBoolean(String)}.
+     */
+    public static Future<Boolean> getBooleanAsync(final String key, Executor callbackExecutor,
+            PreferenceCallback<Boolean> callback) {
+        return readAsync(new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return getBoolean(key);
+            }
+        }, callbackExecutor, callback);
+    }
+
+    /**
+     * Observes the value of a key. The observer is called with the current value, and then with the new value
+     * whenever the key is written, through this class or directly through the storage. The values are decoded on a
+     * background thread, and all the writes within the coalescing window are delivered as one notification with the
+     * latest value.
+     *
+     * @param key            The key to observe
+     * @param type           The type of the value. Integer, Boolean and String read the value with the matching
+     *                       getter, any other type decodes it like {@link #getObject(String, Class)}.
+     * @param coalesceMillis The window in milliseconds to collect writes in before notifying, for example 16 for one
+     *                       notification per frame at most
+     * @param executor       The executor to call the observer on, for example one posting to the main thread, or null
+     *                       to call it on the background thread
+     * @param observer       The observer
+     * @param <T>            The type of the value
+     * @return The subscription, to cancel once the values are no longer needed
+     */
+    public static <T> PreferenceSubscription observe(String key, Type type, long coalesceMillis, Executor executor,
+            PreferenceObserver<T> observer) {
+        if (coalesceMillis < 0) {
+            throw new IllegalArgumentException("coalesceMillis < 0");
+        }
+        PreferenceSubscription subscription = new PreferenceSubscription(key, type, coalesceMillis, executor, observer);
+        synchronized (sSubscriptions) {
+            List<PreferenceSubscription> subscriptions = sSubscriptions.get(key);
+            if (subscriptions == null) {
+                subscriptions = new CopyOnWriteArrayList<>();
+                sSubscriptions.put(key, subscriptions);
+            }
+            subscriptions.add(subscription);
+        }
+        subscription.onKeyChanged();
+        return subscription;
+    }
+
+    /**
+     * Adds a listener told of every write of a key, and of the clearing of the preferences and the replacing of the
+     * storage.
+     *
+     * @param listener The listener
+     */
+    public static void addChangeListener(ChangeListener listener) {
+        sChangeListeners.add(listener);
+    }
+
+    public static void removeChangeListener(ChangeListener listener) {
+        sChangeListeners.remove(listener);
+    }
+
+    /**
+     * Replaces the storage engine behind all the helpers of this class, for example with a {@link MappedPreferences}.
+     * The values of the current storage are not copied, see {@link MappedPreferences#migrateFrom}. Replace the
+     * storage early, before other classes start reading values.
+     *
+     * @param storage The new storage engine
+     */
+    public static void setStorage(SharedPreferences storage) {
+        if (storage == null) {
+            throw new NullPointerException("storage == null");
+        }
+        synchronized (sPendingLock) {
+            synchronized (sInitLock) {
+                if (sPreferences != null) {
+                    flush();
+                    sPreferences.unregisterOnSharedPreferenceChangeListener(sChangeListener);
+                }
+                storage.registerOnSharedPreferenceChangeListener(sChangeListener);
+                sPreferences = storage;
+            }
+        }
+        sCache.clear();
+        notifySubscriptions(null);
+    }
+
+    /**
+     * Returns the list store of the key. Unlike {@link #setArrayList(String, ArrayList)}, the store keeps its elements
+     * in segment files outside of the preferences and can append, read and stream single elements, so use it for
+     * large lists which change often. The same store is returned for every call with the same key.
+     *
+     * @param key         The key of the list
+     * @param elementType The type of the elements of the list
+     * @param <T>         The type of the elements of the list
+     * @return The list store
+     * @throws IllegalArgumentException if the store of the key was opened with another element type
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PreferenceListStore<T> getListStore(String key, Type elementType) {
+        synchronized (sListStores) {
+            PreferenceListStore<?> store = sListStores.get(key);
+            if (store == null) {
+                store = new PreferenceListStore<>(listStoreDirectory(key), elementType);
+                sListStores.put(key, store);
+            } else if (!TypeToken.get(store.getElementType()).equals(TypeToken.get(elementType))) {
+                throw new IllegalArgumentException("The list store " + key + " holds " + store.getElementType()
+                        + ", not " + elementType);
+            }
+            return (PreferenceListStore<T>) store;
+        }
+    }
+
+    /**
+     * Starts a batch of writes which are saved together with a single {@link SharedPreferences.Editor#apply()} when
+     * the batch is applied. Use this instead of the single setters when many values are stored at once.
+     *
+     * @return The new batch
+     */
+    public static PreferenceBatch batch() {
+        return new PreferenceBatch(preferences().edit());
+    }
+
+    /**
+     * Runs the transaction against a new batch and applies all of its writes at once.
+     *
+     * @param transaction The writes to save
+     */
+    public static void edit(PreferenceBatch.Transaction transaction) {
+        PreferenceBatch batch = batch();
+        transaction.run(batch);
+        batch.apply();
+    }
+
+    /**
+     * Enables or disables the write coalescing mode. While enabled, the single setters only record their value in
+     * memory, and all the values recorded within the window are saved to disk together once the window closes. The
+     * getters see the recorded values immediately.
+     *
+     * @param windowMillis The coalescing window in milliseconds, or 0 to save every write immediately
+     */
+    public static void setWriteCoalescing(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("windowMillis < 0");
+        }
+        synchronized (sPendingLock) {
+            sCoalescingWindow = windowMillis;
+        }
+        if (windowMillis == 0) {
+            flush();
+        }
+    }
+
+    /**
+     * Saves the writes recorded by the write coalescing mode without waiting for the window to close. Call this
+     * before the process may be killed, for example from onPause().
+     */
+    public static void flush() {
+        synchronized (sPendingLock) {
+            sFlushScheduled = false;
+            if (sPendingWrites.isEmpty()) {
+                return;
+            }
+            SharedPreferences.Editor editor = preferences().edit();
+            for (Map.Entry<String, Object> entry : sPendingWrites.entrySet()) {
+                putValue(editor, entry.getKey(), entry.getValue());
+            }
+            editor.apply();
+            sPendingWrites.clear();
+        }
+    }
+
+    /**
+     * Returns the number of times {@link #getObject(String, Class)} and {@link #getArrayList(String, Type)} were served
+     * from the decoded value cache.
+     */
+    public static long getCacheHitCount() {
+        return sCache.hitCount();
+    }
+
+    /**
+     * Returns the number of times {@link #getObject(String, Class)} and {@link #getArrayList(String, Type)} had to
+     * decode the stored value.
+     */
+    public static long getCacheMissCount() {
+        return sCache.missCount();
+    }
+
+    /**
+     * Sets the size budget of the decoded value cache.
+     *
+     * @param maxSizeBytes The estimated size in bytes the cached values may take
+     */
+    public static void setCacheSize(int maxSizeBytes) {
+        sCache.resize(maxSizeBytes);
+    }
+
+    /**
+     * Selects the codec used to store the objects and lists of a key. The values already stored for the key are not
+     * converted, so select the codec before the first write, or write the value again after changing it.
+     *
+     * @param key   The key to store with the codec
+     * @param codec The codec, or null to use the default Gson codec again
+     */
+    public static void setCodec(String key, PreferenceCodec codec) {
+        if (codec == null) {
+            sCodecs.remove(key);
+        } else {
+            sCodecs.put(key, codec);
+        }
+        sCache.remove(key);
+    }
+
+    /**
+     * Creates the storage and the Gson instance on the executor, so that the thread which first uses this class, often
+     * the main thread during Application.onCreate(), does not block on reading the preferences file. The helpers of
+     * this class can be called before the returned future completes; they wait for the loading to finish.
+     *
+     * @param executor The executor to load the preferences on
+     * @return The future which completes once the preferences are loaded
+     */
+    public static Future<Void> preload(Executor executor) {
+        FutureTask<Void> task = new FutureTask<>(new Callable<Void>() {
+            @Override
+            public Void call() {
+                gson();
+                preferences();
+                return null;
+            }
+        });
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Sets the listener notified once the preferences are loaded. If they are already loaded, the listener is called
+     * immediately.
+     *
+     * @param listener The listener, or null to remove it
+     */
+    public static void setStartupListener(StartupListener listener) {
+        long loadTimeNanos;
+        Thread loadingThread;
+        synchronized (sInitLock) {
+            sStartupListener = listener;
+            loadTimeNanos = sLoadTimeNanos;
+            loadingThread = sLoadingThread;
+        }
+        if (listener != null && loadTimeNanos >= 0) {
+            listener.onPreferencesLoaded(loadTimeNanos, loadingThread);
+        }
+    }
+
+    /**
+     * Returns the time it took to load the preferences, or -1 if they are not loaded yet.
+     */
+    public static long getLoadTimeNanos() {
+        return sLoadTimeNanos;
+    }
+
+    /** Returns the storage, creating the default SharedPreferences and waiting for its file to load on first use. */
+    static SharedPreferences preferences() {
+        SharedPreferences preferences = sPreferences;
+        if (preferences != null) {
+            return preferences;
+        }
+        StartupListener listener;
+        long loadTimeNanos;
+        synchronized (sInitLock) {
+            if (sPreferences != null) {
+                return sPreferences;
+            }
+            long start = System.nanoTime();
+            preferences = android.preference.PreferenceManager.getDefaultSharedPreferences(
+                    EhsApplication.getContext());
+            // SharedPreferences reads its file on a background thread; the first read waits for it.
+            preferences.contains("");
+            preferences.registerOnSharedPreferenceChangeListener(sChangeListener);
+            loadTimeNanos = System.nanoTime() - start;
+            sLoadTimeNanos = loadTimeNanos;
+            sLoadingThread = Thread.currentThread();
+            sPreferences = preferences;
+            listener = sStartupListener;
+        }
+        if (listener != null) {
+            listener.onPreferencesLoaded(loadTimeNanos, Thread.currentThread());
+        }
+        return preferences;
+    }
+
+    /** Returns the Gson instance used by the codecs, creating it on first use. */
+    static Gson gson() {
+        Gson result = gson;
+        if (result == null) {
+            synchronized (sInitLock) {
+                result = gson;
+                if (result == null) {
+                    result = PreferenceTypeAdapters.createGson();
+                    gson = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Drops the Gson instance, to be created again with the adapters registered in {@link PreferenceTypeAdapters}. */
+    static void onTypeAdaptersChanged() {
+        synchronized (sInitLock) {
+            gson = null;
+        }
+        sCache.clear();
+    }
+
+    /** Encodes the value the same way {@link #setObject(String, Object)} does. */
+    static String encode(String key, Object value) {
+        return getCodec(key).encode(value, value == null ? Object.class : value.getClass());
+    }
+
+    /** Returns the codec selected for the key, or the default codec. */
+    private static PreferenceCodec getCodec(String key) {
+        PreferenceCodec codec = sCodecs.get(key);
+        return codec != null ? codec : sDefaultCodec;
+    }
+
+    /**
+     * Applies the editor of a {@link PreferenceBatch}. The batch is newer than any coalesced write of the same keys,
+     * so those are dropped instead of being flushed over the batch later.
+     *
+     * @param editor  The editor holding the writes of the batch
+     * @param keys    The keys written by the batch
+     * @param cleared Whether the batch cleared the preferences
+     * @param commit  Whether to save synchronously
+     * @return The result of {@link SharedPreferences.Editor#commit()}, or true when applied asynchronously
+     */
+    static boolean applyBatch(SharedPreferences.Editor editor, Collection<String> keys, boolean cleared,
+            boolean commit) {
+        boolean result = true;
+        synchronized (sPendingLock) {
+            if (cleared) {
+                sPendingWrites.clear();
+            } else {
+                sPendingWrites.keySet().removeAll(keys);
+            }
+            if (commit) {
+                result = editor.commit();
+            } else {
+                editor.apply();
+            }
+        }
+        if (cleared) {
+            sCache.clear();
+            notifyClear();
+        }
+        // the storage reports the written keys to sChangeListener
+        for (String key : keys) {
+            sCache.remove(key);
+        }
+        return result;
+    }
+
+    /** Puts a String, Integer or Boolean value into the editor, or removes the key for null. */
+    static void putValue(SharedPreferences.Editor editor, String key, Object value) {
+        if (value == null || value == REMOVED) {
+            editor.remove(key);
+        } else if (value instanceof String) {
+            editor.putString(key, (String) value);
+        } else if (value instanceof Integer) {
+            editor.putInt(key, (Integer) value);
+        } else if (value instanceof Boolean) {
+            editor.putBoolean(key, (Boolean) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported preference value " + value.getClass());
+        }
+    }
+
+    /**
+     * Saves a value of one of the single setters, either immediately or in the coalescing window.
+     *
+     * @param key   The key to save the value
+     * @param value The String, Integer or Boolean value, or null to remove the key
+     */
+    private static void write(String key, Object value) {
+        synchronized (sPendingLock) {
+            if (sCoalescingWindow > 0) {
+                sPendingWrites.put(key, value == null ? REMOVED : value);
+                scheduleFlush();
+            } else {
+                SharedPreferences.Editor editor = preferences().edit();
+                putValue(editor, key, value);
+                editor.apply();
+            }
+        }
+        // the storage reports the write to sChangeListener once it is flushed
+        sCache.remove(key);
+    }
+
+    /** Returns the directory of the list store of the key, named so that any key is a valid file name. */
+    private static File listStoreDirectory(String key) {
+        String name = key.replaceAll("[^A-Za-z0-9._-]", "_") + "-" + Integer.toHexString(key.hashCode());
+        return new File(new File(EhsApplication.getContext().getFilesDir(), LIST_STORE_DIRECTORY), name);
+    }
+
+    /** Removes the elements of all the list stores, including the ones not opened yet. */
+    private static void clearListStores() {
+        synchronized (sListStores) {
+            for (PreferenceListStore<?> store : sListStores.values()) {
+                store.clear();
+            }
+            File[] directories = new File(EhsApplication.getContext().getFilesDir(), LIST_STORE_DIRECTORY).listFiles();
+            if (directories == null) {
+                return;
+            }
+            for (File directory : directories) {
+                File[] files = directory.listFiles();
+                if (files != null) {
+                    for (File file : files) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+    }
+
+    /** Unregisters a cancelled subscription. */
+    static void removeSubscription(PreferenceSubscription subscription) {
+        synchronized (sSubscriptions) {
+            List<PreferenceSubscription> subscriptions = sSubscriptions.get(subscription.getKey());
+            if (subscriptions != null) {
+                subscriptions.remove(subscription);
+                if (subscriptions.isEmpty()) {
+                    sSubscriptions.remove(subscription.getKey());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the value of the key the way {@link #observe} describes.
+     */
+    static Object readValue(String key, Type type) {
+        if (type == Integer.class || type == int.class) {
+            return getInt(key);
+        } else if (type == Boolean.class || type == boolean.class) {
+            return getBoolean(key);
+        } else if (type == String.class) {
+            return getString(key);
+        }
+        return getDecoded(key, type);
+    }
+
+    /**
+     * Tells the change listeners and the subscriptions that the preferences were cleared through this class, unless
+     * the storage reports the clear itself.
+     */
+    private static void notifyClear() {
+        if (!(preferences() instanceof MappedPreferences) && Build.VERSION.SDK_INT < API_CLEAR_REPORTED) {
+            notifySubscriptions(null);
+        }
+    }
+
+    /**
+     * Tells the change listeners and the subscriptions of the key, or of all keys for null, that the value may have
+     * changed.
+     */
+    private static void notifySubscriptions(String key) {
+        for (ChangeListener listener : sChangeListeners) {
+            listener.onPreferenceChanged(key);
+        }
+        if (sSubscriptions.isEmpty()) {
+            return;
+        }
+        if (key != null) {
+            List<PreferenceSubscription> subscriptions = sSubscriptions.get(key);
+            if (subscriptions != null) {
+                for (PreferenceSubscription subscription : subscriptions) {
+                    subscription.onKeyChanged();
+                }
+            }
+            return;
+        }
+        for (List<PreferenceSubscription> subscriptions : sSubscriptions.values()) {
+            for (PreferenceSubscription subscription : subscriptions) {
+                subscription.onKeyChanged();
+            }
+        }
+    }
+
+    /** Returns the background threads of this class, creating them on first use. */
+    static synchronized ScheduledExecutorService backgroundExecutor() {
+        if (sBackgroundExecutor == null) {
+            sBackgroundExecutor = Executors.newScheduledThreadPool(BACKGROUND_THREADS, new ThreadFactory() {
+                private int mCount = 0;
+
+                @Override
+                public synchronized Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "PreferenceWorker-" + ++mCount);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sBackgroundExecutor;
+    }
+
+    /**
+     * Runs the read on the background threads and delivers its result to the callback.
+     *
+     * @param read             The read to run
+     * @param callbackExecutor The executor to call the callback on, or null to call it on the background thread
+     * @param callback         The callback, may be null
+     * @return The future of the read
+     */
+    private static <T> Future<T> readAsync(Callable<T> read, final Executor callbackExecutor,
+            final PreferenceCallback<T> callback) {
+        FutureTask<T> task = new FutureTask<T>(read) {
+            @Override
+            protected void done() {
+                if (callback == null || isCancelled()) {
+                    return;
+                }
+                Runnable delivery;
+                try {
+                    final T value = get();
+                    delivery = new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onResult(value);
+                        }
+                    };
+                } catch (final Exception e) {
+                    delivery = new Runnable() {
+                        @Override
+                        public void run() {
+                            callback.onFailure(e.getCause() instanceof Exception ? (Exception) e.getCause() : e);
+                        }
+                    };
+                }
+                if (callbackExecutor != null) {
+                    callbackExecutor.execute(delivery);
+                } else {
+                    delivery.run();
+                }
+            }
+        };
+        backgroundExecutor().execute(task);
+        return task;
+    }
+
+    /** Schedules a flush at the end of the coalescing window, unless one is already scheduled. */
+    private static void scheduleFlush() {
+        if (sFlushScheduled) {
+            return;
+        }
+        backgroundExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        }, sCoalescingWindow, TimeUnit.MILLISECONDS);
+        sFlushScheduled = true;
+    }
+
+    /**
+     * Returns the string saved for the key, including a write still waiting in the coalescing window.
+     *
+     * @param key The key to retrieve the string
+     * @return The saved string or an empty string
+     */
+    private static String getStoredString(String key) {
+        Object pending = sPendingWrites.get(key);
+        if (pending != null) {
+            return pending == REMOVED ? "" : (String) pending;
+        }
+        return preferences().getString(key, "");
+    }
+
+    /**
+     * Returns the decoded value of the key, from the cache when possible.
+     *
+     * @param key  The key to retrieve the value
+     * @param type The type to decode the stored value into
+     * @return The decoded value or null if nothing is stored
+     */
+    private static Object getDecoded(String key, Type type) {
+        Object cached = sCache.get(key, type);
+        if (cached != null) {
+            return cached;
+        }
+        String jsonStr = getStoredString(key);
+        Object value = getCodec(key).decode(jsonStr, type);
+        // only cache when the key was not written while decoding. SharedPreferences hands out the same String
+        // instance until the value changes, so an identity check is enough here. Writers invalidate after applying,
+        // under the same lock, so a value cached here can never outlive a newer write.
+        synchronized (sCache) {
+            if (getStoredString(key) == jsonStr) {
+                sCache.put(key, type, value, jsonStr);
+            }
+        }
+        return value;
+    }
 }
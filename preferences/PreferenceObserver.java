@@ -0,0 +1,17 @@
+package com.vishnu.app;
+
+/**
+ * Used for receiving the values of a key observed with
+ * {@link PreferenceManager#observe(String, java.lang.reflect.Type, long, java.util.concurrent.Executor,
+ * PreferenceObserver)}.
+ *
+ * @param <T> The type of the value
+ */
+public interface PreferenceObserver<T> {
+    /**
+     * Called with the current value when observing starts, and with the new value whenever it changes.
+     * @param key   The observed key
+     * @param value The decoded value, or the default of the getter if nothing is stored
+     */
+    void onChanged(String key, T value);
+}
@@ -0,0 +1,123 @@
+package com.vishnu.app;
+
+import android.util.Log;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A registration of a {@link PreferenceObserver}, returned by
+ * {@link PreferenceManager#observe(String, Type, long, Executor, PreferenceObserver)}. A burst of changes within the
+ * coalescing window is delivered as one notification with the latest value, and values equal to the last delivered
+ * one are not delivered again.
+ * <p>
+ * The notifications of a subscription are delivered one at a time and in order: without an executor, the observer is
+ * never called by two threads at once, and with an executor they are handed to it in order, so an executor running its
+ * tasks in order, like one posting to the main thread, calls the observer in order too.
+ */
+public class PreferenceSubscription {
+
+    private static final String TAG = "PreferenceSubscription";
+
+    private final String mKey;
+    private final Type mType;
+    private final long mCoalesceMillis;
+    private final Executor mExecutor;
+    private final PreferenceObserver<Object> mObserver;
+    /** Whether a notification is already scheduled for the current window */
+    private final AtomicBoolean mScheduled = new AtomicBoolean(false);
+    /** Held while a notification is decoded and handed to the observer or the executor */
+    private final Object mDeliveryLock = new Object();
+    /** The last value delivered to the observer, guarded by {@link #mDeliveryLock} */
+    private Object mLastValue;
+    private boolean mDelivered = false;
+    private volatile boolean mCancelled = false;
+
+    @SuppressWarnings("unchecked")
+    PreferenceSubscription(String key, Type type, long coalesceMillis, Executor executor,
+            PreferenceObserver<?> observer) {
+        this.mKey = key;
+        this.mType = type;
+        this.mCoalesceMillis = coalesceMillis;
+        this.mExecutor = executor;
+        this.mObserver = (PreferenceObserver<Object>) observer;
+    }
+
+    /**
+     * Returns the observed key.
+     */
+    public String getKey() {
+        return mKey;
+    }
+
+    /**
+     * Stops the notifications. A notification already being delivered may still arrive.
+     */
+    public void cancel() {
+        mCancelled = true;
+        PreferenceManager.removeSubscription(this);
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /** Schedules a notification at the end of the coalescing window, unless one is already scheduled. */
+    void onKeyChanged() {
+        if (mCancelled || !mScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        PreferenceManager.backgroundExecutor().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mDeliveryLock) {
+                    // cleared first, so a change during the decoding schedules another notification
+                    mScheduled.set(false);
+                    deliver();
+                }
+            }
+        }, mCoalesceMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Decodes the current value on the background thread, and hands it to the observer if it changed. Called with
+     * {@link #mDeliveryLock} held.
+     */
+    private void deliver() {
+        if (mCancelled) {
+            return;
+        }
+        final Object value;
+        try {
+            value = PreferenceManager.readValue(mKey, mType);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Unable to decode the value of " + mKey, e);
+            return;
+        }
+        if (mDelivered && (value == null ? mLastValue == null : value.equals(mLastValue))) {
+            return;
+        }
+        mDelivered = true;
+        mLastValue = value;
+        Runnable delivery = new Runnable() {
+            @Override
+            public void run() {
+                if (mCancelled) {
+                    return;
+                }
+                try {
+                    mObserver.onChanged(mKey, value);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "The observer of " + mKey + " failed", e);
+                }
+            }
+        };
+        if (mExecutor != null) {
+            mExecutor.execute(delivery);
+        } else {
+            delivery.run();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.vishnu.app;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry of the precompiled {@link TypeAdapter}s used by {@link PreferenceManager} to store objects. Gson uses a
+ * registered adapter for its exact class before falling back to the reflective adapter, which avoids the reflection
+ * cost on the first use of each class and the per call reflective field access afterwards.
+ */
+public class PreferenceTypeAdapters {
+
+    /** The registered adapters, by the class they convert */
+    private static final Map<Class<?>, TypeAdapter<?>> sAdapters = new LinkedHashMap<>();
+
+    private PreferenceTypeAdapters() {
+    }
+
+    /**
+     * Registers the adapter used to store objects of exactly the given class. Registering another adapter for the same
+     * class replaces the earlier one. Register the adapters early, for example from Application.onCreate(), as each
+     * registration rebuilds the Gson instance and drops the decoded value cache of {@link PreferenceManager}.
+     *
+     * @param type    The class converted by the adapter
+     * @param adapter The adapter. It does not need to handle null values.
+     * @param <T>     The type converted by the adapter
+     */
+    public static <T> void register(Class<T> type, TypeAdapter<T> adapter) {
+        synchronized (sAdapters) {
+            sAdapters.put(type, adapter.nullSafe());
+        }
+        PreferenceManager.onTypeAdaptersChanged();
+    }
+
+    /**
+     * Returns whether an adapter is registered for the class.
+     */
+    public static boolean isRegistered(Class<?> type) {
+        synchronized (sAdapters) {
+            return sAdapters.containsKey(type);
+        }
+    }
+
+    /**
+     * Creates a Gson instance which uses all the registered adapters.
+     */
+    static Gson createGson() {
+        GsonBuilder builder = new GsonBuilder();
+        synchronized (sAdapters) {
+            for (Map.Entry<Class<?>, TypeAdapter<?>> entry : sAdapters.entrySet()) {
+                builder.registerTypeAdapter(entry.getKey(), entry.getValue());
+            }
+        }
+        return builder.create();
+    }
+}
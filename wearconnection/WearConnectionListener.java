@@ -3,18 +3,22 @@ package com.prokarma.wearpoc.connection;
 import android.content.Context;
 import android.os.Bundle;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.CommonStatusCodes;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.common.api.PendingResult;
 import com.google.android.gms.common.api.ResultCallback;
+import com.google.android.gms.common.api.Status;
 import com.google.android.gms.common.data.FreezableUtils;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
 import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
 import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.Node;
@@ -23,8 +27,16 @@ import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Listener used to handle the connection between the application and the wear.
@@ -32,6 +44,32 @@ import java.util.concurrent.TimeUnit;
 public class WearConnectionListener implements GoogleApiClient.ConnectionCallbacks,
         GoogleApiClient.OnConnectionFailedListener {
 
+    /**
+     * The most messages sent to nodes at the same time, by all the listeners
+     */
+    public static final int MAX_PARALLEL_SENDS = 4;
+    /**
+     * The keys keeping the sends of a DataItem path, or of a message path, in order in the {@link #mSendScheduler}
+     */
+    private static final String DATA_KEY_PREFIX = "data:";
+    private static final String MESSAGE_KEY_PREFIX = "message:";
+    /**
+     * Sends a message to each node on its own thread, so the nodes are waited for in parallel
+     */
+    private static final ThreadPoolExecutor sSendExecutor = new ThreadPoolExecutor(MAX_PARALLEL_SENDS,
+            MAX_PARALLEL_SENDS, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "WearSend");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    static {
+        sSendExecutor.allowCoreThreadTimeOut(true);
+    }
+
     /**
      * The GoogleApiClient to connect to GooglePlayServices to access the Wearable
      */
@@ -52,6 +90,50 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
      * The Listener used to dispatch Connection callback events
      */
     private WearConnectionCallBacks mConnectionCallBacks = null;
+    /**
+     * The nodes connected, so messages are sent without fetching them first
+     */
+    private final WearNodeCache mNodeCache = new WearNodeCache();
+    /**
+     * Guards {@link #mNodeFetchCallbacks}
+     */
+    private final Object mNodeFetchLock = new Object();
+    /**
+     * The callbacks waiting for the fetch of the connected nodes in flight, or null if there is none
+     */
+    private List<ResultCallback<NodeApi.GetConnectedNodesResult>> mNodeFetchCallbacks = null;
+    /**
+     * Gathers the messages of {@link #sendBatchedMessage(String, String)}. Created on first use.
+     */
+    private WearMessageBatcher mMessageBatcher = null;
+    /**
+     * The maps sent with {@link #sendDataDelta(String, DataMap)}, to send only their changes
+     */
+    private final WearDeltaSync mDeltaSender = new WearDeltaSync();
+    /**
+     * The maps received by {@link #getMergedData(DataItem)}, to merge the changes into
+     */
+    private final WearDeltaSync mDeltaReceiver = new WearDeltaSync();
+    /**
+     * Answers the requests for the full map of a path sent with {@link #sendDataDelta(String, DataMap)}
+     */
+    private final MessageApi.MessageListener mFullSyncListener = new MessageApi.MessageListener() {
+        @Override
+        public void onMessageReceived(MessageEvent messageEvent) {
+            if (!WearDeltaSync.PATH_FULL_SYNC.equals(messageEvent.getPath())) {
+                return;
+            }
+            String dataPath = new String(messageEvent.getData());
+            DataMap full = mDeltaSender.fullSync(dataPath);
+            if (full != null) {
+                putDelta(dataPath, full, null, WearSendScheduler.Priority.NORMAL);
+            }
+        }
+    };
+    /**
+     * Orders the asynchronous sends by priority and limits their rate
+     */
+    private final WearSendScheduler mSendScheduler = new WearSendScheduler();
 
 
     /**
@@ -94,6 +176,25 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
         return mGoogleApiClient;
     }
 
+    /**
+     * Returns the nodes connected to this device, as last known. The cache is kept up to date while connected; the
+     * {@link WearService} also feeds it the peer events it receives.
+     *
+     * @return WearNodeCache
+     */
+    public WearNodeCache getNodeCache() {
+        return mNodeCache;
+    }
+
+    /**
+     * Returns the scheduler of the asynchronous sends, for example to change the rate limits of its priorities.
+     *
+     * @return WearSendScheduler
+     */
+    public WearSendScheduler getSendScheduler() {
+        return mSendScheduler;
+    }
+
     /**
      * Connects the {@link #mGoogleApiClient} to Google Play services. This method returns
      * immediately,
@@ -137,6 +238,8 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
      */
     public void disConnect() {
         try {
+            flushMessages();
+            mSendScheduler.flush();
             if (mDataListener != null) {
                 Wearable.DataApi.removeListener(mGoogleApiClient, mDataListener);
             }
@@ -146,6 +249,10 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
             if (mNodeListener != null) {
                 Wearable.NodeApi.removeListener(mGoogleApiClient, mNodeListener);
             }
+            Wearable.NodeApi.removeListener(mGoogleApiClient, mNodeCache);
+            Wearable.MessageApi.removeListener(mGoogleApiClient, mFullSyncListener);
+            mNodeCache.invalidate();
+            abandonNodeFetch();
 
             if ((mGoogleApiClient != null) &&
                     (mGoogleApiClient.isConnected() || mGoogleApiClient.isConnecting())) {
@@ -167,6 +274,14 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
         if (mNodeListener != null) {
             Wearable.NodeApi.addListener(mGoogleApiClient, mNodeListener);
         }
+        Wearable.NodeApi.addListener(mGoogleApiClient, mNodeCache);
+        Wearable.MessageApi.addListener(mGoogleApiClient, mFullSyncListener);
+        /** The first delta of a new connection carries the full maps */
+        mDeltaSender.reset();
+        /** Fetched now so the first message does not wait for the nodes */
+        if (mNodeCache.isStale()) {
+            fetchConnectedNodes(null);
+        }
 
         // TODO  Vishnu : check this callback is needed
         if (mConnectionCallBacks != null) {
@@ -176,6 +291,8 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
 
     @Override
     public void onConnectionSuspended(int cause) {
+        mNodeCache.invalidate();
+        abandonNodeFetch();
         if (mConnectionCallBacks != null) {
             mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.CONNECTION_SUSPENDED);
         }
@@ -216,13 +333,31 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
     }
 
     /**
-     * Returns the message received from the callback
+     * Returns the message received from the callback. If the sender batched several messages into this event, the
+     * last one is returned; use {@link #getMessages(MessageEvent, String)} to get them all.
      *
      * @param messageEvent The message event that contains the message
      * @param messagePath  The path of the message intended to
      * @return The string message or null
      */
     public String getMessage(MessageEvent messageEvent, String messagePath) {
+        List<String> messages = getMessages(messageEvent, messagePath);
+        if (messages == null) {
+            return null;
+        } else {
+            return messages.get(messages.size() - 1);
+        }
+    }
+
+    /**
+     * Returns the messages received from the callback, unpacking the messages batched by the sender with
+     * {@link #sendBatchedMessage(String, String)}.
+     *
+     * @param messageEvent The message event that contains the messages
+     * @param messagePath  The path of the messages intended to
+     * @return The string messages, in the order they were sent, or null
+     */
+    public List<String> getMessages(MessageEvent messageEvent, String messagePath) {
         if (messagePath == null) {
             if (mConnectionCallBacks != null) {
                 mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.PATH_NULL_ERROR);
@@ -232,12 +367,124 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
         String path = messageEvent.getPath();
 
         if (messagePath.equalsIgnoreCase(path)) {
-            return new String(messageEvent.getData());
+            List<byte[]> data = WearMessageBatcher.unpack(messageEvent.getData());
+            List<String> messages = new ArrayList<>(data.size());
+            for (byte[] message : data) {
+                messages.add(new String(message));
+            }
+            return messages;
         } else {
             return null;
         }
     }
 
+    /**
+     * Returns the full data of a DataItem, merging the changes sent with {@link #sendDataDelta(String, DataMap)} into
+     * the data last received for its path. The DataItems of the other sendData methods are returned as is.
+     *
+     * @param dataItem The data item received
+     * @return The full data, or null if the item holds changes to data not received yet, for example after this side
+     * restarted. The sender is then asked for the full data, which arrives as a new DataItem.
+     */
+    public DataMap getMergedData(DataItem dataItem) {
+        String dataPath = dataItem.getUri().getPath();
+        DataMap merged = mDeltaReceiver.decode(dataPath, DataMapItem.fromDataItem(dataItem).getDataMap());
+        if (merged == null && isConnected() && mDeltaReceiver.shouldRequestFullSync(dataPath)) {
+            /** The host of the item is the node which put it */
+            Wearable.MessageApi.sendMessage(mGoogleApiClient, dataItem.getUri().getHost(),
+                    WearDeltaSync.PATH_FULL_SYNC, dataPath.getBytes());
+        }
+        return merged;
+    }
+
+    /**
+     * Adds DataItem to the Android Wear network, holding only the keys which changed since the last call for the
+     * path. Nothing is sent if only {@link WearConnectionConstants.KEY#CURRENT_TIME} changed. The receiver gets the
+     * full data with {@link #getMergedData(DataItem)}.
+     *
+     * @param dataPath The path to the data
+     * @param data     The full data, not to be modified afterwards
+     * @return true if the changes were sent, false if nothing changed or the data could not be sent
+     */
+    public boolean sendDataDelta(String dataPath, DataMap data) {
+        return sendDataDelta(dataPath, data, null, true);
+    }
+
+    /**
+     * Adds DataItem to the Android Wear network, holding only the keys which changed since the last call for the
+     * path. Nothing is sent if only {@link WearConnectionConstants.KEY#CURRENT_TIME} changed. The receiver gets the
+     * full data with {@link #getMergedData(DataItem)}.
+     *
+     * @param dataPath        The path to the data
+     * @param data            The full data, not to be modified afterwards
+     * @param callBack        The callback to receive the response
+     * @param sendImmediately see {@link #sendData(String, DataMap, boolean)}
+     * @return true if the changes were sent, false if nothing changed or the data could not be sent
+     */
+    public boolean sendDataDelta(String dataPath, DataMap data, ResultCallback<DataApi.DataItemResult> callBack,
+            boolean sendImmediately) {
+        return sendDataDelta(dataPath, data, callBack,
+                sendImmediately ? WearSendScheduler.Priority.NORMAL : WearSendScheduler.Priority.BULK);
+    }
+
+    /**
+     * Adds DataItem to the Android Wear network, holding only the keys which changed since the last call for the
+     * path. Nothing is sent if only {@link WearConnectionConstants.KEY#CURRENT_TIME} changed. The receiver gets the
+     * full data with {@link #getMergedData(DataItem)}. The changes are never coalesced, even in
+     * {@link WearSendScheduler.Priority#BULK}, as each builds on the previous one.
+     *
+     * @param dataPath The path to the data
+     * @param data     The full data, not to be modified afterwards
+     * @param callBack The callback to receive the response
+     * @param priority The priority of the send
+     * @return true if the changes were sent, false if nothing changed or the data could not be sent
+     */
+    public boolean sendDataDelta(String dataPath, DataMap data, ResultCallback<DataApi.DataItemResult> callBack,
+            WearSendScheduler.Priority priority) {
+        if (!isConnected()) {
+            if (mConnectionCallBacks != null) {
+                mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.NETWORK_ERROR);
+            }
+            return false;
+        } else if (dataPath == null) {
+            if (mConnectionCallBacks != null) {
+                mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.PATH_NULL_ERROR);
+            }
+            return false;
+        } else if (data == null) {
+            Log.d("Send DataMap", "Data cannot be null");
+            return false;
+        }
+
+        DataMap delta = mDeltaSender.encode(dataPath, data);
+        if (delta == null) {
+            return false;
+        }
+        return putDelta(dataPath, delta, callBack, priority);
+    }
+
+    /**
+     * Puts a DataMap of the {@link #mDeltaSender}, reporting the result of the put back to it.
+     *
+     * @return true if the put was handed to the {@link #mSendScheduler}
+     */
+    private boolean putDelta(final String dataPath, final DataMap delta,
+            final ResultCallback<DataApi.DataItemResult> callBack, WearSendScheduler.Priority priority) {
+        boolean submitted = sendData(dataPath, delta, new ResultCallback<DataApi.DataItemResult>() {
+            @Override
+            public void onResult(DataApi.DataItemResult dataItemResult) {
+                mDeltaSender.onPutResult(dataPath, delta, dataItemResult.getStatus().isSuccess());
+                if (callBack != null) {
+                    callBack.onResult(dataItemResult);
+                }
+            }
+        }, true, priority, false);
+        if (!submitted) {
+            mDeltaSender.onPutResult(dataPath, delta, false);
+        }
+        return submitted;
+    }
+
     /**
      * Adds DataItem to the Android Wear network. The updated item is synchronized across all
      * devices.
@@ -311,7 +558,9 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
      * @param dataPath        The path to the data
      * @param data            The data to send
      * @param callBack        The callback to receive the response
-     * @param isAsynchronous  send data asynchronously
+     * @param isAsynchronous  send data asynchronously, through the {@link WearSendScheduler} as a
+     *                        {@link WearSendScheduler.Priority#NORMAL} send if sendImmediately, or else as a
+     *                        {@link WearSendScheduler.Priority#BULK} one
      * @param sendImmediately source : http://android-developers.blogspot.in/2015/11/whats-new-in-google-play-services-83.html
      *                        With Google Play services 8.3, we’ve updated the DataApi to allow for urgency in how
      *                        data items are synced. Now, a priority can be added to the data item to determine when
@@ -324,19 +573,66 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
      */
     public void sendData(String dataPath, DataMap data, ResultCallback<DataApi.DataItemResult> callBack,
             boolean isAsynchronous, boolean sendImmediately) {
+        sendData(dataPath, data, callBack, isAsynchronous,
+                sendImmediately ? WearSendScheduler.Priority.NORMAL : WearSendScheduler.Priority.BULK, true);
+    }
+
+    /**
+     * Adds DataItem to the Android Wear network through the {@link WearSendScheduler}. The updated item is
+     * synchronized across all devices.
+     *
+     * @param dataPath The path to the data
+     * @param data     The data to send
+     * @param priority The priority of the send. The {@link WearSendScheduler.Priority#BULK} items are synced with
+     *                 setUrgent() off. Whatever the priority, the item supersedes an item of the path still
+     *                 queued, whose callback gets a CommonStatusCodes.CANCELED status.
+     */
+    public void sendData(String dataPath, DataMap data, WearSendScheduler.Priority priority) {
+        sendData(dataPath, data, null, true, priority, true);
+    }
+
+    /**
+     * Adds DataItem to the Android Wear network through the {@link WearSendScheduler}. The updated item is
+     * synchronized across all devices.
+     *
+     * @param dataPath The path to the data
+     * @param data     The data to send
+     * @param callBack The callback to receive the response
+     * @param priority The priority of the send. The {@link WearSendScheduler.Priority#BULK} items are synced with
+     *                 setUrgent() off. Whatever the priority, the item supersedes an item of the path still
+     *                 queued, whose callback gets a CommonStatusCodes.CANCELED status.
+     */
+    public void sendData(String dataPath, DataMap data, ResultCallback<DataApi.DataItemResult> callBack,
+            WearSendScheduler.Priority priority) {
+        sendData(dataPath, data, callBack, true, priority, true);
+    }
+
+    /**
+     * Adds DataItem to the Android Wear network.
+     *
+     * @param dataPath       The path to the data
+     * @param data           The data to send
+     * @param callBack       The callback to receive the response
+     * @param isAsynchronous send data asynchronously, through the {@link #mSendScheduler}
+     * @param priority       The priority of the send
+     * @param coalesce       Whether a bulk item may be replaced by the next one for the path before it is sent
+     * @return false if the item could not be sent, in which case the callback is not called
+     */
+    private boolean sendData(String dataPath, DataMap data, final ResultCallback<DataApi.DataItemResult> callBack,
+            boolean isAsynchronous, WearSendScheduler.Priority priority, boolean coalesce) {
         if (!isConnected()) {
             if (mConnectionCallBacks != null) {
                 mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.NETWORK_ERROR);
             }
-            return;
+            return false;
         } else if (dataPath == null) {
             if (mConnectionCallBacks != null) {
                 mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.PATH_NULL_ERROR);
             }
-            return;
+            return false;
         } else if (data == null) {
             Log.d("Send DataMap", "Data cannot be null");
-            return;
+            return false;
         }
 
         PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(dataPath);
@@ -346,28 +642,46 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
         putDataMapRequest.getDataMap().putString(WearConnectionConstants.KEY.CURRENT_TIME,
                 String.valueOf(System.currentTimeMillis()));
 
-        PutDataRequest request = putDataMapRequest.asPutDataRequest();
+        final PutDataRequest request = putDataMapRequest.asPutDataRequest();
 
         // update from google play service 8.3. refer comments above
-        if (sendImmediately) { request.setUrgent(); }
+        if (priority != WearSendScheduler.Priority.BULK) { request.setUrgent(); }
 
         if (isAsynchronous) {
-            /** You will get callback after data is sent use the below code */
-            PendingResult<DataApi.DataItemResult> dataResult =
-                    Wearable.DataApi.putDataItem(mGoogleApiClient, request);
-            if (callBack != null) {
-                dataResult.setResultCallback(callBack);
-            }
+            mSendScheduler.submit(priority, DATA_KEY_PREFIX + dataPath, coalesce, new Runnable() {
+                @Override
+                public void run() {
+                    if (!isConnected()) {
+                        if (mConnectionCallBacks != null) {
+                            mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.NETWORK_ERROR);
+                        }
+                        completeDataCallback(callBack, CommonStatusCodes.NETWORK_ERROR);
+                        return;
+                    }
+                    /** You will get callback after data is sent use the below code */
+                    PendingResult<DataApi.DataItemResult> dataResult =
+                            Wearable.DataApi.putDataItem(mGoogleApiClient, request);
+                    if (callBack != null) {
+                        dataResult.setResultCallback(callBack);
+                    }
+                }
+            }, new Runnable() {
+                @Override
+                public void run() {
+                    completeDataCallback(callBack, CommonStatusCodes.CANCELED);
+                }
+            });
         } else {
             if (isRunningOnMainThread()) {
                 if (mConnectionCallBacks != null) {
                     mConnectionCallBacks.onConnectionFailed(
                             WearConnectionCallBacks.METHOD_CALLED_FROM_UI_THREAD);
                 }
-                return;
+                return false;
             }
             Wearable.DataApi.putDataItem(mGoogleApiClient, request).await();
         }
+        return true;
     }
 
     /**
@@ -416,47 +730,366 @@ public class WearConnectionListener implements GoogleApiClient.ConnectionCallbac
         }
 
         if (isAsynchronous) {
-            Wearable.NodeApi.getConnectedNodes(mGoogleApiClient)
-                    .setResultCallback(new ResultCallback<NodeApi
-                            .GetConnectedNodesResult>() {
-                        @Override
-                        public void onResult(
-                                NodeApi.GetConnectedNodesResult connectedNodesResult) {
-                            List<Node> connectedNodes = connectedNodesResult.getNodes();
-
-                            for (Node node : connectedNodes) {
-
-                                String nodeId = node.getId();
-                                PendingResult<MessageApi.SendMessageResult> messageResult = Wearable.MessageApi
-                                        .sendMessage(mGoogleApiClient, nodeId, messagePath,
-                                                message.getBytes());
-                                if (callback != null) {
-                                    messageResult.setResultCallback(callback);
-                                }
+            scheduleMessage(messagePath, message.getBytes(), callback, WearSendScheduler.Priority.NORMAL);
+        } else {
+            sendMessageAndWait(messagePath, message, 0);
+        }
+
+    }
+
+    /**
+     * Sends the message to all the connected nodes in parallel, and waits for their responses. This is not allowed on
+     * the UI thread.
+     *
+     * @param messagePath   The path of the message
+     * @param message       The message to send
+     * @param timeoutMillis The time to wait for all the nodes, including the time to find them, or 0 to wait until
+     *                      they all respond. The nodes which have not responded in time get a
+     *                      CommonStatusCodes.TIMEOUT status.
+     * @return The response of every node, or null if the message could not be sent, the cause being reported to the
+     * {@link WearConnectionCallBacks}. If the nodes could not be found, the result holds no node and the status of
+     * the lookup, see {@link WearSendResult#getNodesStatus()}.
+     */
+    public WearSendResult sendMessageAndWait(final String messagePath, String message, long timeoutMillis) {
+        if (!isConnected()) {
+            if (mConnectionCallBacks != null) {
+                mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.NETWORK_ERROR);
+            }
+            return null;
+        } else if (messagePath == null) {
+            if (mConnectionCallBacks != null) {
+                mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.PATH_NULL_ERROR);
+            }
+            return null;
+        } else if (isRunningOnMainThread()) {
+            if (mConnectionCallBacks != null) {
+                mConnectionCallBacks.onConnectionFailed(
+                        WearConnectionCallBacks.METHOD_CALLED_FROM_UI_THREAD);
+            }
+            return null;
+        }
+
+        final long start = SystemClock.elapsedRealtime();
+        final long deadline = timeoutMillis > 0 ? start + timeoutMillis : Long.MAX_VALUE;
+        final byte[] data = message.getBytes();
+
+        List<Node> connectedNodes;
+        if (mNodeCache.isStale()) {
+            int generation = mNodeCache.getGeneration();
+            PendingResult<NodeApi.GetConnectedNodesResult> pendingNodes =
+                    Wearable.NodeApi.getConnectedNodes(mGoogleApiClient);
+            NodeApi.GetConnectedNodesResult connectedNodesResult = deadline == Long.MAX_VALUE
+                    ? pendingNodes.await()
+                    : pendingNodes.await(Math.max(0, deadline - start), TimeUnit.MILLISECONDS);
+            if (!connectedNodesResult.getStatus().isSuccess()) {
+                return new WearSendResult(connectedNodesResult.getStatus(),
+                        new ArrayList<WearSendResult.NodeResult>(), SystemClock.elapsedRealtime() - start);
+            }
+            connectedNodes = connectedNodesResult.getNodes();
+            mNodeCache.setNodes(connectedNodes, generation);
+        } else {
+            connectedNodes = mNodeCache.getNodes();
+        }
+
+        List<Future<WearSendResult.NodeResult>> futures = new ArrayList<>(connectedNodes.size());
+        for (Node node : connectedNodes) {
+            final String nodeId = node.getId();
+            futures.add(sSendExecutor.submit(new Callable<WearSendResult.NodeResult>() {
+                @Override
+                public WearSendResult.NodeResult call() {
+                    PendingResult<MessageApi.SendMessageResult> pendingResult =
+                            Wearable.MessageApi.sendMessage(mGoogleApiClient, nodeId, messagePath, data);
+                    MessageApi.SendMessageResult result = deadline == Long.MAX_VALUE
+                            ? pendingResult.await()
+                            : pendingResult.await(Math.max(0, deadline - SystemClock.elapsedRealtime()),
+                                    TimeUnit.MILLISECONDS);
+                    return new WearSendResult.NodeResult(nodeId, result.getStatus(),
+                            SystemClock.elapsedRealtime() - start);
+                }
+            }));
+        }
+
+        List<WearSendResult.NodeResult> results = new ArrayList<>(futures.size());
+        boolean interrupted = false;
+        for (int i = 0; i < futures.size(); i++) {
+            Future<WearSendResult.NodeResult> future = futures.get(i);
+            String nodeId = connectedNodes.get(i).getId();
+            int failure;
+            try {
+                if (interrupted) {
+                    failure = CommonStatusCodes.INTERRUPTED;
+                } else if (deadline == Long.MAX_VALUE) {
+                    results.add(future.get());
+                    continue;
+                } else {
+                    long remaining = Math.max(0, deadline - SystemClock.elapsedRealtime());
+                    results.add(future.get(remaining, TimeUnit.MILLISECONDS));
+                    continue;
+                }
+            } catch (TimeoutException e) {
+                failure = CommonStatusCodes.TIMEOUT;
+            } catch (ExecutionException e) {
+                Log.e("Send Message", "Sending to " + nodeId + " failed", e.getCause());
+                failure = CommonStatusCodes.INTERNAL_ERROR;
+            } catch (InterruptedException e) {
+                interrupted = true;
+                failure = CommonStatusCodes.INTERRUPTED;
+            }
+            future.cancel(true);
+            results.add(new WearSendResult.NodeResult(nodeId, new Status(failure),
+                    SystemClock.elapsedRealtime() - start));
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return new WearSendResult(new Status(CommonStatusCodes.SUCCESS), results,
+                SystemClock.elapsedRealtime() - start);
+    }
+
+    /**
+     * Sends the message to all the connected nodes through the {@link WearSendScheduler}.
+     *
+     * @param messagePath The path of the message
+     * @param message     The message to send
+     * @param callback    The callback to receive the response of each node, or null
+     * @param priority    The priority of the send. A {@link WearSendScheduler.Priority#BULK} message is dropped, its
+     *                    callback getting a CommonStatusCodes.CANCELED status, if another bulk message is sent to
+     *                    the path before it leaves the queue.
+     */
+    public void sendMessage(String messagePath, String message,
+            ResultCallback<MessageApi.SendMessageResult> callback, WearSendScheduler.Priority priority) {
+        if (!isConnected()) {
+            if (mConnectionCallBacks != null) {
+                mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.NETWORK_ERROR);
+            }
+            return;
+        } else if (messagePath == null) {
+            if (mConnectionCallBacks != null) {
+                mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.PATH_NULL_ERROR);
+            }
+            return;
+        }
+        scheduleMessage(messagePath, message.getBytes(), callback, priority);
+    }
+
+    /**
+     * Hands the message to the {@link #mSendScheduler}, sending it once its priority allows.
+     */
+    private void scheduleMessage(final String messagePath, final byte[] data,
+            final ResultCallback<MessageApi.SendMessageResult> callback, WearSendScheduler.Priority priority) {
+        mSendScheduler.submit(priority, MESSAGE_KEY_PREFIX + messagePath, priority == WearSendScheduler.Priority.BULK,
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!isConnected()) {
+                            if (mConnectionCallBacks != null) {
+                                mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.NETWORK_ERROR);
                             }
+                            completeMessageCallback(callback, CommonStatusCodes.NETWORK_ERROR);
+                            return;
                         }
-                    });
-        } else {
-            if (isRunningOnMainThread()) {
-                if (mConnectionCallBacks != null) {
-                    mConnectionCallBacks.onConnectionFailed(
-                            WearConnectionCallBacks.METHOD_CALLED_FROM_UI_THREAD);
+                        sendMessage(messagePath, data, callback);
+                    }
+                }, new Runnable() {
+                    @Override
+                    public void run() {
+                        completeMessageCallback(callback, CommonStatusCodes.CANCELED);
+                    }
+                });
+    }
+
+    /**
+     * Completes the callback of a put which was not sent.
+     *
+     * @param callBack   The callback, or null
+     * @param statusCode The CommonStatusCodes reason
+     */
+    private static void completeDataCallback(ResultCallback<DataApi.DataItemResult> callBack, int statusCode) {
+        if (callBack == null) {
+            return;
+        }
+        final Status status = new Status(statusCode);
+        callBack.onResult(new DataApi.DataItemResult() {
+            @Override
+            public DataItem getDataItem() {
+                return null;
+            }
+
+            @Override
+            public Status getStatus() {
+                return status;
+            }
+        });
+    }
+
+    /**
+     * Completes the callback of a message which was not sent.
+     *
+     * @param callback   The callback, or null
+     * @param statusCode The CommonStatusCodes reason
+     */
+    private static void completeMessageCallback(ResultCallback<MessageApi.SendMessageResult> callback,
+            int statusCode) {
+        if (callback == null) {
+            return;
+        }
+        final Status status = new Status(statusCode);
+        callback.onResult(new MessageApi.SendMessageResult() {
+            @Override
+            public int getRequestId() {
+                return MessageApi.UNKNOWN_REQUEST_ID;
+            }
+
+            @Override
+            public Status getStatus() {
+                return status;
+            }
+        });
+    }
+
+    /**
+     * Sends the message to all the connected nodes after a short delay, together with the other messages sent to the
+     * path meanwhile, in one MessageApi call. The receiver gets them with
+     * {@link #getMessages(MessageEvent, String)}, or {@link WearService#onMessage(MessageEvent, byte[])}.
+     *
+     * @param messagePath The path of the message
+     * @param message     The message to send
+     */
+    public void sendBatchedMessage(String messagePath, String message) {
+        if (!isConnected()) {
+            if (mConnectionCallBacks != null) {
+                mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.NETWORK_ERROR);
+            }
+            return;
+        } else if (messagePath == null) {
+            if (mConnectionCallBacks != null) {
+                mConnectionCallBacks.onConnectionFailed(WearConnectionCallBacks.PATH_NULL_ERROR);
+            }
+            return;
+        }
+        getMessageBatcher().add(messagePath, message.getBytes());
+    }
+
+    /**
+     * Sends the messages waiting to be batched now.
+     */
+    public void flushMessages() {
+        WearMessageBatcher batcher;
+        synchronized (this) {
+            batcher = mMessageBatcher;
+        }
+        if (batcher != null) {
+            batcher.flushAll();
+        }
+    }
+
+    private synchronized WearMessageBatcher getMessageBatcher() {
+        if (mMessageBatcher == null) {
+            mMessageBatcher = new WearMessageBatcher(new WearMessageBatcher.Sender() {
+                @Override
+                public void send(String path, byte[] payload) {
+                    if (isConnected()) {
+                        scheduleMessage(path, payload, null, WearSendScheduler.Priority.NORMAL);
+                    }
                 }
-                return;
+            });
+        }
+        return mMessageBatcher;
+    }
+
+    /**
+     * Sends the message to all the connected nodes without waiting, fetching the nodes first if the
+     * {@link #mNodeCache} is stale.
+     *
+     * @param messagePath The path of the message
+     * @param data        The message to send
+     * @param callback    The callback to receive the response of each node, or null
+     */
+    private void sendMessage(final String messagePath, final byte[] data,
+            final ResultCallback<MessageApi.SendMessageResult> callback) {
+        if (!mNodeCache.isStale()) {
+            sendMessage(mNodeCache.getNodes(), messagePath, data, callback);
+            return;
+        }
+        fetchConnectedNodes(new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+            @Override
+            public void onResult(NodeApi.GetConnectedNodesResult connectedNodesResult) {
+                sendMessage(connectedNodesResult.getNodes(), messagePath, data, callback);
             }
-            NodeApi.GetConnectedNodesResult connectedNodesResult = Wearable.NodeApi
-                    .getConnectedNodes(mGoogleApiClient).await();
-            List<Node> connectedNodes = connectedNodesResult.getNodes();
+        });
+    }
 
-            for (Node node : connectedNodes) {
+    /**
+     * Sends the message to the nodes without waiting.
+     *
+     * @param connectedNodes The nodes to send to
+     * @param messagePath    The path of the message
+     * @param data           The message to send
+     * @param callback       The callback to receive the response of each node, or null
+     */
+    private void sendMessage(List<Node> connectedNodes, String messagePath, byte[] data,
+            ResultCallback<MessageApi.SendMessageResult> callback) {
+        for (Node node : connectedNodes) {
 
-                String nodeId = node.getId();
-                Wearable.MessageApi
-                        .sendMessage(mGoogleApiClient, nodeId, messagePath, message.getBytes())
-                        .await();
+            String nodeId = node.getId();
+            PendingResult<MessageApi.SendMessageResult> messageResult = Wearable.MessageApi
+                    .sendMessage(mGoogleApiClient, nodeId, messagePath, data);
+            if (callback != null) {
+                messageResult.setResultCallback(callback);
             }
         }
+    }
 
+    /**
+     * Fetches the connected nodes from Google Play services into the {@link #mNodeCache}. A call made while a fetch is
+     * in flight waits for that fetch instead of starting its own, so a burst of sends finding the cache stale makes a
+     * single NodeApi call.
+     *
+     * @param callback The callback to receive the nodes, or null
+     */
+    private void fetchConnectedNodes(ResultCallback<NodeApi.GetConnectedNodesResult> callback) {
+        final List<ResultCallback<NodeApi.GetConnectedNodesResult>> callbacks;
+        synchronized (mNodeFetchLock) {
+            if (mNodeFetchCallbacks != null) {
+                if (callback != null) {
+                    mNodeFetchCallbacks.add(callback);
+                }
+                return;
+            }
+            callbacks = new ArrayList<>();
+            if (callback != null) {
+                callbacks.add(callback);
+            }
+            mNodeFetchCallbacks = callbacks;
+        }
+        final int generation = mNodeCache.getGeneration();
+        Wearable.NodeApi.getConnectedNodes(mGoogleApiClient)
+                .setResultCallback(new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                    @Override
+                    public void onResult(NodeApi.GetConnectedNodesResult connectedNodesResult) {
+                        if (connectedNodesResult.getStatus().isSuccess()) {
+                            mNodeCache.setNodes(connectedNodesResult.getNodes(), generation);
+                        }
+                        synchronized (mNodeFetchLock) {
+                            if (mNodeFetchCallbacks == callbacks) {
+                                mNodeFetchCallbacks = null;
+                            }
+                        }
+                        for (ResultCallback<NodeApi.GetConnectedNodesResult> callback : callbacks) {
+                            callback.onResult(connectedNodesResult);
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Forgets the fetch of the connected nodes in flight, whose result is never delivered once the client
+     * disconnects, so the next send starts a new one.
+     */
+    private void abandonNodeFetch() {
+        synchronized (mNodeFetchLock) {
+            mNodeFetchCallbacks = null;
+        }
     }
 
     /**
@@ -0,0 +1,251 @@
+package com.prokarma.wearpoc.connection;
+
+import android.os.SystemClock;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Sends only the keys of a DataMap which changed since the last send to its path, and rebuilds the whole map on the
+ * receiving side. The sender calls {@link #encode(String, DataMap)}, the receiver {@link #decode(String, DataMap)},
+ * each with its own instance.
+ * <p>
+ * A DataItem only keeps its last state, so a receiver may miss deltas, for example when several are put while it is
+ * not connected, or when it starts after them. Every delta therefore carries its sequence number and the sequence
+ * number of the state it applies to; a receiver which does not have that state ignores it and asks the sender for the
+ * full map, see {@link #shouldRequestFullSync(String)} and {@link #fullSync(String)}. The first send to a path after
+ * {@link #reset()}, and every {@link #FULL_SYNC_INTERVAL}th send, carries the full map too.
+ * <p>
+ * The sender reports the result of every put with {@link #onPutResult(String, DataMap, boolean)}. A delta which was
+ * not put makes the next send to its path carry the full map, as the receiver never got it.
+ */
+public class WearDeltaSync {
+
+    /** The number of deltas after which the full map is sent again */
+    public static final int FULL_SYNC_INTERVAL = 20;
+    /** The path of the message asking the sender for the full map of the data path it holds */
+    public static final String PATH_FULL_SYNC = "/delta/fullsync/";
+    /** The time after which a receiver still missing the full map asks for it again */
+    public static final long FULL_SYNC_RETRY_INTERVAL = 5 * 1000;   // IN MILLI SECONDS
+
+    /** The sequence number of the map */
+    static final String KEY_SEQUENCE = "Delta_Sequence";
+    /** The sequence number of the map the delta applies to, or -1 for a full map */
+    static final String KEY_BASE = "Delta_Base";
+    /** The keys removed since the base map */
+    static final String KEY_REMOVED_KEYS = "Delta_Removed_Keys";
+
+    /** The maps last sent or received, by path */
+    private final Map<String, State> mStates = new HashMap<>();
+    private final Random mRandom = new Random();
+    /** The SystemClock.elapsedRealtime() of the last request for the full map, by path, until it is received */
+    private final Map<String, Long> mFullSyncRequests = new HashMap<>();
+
+    /**
+     * Returns the DataMap to send for the data, holding only the keys which changed since the last call for the path.
+     * The {@link WearConnectionConstants.KEY#CURRENT_TIME} key is not compared. The data must not be modified after
+     * the call. The result of the put of the DataMap must be reported with
+     * {@link #onPutResult(String, DataMap, boolean)}.
+     *
+     * @param path The path of the data
+     * @param data The full data
+     * @return The delta, or null if nothing changed
+     */
+    public synchronized DataMap encode(String path, DataMap data) {
+        State state = mStates.get(path);
+        DataMap delta = new DataMap();
+        delta.putAll(data);
+        delta.remove(WearConnectionConstants.KEY.CURRENT_TIME);
+        DataMap sent = new DataMap();
+        sent.putAll(delta);
+
+        ArrayList<String> removedKeys = new ArrayList<>();
+        if (state != null) {
+            boolean changed = false;
+            for (String key : data.keySet()) {
+                if (isIgnored(key)) {
+                    continue;
+                }
+                if (state.mMap.containsKey(key) && equals(state.mMap.get(key), data.get(key))) {
+                    delta.remove(key);
+                } else {
+                    changed = true;
+                }
+            }
+            for (String key : state.mMap.keySet()) {
+                if (!data.containsKey(key)) {
+                    removedKeys.add(key);
+                }
+            }
+            if (!changed && removedKeys.isEmpty()) {
+                return null;
+            }
+        }
+
+        long sequence;
+        if (state == null || state.mDeltas >= FULL_SYNC_INTERVAL) {
+            // a new path starts at a random sequence number, so a receiver never takes a delta of this session for
+            // one of an earlier session
+            sequence = state == null ? mRandom.nextLong() >>> 2 : state.mSequence + 1;
+            state = new State();
+            mStates.put(path, state);
+            delta = copy(sent);
+            delta.putLong(KEY_BASE, -1);
+        } else {
+            sequence = state.mSequence + 1;
+            state.mDeltas++;
+            delta.putLong(KEY_BASE, state.mSequence);
+            if (!removedKeys.isEmpty()) {
+                delta.putStringArray(KEY_REMOVED_KEYS, removedKeys.toArray(new String[removedKeys.size()]));
+            }
+        }
+        delta.putLong(KEY_SEQUENCE, sequence);
+        state.mSequence = sequence;
+        state.mMap = sent;
+        state.mUnconfirmed.add(sequence);
+        return delta;
+    }
+
+    /**
+     * Returns the full map last sent to the path, to send again at the request of a receiver which is missing it. The
+     * map is numbered after the deltas already sent, so it is not taken for one of them.
+     *
+     * @param path The path of the data
+     * @return The full map, to be reported with {@link #onPutResult(String, DataMap, boolean)}, or null if nothing
+     * was sent to the path since {@link #reset()}, in which case the next send carries the full map anyway
+     */
+    public synchronized DataMap fullSync(String path) {
+        State state = mStates.get(path);
+        if (state == null) {
+            return null;
+        }
+        long sequence = state.mSequence + 1;
+        DataMap full = copy(state.mMap);
+        full.putLong(KEY_BASE, -1);
+        full.putLong(KEY_SEQUENCE, sequence);
+        state.mSequence = sequence;
+        state.mDeltas = 0;
+        state.mUnconfirmed.add(sequence);
+        return full;
+    }
+
+    /**
+     * Reports the result of the put of a DataMap returned by {@link #encode(String, DataMap)} or
+     * {@link #fullSync(String)}. If it was not put, the path is forgotten so its next send carries the full map.
+     *
+     * @param path    The path of the data
+     * @param sent    The DataMap
+     * @param success Whether the DataItem was put
+     */
+    public synchronized void onPutResult(String path, DataMap sent, boolean success) {
+        State state = mStates.get(path);
+        if (state == null || !state.mUnconfirmed.remove(sent.getLong(KEY_SEQUENCE))) {
+            // from before a reset or a failed put, which already made the next send a full one
+            return;
+        }
+        if (!success) {
+            mStates.remove(path);
+        }
+    }
+
+    /**
+     * Returns the full map for a DataMap received for the path, merging a delta into the map last received.
+     *
+     * @param path     The path of the data
+     * @param received The received DataMap
+     * @return The full map, the received DataMap itself if it was not sent with {@link #encode(String, DataMap)}, or
+     * null if it is a delta to a map this side never received, in which case the full map must be asked for, see
+     * {@link #shouldRequestFullSync(String)}
+     */
+    public synchronized DataMap decode(String path, DataMap received) {
+        if (!received.containsKey(KEY_SEQUENCE)) {
+            return received;
+        }
+        long sequence = received.getLong(KEY_SEQUENCE);
+        long base = received.getLong(KEY_BASE);
+        State state = mStates.get(path);
+        if (base < 0) {
+            state = new State();
+            mStates.put(path, state);
+            mFullSyncRequests.remove(path);
+        } else if (state != null && state.mSequence == sequence) {
+            // delivered again
+            return copy(state.mMap);
+        } else if (state == null || state.mSequence != base) {
+            return null;
+        }
+
+        DataMap merged = state.mMap;
+        merged.putAll(received);
+        String[] removedKeys = received.getStringArray(KEY_REMOVED_KEYS);
+        if (removedKeys != null) {
+            for (String key : removedKeys) {
+                merged.remove(key);
+            }
+        }
+        merged.remove(KEY_SEQUENCE);
+        merged.remove(KEY_BASE);
+        merged.remove(KEY_REMOVED_KEYS);
+        state.mSequence = sequence;
+        return copy(merged);
+    }
+
+    /**
+     * Returns whether the receiver should ask the sender for the full map of the path, after
+     * {@link #decode(String, DataMap)} returned null. Returns false while an earlier request may still be answered,
+     * for {@link #FULL_SYNC_RETRY_INTERVAL}.
+     *
+     * @param path The path of the data
+     */
+    public synchronized boolean shouldRequestFullSync(String path) {
+        long now = SystemClock.elapsedRealtime();
+        Long requestedAt = mFullSyncRequests.get(path);
+        if (requestedAt != null && now - requestedAt < FULL_SYNC_RETRY_INTERVAL) {
+            return false;
+        }
+        mFullSyncRequests.put(path, now);
+        return true;
+    }
+
+    /**
+     * Forgets the maps sent and received, so the next send to every path carries the full map.
+     */
+    public synchronized void reset() {
+        mStates.clear();
+        mFullSyncRequests.clear();
+    }
+
+    private static boolean isIgnored(String key) {
+        return WearConnectionConstants.KEY.CURRENT_TIME.equals(key);
+    }
+
+    /** Compares two values of a DataMap, arrays by content. */
+    private static boolean equals(Object a, Object b) {
+        return Arrays.deepEquals(new Object[]{a}, new Object[]{b});
+    }
+
+    private static DataMap copy(DataMap map) {
+        DataMap copy = new DataMap();
+        copy.putAll(map);
+        return copy;
+    }
+
+    /** The map last sent or received for a path. */
+    private static final class State {
+        /** The map, without the delta keys */
+        DataMap mMap = new DataMap();
+        /** The sequence number of the map */
+        long mSequence = -1;
+        /** The number of deltas sent since the last full map */
+        int mDeltas = 0;
+        /** The sequence numbers of the sent maps whose put did not report its result yet */
+        final Set<Long> mUnconfirmed = new HashSet<>();
+    }
+}
@@ -0,0 +1,263 @@
+package com.prokarma.wearpoc.connection;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Gathers the small messages sent to a path in a short window and sends them as one message, saving a MessageApi call
+ * and a Bluetooth transfer per message. A batch is sent once its oldest message has waited maxDelayMillis, or when the
+ * next message would take it over maxBatchBytes.
+ * <p>
+ * A batch of several messages is framed as {@link #MAGIC} followed by each message as a 4 byte big-endian length and
+ * its bytes. A batch of one message is sent as is, so receivers not knowing the format still understand it. The magic
+ * starts with 0xFF, which never appears in UTF-8 text, so a plain text message is never mistaken for a batch.
+ * {@link #unpack(byte[])} returns the messages of either form.
+ */
+public class WearMessageBatcher {
+
+    /**
+     * Used for sending the batches of a {@link WearMessageBatcher}.
+     */
+    public interface Sender {
+        /**
+         * Called with a batch to send, on the thread adding the last message or on the {@link WearScheduler} thread.
+         * Must not block, as the batches are sent one at a time.
+         *
+         * @param path    The path of the messages
+         * @param payload The message, or the framed messages
+         */
+        void send(String path, byte[] payload);
+    }
+
+    /** The first bytes of a payload holding several messages */
+    private static final byte[] MAGIC = {(byte) 0xFF, 'W', 'B', 1};
+    /** The default time a message waits for others */
+    public static final long DEFAULT_MAX_DELAY = 20;                // IN MILLI SECONDS
+    /** The default size of a batch, well under the 100 KB limit of MessageApi */
+    public static final int DEFAULT_MAX_BATCH_BYTES = 64 * 1024;
+
+    /** The size of the length before each message */
+    private static final int LENGTH_BYTES = 4;
+
+    /** The time after which the oldest message of a batch is sent */
+    private final long mMaxDelayMillis;                             // IN MILLI SECONDS
+    /** The size of the payload above which a batch is sent without the next message */
+    private final int mMaxBatchBytes;
+    /** The sender of the batches */
+    private final Sender mSender;
+    /** Held while a batch is sent */
+    private final Object mDeliveryLock = new Object();
+    /** The batches being gathered, by path */
+    private final Map<String, Batch> mBatches = new HashMap<>();
+
+    public WearMessageBatcher(Sender sender) {
+        this(DEFAULT_MAX_DELAY, DEFAULT_MAX_BATCH_BYTES, sender);
+    }
+
+    /**
+     * @param maxDelayMillis The time after which the oldest message of a batch is sent, in milliseconds
+     * @param maxBatchBytes  The size of the payload above which a batch is sent without the next message
+     * @param sender         The sender of the batches
+     */
+    public WearMessageBatcher(long maxDelayMillis, int maxBatchBytes, Sender sender) {
+        if (maxDelayMillis <= 0 || maxBatchBytes <= MAGIC.length + LENGTH_BYTES) {
+            throw new IllegalArgumentException("The delay and the batch size must be positive");
+        }
+        this.mMaxDelayMillis = maxDelayMillis;
+        this.mMaxBatchBytes = maxBatchBytes;
+        this.mSender = sender;
+    }
+
+    /**
+     * Adds the message to the batch of its path. The batch is sent first if the message would take it over the
+     * maximum size.
+     *
+     * @param path    The path of the message
+     * @param message The message
+     */
+    public void add(final String path, byte[] message) {
+        synchronized (mDeliveryLock) {
+            List<byte[]> full = null;
+            synchronized (this) {
+                Batch batch = mBatches.get(path);
+                if (batch != null
+                        && MAGIC.length + batch.mBytes + LENGTH_BYTES + message.length > mMaxBatchBytes) {
+                    full = takeBatch(path);
+                    batch = null;
+                }
+                if (batch == null) {
+                    final Batch expiring = new Batch();
+                    expiring.mExpiry = WearScheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            flush(path, expiring);
+                        }
+                    }, mMaxDelayMillis);
+                    mBatches.put(path, expiring);
+                    batch = expiring;
+                }
+                batch.mMessages.add(message);
+                batch.mBytes += LENGTH_BYTES + message.length;
+            }
+            if (full != null) {
+                mSender.send(path, pack(full));
+            }
+        }
+    }
+
+    /**
+     * Sends the batch of the path now, if it holds any message.
+     *
+     * @param path The path of the messages
+     */
+    public void flush(String path) {
+        flush(path, null);
+    }
+
+    /**
+     * Sends the batch of the path, if it holds any message and is the expected batch.
+     *
+     * @param path     The path of the messages
+     * @param expected The batch an expiry was scheduled for, or null for the current batch whatever it is
+     */
+    private void flush(String path, Batch expected) {
+        // the batches are sent one at a time, so they arrive in order
+        synchronized (mDeliveryLock) {
+            List<byte[]> messages;
+            synchronized (this) {
+                // a running expiry cannot be cancelled, and may get the lock after its batch was sent as full
+                if (expected != null && mBatches.get(path) != expected) {
+                    return;
+                }
+                messages = takeBatch(path);
+            }
+            if (messages != null) {
+                mSender.send(path, pack(messages));
+            }
+        }
+    }
+
+    /**
+     * Sends the batches of all the paths now.
+     */
+    public void flushAll() {
+        List<String> paths;
+        synchronized (this) {
+            paths = new ArrayList<>(mBatches.keySet());
+        }
+        for (String path : paths) {
+            flush(path);
+        }
+    }
+
+    /**
+     * Drops the batches without sending them.
+     */
+    public synchronized void clear() {
+        for (String path : new ArrayList<>(mBatches.keySet())) {
+            takeBatch(path);
+        }
+    }
+
+    /**
+     * Returns the number of messages waiting in the batches.
+     */
+    public synchronized int size() {
+        int size = 0;
+        for (Batch batch : mBatches.values()) {
+            size += batch.mMessages.size();
+        }
+        return size;
+    }
+
+    /** Removes the batch of the path, cancelling its expiry, and returns its messages, or null if there is none. */
+    private List<byte[]> takeBatch(String path) {
+        Batch batch = mBatches.remove(path);
+        if (batch == null) {
+            return null;
+        }
+        batch.mExpiry.cancel(false);
+        return batch.mMessages;
+    }
+
+    /**
+     * Frames the messages into one payload; a single message is returned as is.
+     *
+     * @param messages The messages, at least one
+     * @return The payload
+     */
+    public static byte[] pack(List<byte[]> messages) {
+        if (messages.size() == 1) {
+            return messages.get(0);
+        }
+        int size = MAGIC.length;
+        for (byte[] message : messages) {
+            size += LENGTH_BYTES + message.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(MAGIC);
+        for (byte[] message : messages) {
+            buffer.putInt(message.length);
+            buffer.put(message);
+        }
+        return buffer.array();
+    }
+
+    /**
+     * Returns the messages of a payload, framed by {@link #pack(List)} or not.
+     *
+     * @param payload The data of a received message
+     * @return The messages, in the order they were sent. A payload which is not a batch, or not a well formed one, is
+     * returned as the only message.
+     */
+    public static List<byte[]> unpack(byte[] payload) {
+        if (!isBatch(payload)) {
+            return Collections.singletonList(payload);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.position(MAGIC.length);
+        List<byte[]> messages = new ArrayList<>();
+        while (buffer.hasRemaining()) {
+            if (buffer.remaining() < LENGTH_BYTES) {
+                return Collections.singletonList(payload);
+            }
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                return Collections.singletonList(payload);
+            }
+            byte[] message = new byte[length];
+            buffer.get(message);
+            messages.add(message);
+        }
+        return messages;
+    }
+
+    /**
+     * Returns whether the payload starts with {@link #MAGIC}.
+     */
+    public static boolean isBatch(byte[] payload) {
+        if (payload == null || payload.length < MAGIC.length) {
+            return false;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (payload[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** The messages gathered for a path. */
+    private static final class Batch {
+        final ArrayList<byte[]> mMessages = new ArrayList<>();
+        /** The size of the framed messages, without the magic */
+        int mBytes;
+        /** The sending of the batch once it expires */
+        ScheduledFuture<?> mExpiry;
+    }
+}
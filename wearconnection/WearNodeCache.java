@@ -0,0 +1,103 @@
+package com.prokarma.wearpoc.connection;
+
+import android.os.SystemClock;
+
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The nodes connected to this device, kept up to date from the peer connected / disconnected events so a message can
+ * be sent without asking Google Play services for the nodes first. The whole set is fetched again with
+ * NodeApi.getConnectedNodes() when it was never fetched, or when it was fetched longer than the time to live ago, in
+ * case an event was missed.
+ */
+public class WearNodeCache implements NodeApi.NodeListener {
+
+    /** The default time after which the nodes are fetched again */
+    public static final long DEFAULT_TIME_TO_LIVE = 60 * 1000;      // IN MILLI SECONDS
+
+    /** The connected nodes, by id */
+    private final ConcurrentHashMap<String, Node> mNodes = new ConcurrentHashMap<>();
+    /** The time after which the nodes are fetched again */
+    private final long mTimeToLive;                                 // IN MILLI SECONDS
+    /** The SystemClock.elapsedRealtime() of the last fetch, or -1 if the nodes must be fetched */
+    private volatile long mFetchedAt = -1;
+    /** Incremented by every change, so a fetch started before a peer event does not undo it */
+    private volatile int mGeneration = 0;
+
+    public WearNodeCache() {
+        this(DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * @param timeToLive The time after which the nodes are fetched again, in milliseconds
+     */
+    public WearNodeCache(long timeToLive) {
+        this.mTimeToLive = timeToLive;
+    }
+
+    /**
+     * Returns whether the nodes must be fetched before sending.
+     */
+    public boolean isStale() {
+        long fetchedAt = mFetchedAt;
+        return fetchedAt < 0 || SystemClock.elapsedRealtime() - fetchedAt >= mTimeToLive;
+    }
+
+    /**
+     * Returns the connected nodes, which may be stale; see {@link #isStale()}.
+     */
+    public List<Node> getNodes() {
+        return new ArrayList<>(mNodes.values());
+    }
+
+    /**
+     * Returns the generation to pass to {@link #setNodes(List, int)} for a fetch starting now.
+     */
+    int getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Replaces the nodes with the result of a fetch. The result is ignored if the nodes changed since the fetch
+     * started, the cache staying stale so the next send fetches them again.
+     *
+     * @param nodes      The connected nodes
+     * @param generation The {@link #getGeneration()} at the start of the fetch
+     */
+    synchronized void setNodes(List<Node> nodes, int generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mNodes.clear();
+        for (Node node : nodes) {
+            mNodes.put(node.getId(), node);
+        }
+        mFetchedAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Forgets the nodes, for example when the connection to Google Play services is lost.
+     */
+    public synchronized void invalidate() {
+        mGeneration++;
+        mNodes.clear();
+        mFetchedAt = -1;
+    }
+
+    @Override
+    public synchronized void onPeerConnected(Node peer) {
+        mGeneration++;
+        mNodes.put(peer.getId(), peer);
+    }
+
+    @Override
+    public synchronized void onPeerDisconnected(Node peer) {
+        mGeneration++;
+        mNodes.remove(peer.getId());
+    }
+}
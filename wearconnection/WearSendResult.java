@@ -0,0 +1,121 @@
+package com.prokarma.wearpoc.connection;
+
+import com.google.android.gms.common.api.Status;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a message sent to all the connected nodes with
+ * {@link WearConnectionListener#sendMessageAndWait(String, String, long)}: one {@link NodeResult} per node, or the
+ * failed status of the lookup of the nodes.
+ */
+public final class WearSendResult {
+
+    /** The status of the lookup of the connected nodes */
+    private final Status mNodesStatus;
+    private final List<NodeResult> mNodeResults;
+    /** The time from the call to the last response or the deadline */
+    private final long mLatency;                    // IN MILLI SECONDS
+
+    WearSendResult(Status nodesStatus, List<NodeResult> nodeResults, long latency) {
+        this.mNodesStatus = nodesStatus;
+        this.mNodeResults = Collections.unmodifiableList(nodeResults);
+        this.mLatency = latency;
+    }
+
+    /**
+     * Returns true if there was at least one node and every node received the message.
+     */
+    public boolean isSuccess() {
+        return !mNodeResults.isEmpty() && getSuccessCount() == mNodeResults.size();
+    }
+
+    /**
+     * Returns the status of the lookup of the connected nodes, for example CommonStatusCodes.TIMEOUT if the deadline
+     * passed before they were found. The message was sent to no node unless it is a success.
+     */
+    public Status getNodesStatus() {
+        return mNodesStatus;
+    }
+
+    /**
+     * Returns the number of nodes which received the message.
+     */
+    public int getSuccessCount() {
+        int count = 0;
+        for (NodeResult result : mNodeResults) {
+            if (result.isSuccess()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the result of every node the message was sent to.
+     */
+    public List<NodeResult> getNodeResults() {
+        return mNodeResults;
+    }
+
+    /**
+     * Returns the time from the call to the last response, or to the deadline, in milliseconds.
+     */
+    public long getLatency() {
+        return mLatency;
+    }
+
+    @Override
+    public String toString() {
+        if (!mNodesStatus.isSuccess()) {
+            return "WearSendResult{nodes not found: " + mNodesStatus.getStatusCode() + " in " + mLatency + " ms}";
+        }
+        return "WearSendResult{" + getSuccessCount() + "/" + mNodeResults.size() + " nodes in " + mLatency + " ms, "
+                + mNodeResults + "}";
+    }
+
+    /**
+     * The outcome of a message sent to one node.
+     */
+    public static final class NodeResult {
+        private final String mNodeId;
+        private final Status mStatus;
+        private final long mLatency;                // IN MILLI SECONDS
+
+        NodeResult(String nodeId, Status status, long latency) {
+            this.mNodeId = nodeId;
+            this.mStatus = status;
+            this.mLatency = latency;
+        }
+
+        public String getNodeId() {
+            return mNodeId;
+        }
+
+        /**
+         * Returns the status of the send, CommonStatusCodes.TIMEOUT if the deadline passed before the node
+         * answered, or CommonStatusCodes.INTERRUPTED if the caller was interrupted.
+         */
+        public Status getStatus() {
+            return mStatus;
+        }
+
+        public boolean isSuccess() {
+            return mStatus.isSuccess();
+        }
+
+        /**
+         * Returns the time from the call to the response of the node, or to the deadline, in milliseconds. It
+         * includes the lookup of the nodes and the wait for a sending thread, as the caller waits for them too.
+         */
+        public long getLatency() {
+            return mLatency;
+        }
+
+        @Override
+        public String toString() {
+            return mNodeId + ": " + mStatus.getStatusCode() + " in " + mLatency + " ms";
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package com.prokarma.wearpoc.connection;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Orders the sends of a {@link WearConnectionListener} by priority, so interactive traffic such as remote control
+ * messages never waits behind a bulk sync.
+ * <p>
+ * Every {@link Priority} has its own queue and its own rate limit, a token bucket allowing short bursts. A send runs
+ * on the calling thread when its queue is empty and its class is under its limit; otherwise it is queued, and the
+ * queues are drained on the {@link WearScheduler} thread as the limits allow, the higher classes first.
+ * <p>
+ * The sends with the same key, such as the puts of one DataItem path, never overtake each other: a send joins the
+ * queue holding the queued sends of its key, moving them to its own queue if it is more urgent, and a send is not
+ * started while another send of its key is still running, on the calling thread or the scheduler thread. A coalescing
+ * send
+ * supersedes the queued coalescing sends of its key, whatever their priority, as only the latest state of a DataItem
+ * is worth sending.
+ */
+public class WearSendScheduler {
+
+    /**
+     * The classes of sends, from the most to the least urgent.
+     */
+    public enum Priority {
+        /** Sends the user waits for, such as remote control messages. Not limited by default. */
+        INTERACTIVE,
+        /** Ordinary sends. Limited to {@link #DEFAULT_NORMAL_RATE} per second by default. */
+        NORMAL,
+        /** Background syncs. Limited to {@link #DEFAULT_BULK_RATE} per second by default. */
+        BULK
+    }
+
+    /** Stands for no rate limit in {@link #setRateLimit(Priority, double, int)} */
+    public static final double UNLIMITED = 0;
+    /** The default rate of the {@link Priority#NORMAL} sends, per second */
+    public static final double DEFAULT_NORMAL_RATE = 20;
+    /** The default rate of the {@link Priority#BULK} sends, per second */
+    public static final double DEFAULT_BULK_RATE = 2;
+    /** The default number of sends of a class which may run at once after a quiet time */
+    public static final int DEFAULT_BURST = 10;
+
+    private static final String TAG = "WearSendScheduler";
+
+    /** The queues, by Priority.ordinal() */
+    private final Lane[] mLanes;
+    /** The queued sends, by key, oldest first. All the sends of a key are in the same queue. */
+    private final Map<String, ArrayList<Task>> mQueuedByKey = new HashMap<>();
+    /** The number of running sends, by key, while any is running */
+    private final Map<String, Integer> mRunning = new HashMap<>();
+    /** The next drain of the queues, or null if they are empty */
+    private ScheduledFuture<?> mDrain;
+    /** The SystemClock.elapsedRealtime() of the next drain */
+    private long mDrainAt;
+
+    public WearSendScheduler() {
+        mLanes = new Lane[Priority.values().length];
+        for (int i = 0; i < mLanes.length; i++) {
+            mLanes[i] = new Lane();
+        }
+        setRateLimit(Priority.INTERACTIVE, UNLIMITED, DEFAULT_BURST);
+        setRateLimit(Priority.NORMAL, DEFAULT_NORMAL_RATE, DEFAULT_BURST);
+        setRateLimit(Priority.BULK, DEFAULT_BULK_RATE, DEFAULT_BURST);
+    }
+
+    /**
+     * Limits the rate of the sends of a class.
+     *
+     * @param priority  The class
+     * @param perSecond The sends allowed per second on average, or {@link #UNLIMITED}
+     * @param burst     The sends allowed at once after a quiet time
+     */
+    public synchronized void setRateLimit(Priority priority, double perSecond, int burst) {
+        if (perSecond < 0 || burst < 1) {
+            throw new IllegalArgumentException("The rate must not be negative and the burst must be positive");
+        }
+        Lane lane = mLanes[priority.ordinal()];
+        lane.mRate = perSecond / 1000;
+        lane.mBurst = burst;
+        lane.mTokens = burst;
+        lane.mRefilledAt = SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Runs the send now if its class allows it and no send of its key is queued or running, or queues it.
+     *
+     * @param priority     The class of the send
+     * @param key          The key of the sends to keep in order, such as the path, or null
+     * @param coalesce     Whether the send supersedes the queued coalescing sends of the key, and may be superseded
+     * @param send         The send. Must not block, as the queued sends share the scheduler thread.
+     * @param onSuperseded Run instead of the send if a later send supersedes it, or if the queues are cleared; may be
+     *                     null. Runs on the thread submitting the later send or clearing the queues.
+     */
+    public void submit(Priority priority, String key, boolean coalesce, Runnable send, Runnable onSuperseded) {
+        List<Runnable> superseded = new ArrayList<>();
+        boolean runNow = false;
+        synchronized (this) {
+            int laneIndex = priority.ordinal();
+            ArrayList<Task> queued = key == null ? null : mQueuedByKey.get(key);
+            if (queued != null && coalesce) {
+                for (Iterator<Task> iterator = queued.iterator(); iterator.hasNext(); ) {
+                    Task task = iterator.next();
+                    if (task.mCoalesce) {
+                        iterator.remove();
+                        mLanes[task.mLane].mQueue.remove(task);
+                        if (task.mOnSuperseded != null) {
+                            superseded.add(task.mOnSuperseded);
+                        }
+                    }
+                }
+            }
+            Task task = new Task(key, coalesce, send, onSuperseded);
+            if (queued != null && !queued.isEmpty()) {
+                // queues behind the sends of the key, moving them forward if this send is more urgent
+                int queuedLane = queued.get(0).mLane;
+                if (queuedLane > laneIndex) {
+                    for (Task earlier : queued) {
+                        mLanes[queuedLane].mQueue.remove(earlier);
+                        earlier.mLane = laneIndex;
+                        mLanes[laneIndex].mQueue.add(earlier);
+                    }
+                } else {
+                    laneIndex = queuedLane;
+                }
+                enqueue(task, laneIndex);
+            } else {
+                if (queued != null) {
+                    mQueuedByKey.remove(key);
+                }
+                Lane lane = mLanes[laneIndex];
+                lane.refill(SystemClock.elapsedRealtime());
+                if (lane.mQueue.isEmpty() && lane.mTokens >= 1 && (key == null || !mRunning.containsKey(key))) {
+                    lane.mTokens--;
+                    startRunning(key);
+                    runNow = true;
+                } else {
+                    enqueue(task, laneIndex);
+                }
+            }
+            if (!runNow) {
+                scheduleDrain();
+            }
+        }
+        run(superseded);
+        if (runNow) {
+            try {
+                send.run();
+            } finally {
+                finishRunning(key);
+            }
+        }
+    }
+
+    /**
+     * Runs all the queued sends now, ignoring the rate limits, for example before disconnecting.
+     */
+    public void flush() {
+        List<Task> sends = new ArrayList<>();
+        synchronized (this) {
+            for (Lane lane : mLanes) {
+                for (Task task : lane.mQueue) {
+                    startRunning(task.mKey);
+                    sends.add(task);
+                }
+                lane.mQueue.clear();
+            }
+            mQueuedByKey.clear();
+            cancelDrain();
+        }
+        runTasks(sends);
+    }
+
+    /**
+     * Drops the queued sends, running their onSuperseded tasks.
+     */
+    public void clear() {
+        List<Runnable> superseded = new ArrayList<>();
+        synchronized (this) {
+            for (Lane lane : mLanes) {
+                for (Task task : lane.mQueue) {
+                    if (task.mOnSuperseded != null) {
+                        superseded.add(task.mOnSuperseded);
+                    }
+                }
+                lane.mQueue.clear();
+            }
+            mQueuedByKey.clear();
+            cancelDrain();
+        }
+        run(superseded);
+    }
+
+    /**
+     * Returns the number of queued sends of a class.
+     */
+    public synchronized int size(Priority priority) {
+        return mLanes[priority.ordinal()].mQueue.size();
+    }
+
+    private void enqueue(Task task, int laneIndex) {
+        task.mLane = laneIndex;
+        mLanes[laneIndex].mQueue.add(task);
+        if (task.mKey != null) {
+            ArrayList<Task> queued = mQueuedByKey.get(task.mKey);
+            if (queued == null) {
+                queued = new ArrayList<>(2);
+                mQueuedByKey.put(task.mKey, queued);
+            }
+            queued.add(task);
+        }
+    }
+
+    /**
+     * Runs the queued sends the rate limits allow, the higher classes first. The sends of a key running on another
+     * thread stay queued, and are drained once it finishes.
+     */
+    private void drain() {
+        List<Task> sends = new ArrayList<>();
+        synchronized (this) {
+            mDrain = null;
+            long now = SystemClock.elapsedRealtime();
+            // the keys of the sends taken by this drain, which run in order on this thread
+            Set<String> taken = new HashSet<>();
+            for (Lane lane : mLanes) {
+                lane.refill(now);
+                for (Iterator<Task> iterator = lane.mQueue.iterator(); iterator.hasNext() && lane.mTokens >= 1; ) {
+                    Task task = iterator.next();
+                    if (isWaiting(task, taken)) {
+                        continue;
+                    }
+                    iterator.remove();
+                    if (task.mKey != null) {
+                        ArrayList<Task> queued = mQueuedByKey.get(task.mKey);
+                        // the oldest send of its key, as the sends of a key keep their order in the queue, and a send
+                        // of a key is only skipped with all the later ones
+                        queued.remove(0);
+                        if (queued.isEmpty()) {
+                            mQueuedByKey.remove(task.mKey);
+                        }
+                        taken.add(task.mKey);
+                    }
+                    startRunning(task.mKey);
+                    lane.mTokens--;
+                    sends.add(task);
+                }
+            }
+            scheduleDrain();
+        }
+        runTasks(sends);
+    }
+
+    /** Returns whether the send must wait for a send of its key running on another thread. */
+    private boolean isWaiting(Task task, Set<String> taken) {
+        return task.mKey != null && mRunning.containsKey(task.mKey) && (taken == null || !taken.contains(task.mKey));
+    }
+
+    private void startRunning(String key) {
+        if (key != null) {
+            Integer running = mRunning.get(key);
+            mRunning.put(key, running == null ? 1 : running + 1);
+        }
+    }
+
+    /** Marks a send of the key finished, draining the sends of the key which waited for it. */
+    private synchronized void finishRunning(String key) {
+        if (key == null) {
+            return;
+        }
+        int running = mRunning.get(key) - 1;
+        if (running > 0) {
+            mRunning.put(key, running);
+            return;
+        }
+        mRunning.remove(key);
+        if (mQueuedByKey.containsKey(key)) {
+            scheduleDrain();
+        }
+    }
+
+    /** Runs the sends in order, marking each finished once it ran. */
+    private void runTasks(List<Task> sends) {
+        for (Task task : sends) {
+            try {
+                task.mSend.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Send failed", e);
+            } finally {
+                finishRunning(task.mKey);
+            }
+        }
+    }
+
+    private static void run(List<Runnable> sends) {
+        for (Runnable send : sends) {
+            try {
+                send.run();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Send failed", e);
+            }
+        }
+    }
+
+    /**
+     * Schedules a drain for when the first queued send is allowed, unless one is scheduled before. The sends waiting
+     * for a running send of their key are left to {@link #finishRunning(String)}.
+     */
+    private void scheduleDrain() {
+        long now = SystemClock.elapsedRealtime();
+        long drainAt = Long.MAX_VALUE;
+        for (Lane lane : mLanes) {
+            if (hasReadySend(lane)) {
+                drainAt = Math.min(drainAt, now + lane.millisToToken());
+            }
+        }
+        if (drainAt == Long.MAX_VALUE || (mDrain != null && mDrainAt <= drainAt)) {
+            return;
+        }
+        cancelDrain();
+        mDrainAt = drainAt;
+        mDrain = WearScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, drainAt - now);
+    }
+
+    private boolean hasReadySend(Lane lane) {
+        for (Task task : lane.mQueue) {
+            if (!isWaiting(task, null)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void cancelDrain() {
+        if (mDrain != null) {
+            mDrain.cancel(false);
+            mDrain = null;
+        }
+    }
+
+    /** The queue and the rate limit of a class. */
+    private static final class Lane {
+        final ArrayDeque<Task> mQueue = new ArrayDeque<>();
+        /** The sends allowed per millisecond, or 0 for no limit */
+        double mRate;
+        /** The most tokens */
+        int mBurst;
+        /** The sends allowed now */
+        double mTokens;
+        /** The SystemClock.elapsedRealtime() of the last refill */
+        long mRefilledAt;
+
+        void refill(long now) {
+            if (mRate == UNLIMITED) {
+                mTokens = mBurst;
+            } else {
+                mTokens = Math.min(mBurst, mTokens + (now - mRefilledAt) * mRate);
+            }
+            mRefilledAt = now;
+        }
+
+        /** Returns the time until the next token, in milliseconds. */
+        long millisToToken() {
+            if (mRate == UNLIMITED || mTokens >= 1) {
+                return 0;
+            }
+            return (long) Math.ceil((1 - mTokens) / mRate);
+        }
+    }
+
+    /** A queued send. */
+    private static final class Task {
+        final String mKey;
+        final boolean mCoalesce;
+        final Runnable mSend;
+        final Runnable mOnSuperseded;
+        /** The Priority.ordinal() of the queue holding the send */
+        int mLane;
+
+        Task(String key, boolean coalesce, Runnable send, Runnable onSuperseded) {
+            this.mKey = key;
+            this.mCoalesce = coalesce;
+            this.mSend = send;
+            this.mOnSuperseded = onSuperseded;
+        }
+    }
+}
@@ -33,18 +33,37 @@ public class WearService extends WearableListenerService {
     public void onMessageReceived(MessageEvent messageEvent) {
         super.onMessageReceived(messageEvent);
         Log.d(TAG, "onMessageReceived");
+        for (byte[] message : WearMessageBatcher.unpack(messageEvent.getData())) {
+            onMessage(messageEvent, message);
+        }
+    }
+
+    /**
+     * Called for every message of a received event, the messages batched by the sender with
+     * {@link WearConnectionListener#sendBatchedMessage(String, String)} being unpacked.
+     *
+     * @param messageEvent The event carrying the message, for its path and source node
+     * @param message      The message
+     */
+    protected void onMessage(MessageEvent messageEvent, byte[] message) {
     }
 
     @Override
     public void onPeerConnected(Node peer) {
         super.onPeerConnected(peer);
         Log.d(TAG, "onPeerConnected");
+        if (mConnectionListener != null) {
+            mConnectionListener.getNodeCache().onPeerConnected(peer);
+        }
     }
 
     @Override
     public void onPeerDisconnected(Node peer) {
         super.onPeerDisconnected(peer);
         Log.d(TAG, "onPeerDisconnected");
+        if (mConnectionListener != null) {
+            mConnectionListener.getNodeCache().onPeerDisconnected(peer);
+        }
     }
 
     @Override